@@ -0,0 +1,264 @@
+package studio.stc.lotusutil.util;
+
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.android.volley.TimeoutError;
+import com.android.volley.VolleyError;
+
+import org.json.JSONObject;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * BatchRequest by STC
+ * 一次送出多個GET請求：每個host同時進行的請求數有上限，全部結束(或超過期限)後只回呼一次，
+ * 結果依照傳入的順序排列，失敗的項目另外整理在錯誤報告中。
+ * 由 {@link InternetSourceAgent#RequestBatch(List, int, long, BatchListener)} 建立。
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class BatchRequest {
+    private static final String TAG = "BatchRequest";
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
+    private final InternetSourceAgent mAgent;
+    private final List<Spec> mSpecs;
+    private final int mMaxConcurrentPerHost;
+    private final BatchListener mListener;
+    private final JSONObject[] mResults;
+    private final TreeMap<Integer, VolleyError> mErrors = new TreeMap<>();
+    private final HashMap<String, ArrayDeque<Integer>> mPending = new HashMap<>();
+    private final HashMap<String, Integer> mActive = new HashMap<>();
+    private int mFinishedCount = 0;
+    private boolean mDone = false;
+
+    private final Runnable mDeadlineRunnable = new Runnable() {
+        @Override
+        public void run() {
+            finishByDeadline();
+        }
+    };
+
+    BatchRequest(@NonNull InternetSourceAgent agent, @NonNull List<Spec> specs, int maxConcurrentPerHost, @NonNull BatchListener listener) {
+        mAgent = agent;
+        mSpecs = new ArrayList<>(specs);
+        mMaxConcurrentPerHost = Math.max(1, maxConcurrentPerHost);
+        mListener = listener;
+        mResults = new JSONObject[mSpecs.size()];
+    }
+
+    /**
+     * 開始執行。
+     *
+     * @param deadlineMs 整批的期限(毫秒)。0或負數代表沒有期限。
+     */
+    void start(long deadlineMs) {
+        Log.i(TAG, "start: " + mSpecs.size() + " requests, at most " + mMaxConcurrentPerHost + " per host");
+        synchronized (this) {
+            if (mSpecs.isEmpty()) {
+                complete(false);
+                return;
+            }
+            for (int i = 0; i < mSpecs.size(); i++) {
+                String host = hostOf(mSpecs.get(i).targetURL);
+                ArrayDeque<Integer> queue = mPending.get(host);
+                if (queue == null) {
+                    queue = new ArrayDeque<>();
+                    mPending.put(host, queue);
+                }
+                queue.add(i);
+            }
+        }
+        if (deadlineMs > 0) sMainHandler.postDelayed(mDeadlineRunnable, deadlineMs);
+        for (String host : new ArrayList<>(mPending.keySet())) {
+            startNext(host);
+        }
+    }
+
+    /**
+     * 放棄整批請求。尚未結束的請求會被取消，且不會回呼。
+     */
+    public void cancel() {
+        synchronized (this) {
+            if (mDone) return;
+            mDone = true;
+        }
+        sMainHandler.removeCallbacks(mDeadlineRunnable);
+        mAgent.CancelRequest();
+    }
+
+    public synchronized boolean isDone() {
+        return mDone;
+    }
+
+    private void startNext(String host) {
+        while (true) {
+            final int index;
+            synchronized (this) {
+                ArrayDeque<Integer> queue = mPending.get(host);
+                Integer active = mActive.get(host);
+                int activeCount = active == null ? 0 : active;
+                if (mDone || queue == null || queue.isEmpty() || activeCount >= mMaxConcurrentPerHost) return;
+                index = queue.poll();
+                mActive.put(host, activeCount + 1);
+            }
+            final String requestHost = host;
+            Spec spec = mSpecs.get(index);
+            mAgent.GetSingleData(spec.targetURL, new InternetSourceAgent.ResponseListener<JSONObject>() {
+                @Override
+                public void OnResponseSuccess(JSONObject object) {
+                    onFinished(requestHost, index, object, null);
+                }
+
+                @Override
+                public void OnResponseError(VolleyError error) {
+                    onFinished(requestHost, index, null, error);
+                }
+            }, spec.bundledData, spec.cachePolicy);
+        }
+    }
+
+    private void onFinished(String host, int index, @Nullable JSONObject result, @Nullable VolleyError error) {
+        boolean allFinished;
+        synchronized (this) {
+            if (mDone) return;
+            mActive.put(host, mActive.get(host) - 1);
+            mResults[index] = result;
+            if (error != null) mErrors.put(index, error);
+            mFinishedCount++;
+            allFinished = mFinishedCount == mSpecs.size();
+            if (allFinished) mDone = true;
+        }
+        if (allFinished) {
+            sMainHandler.removeCallbacks(mDeadlineRunnable);
+            complete(false);
+        } else {
+            startNext(host);
+        }
+    }
+
+    private void finishByDeadline() {
+        synchronized (this) {
+            if (mDone) return;
+            mDone = true;
+            for (int i = 0; i < mSpecs.size(); i++) {
+                if (mResults[i] == null && !mErrors.containsKey(i)) mErrors.put(i, new TimeoutError());
+            }
+        }
+        Log.w(TAG, "finishByDeadline: deadline reached, " + mErrors.size() + " of " + mSpecs.size() + " requests unfinished or failed");
+        // 此Agent專屬於這個批次，取消它不會影響其他畫面的請求
+        mAgent.CancelRequest();
+        complete(true);
+    }
+
+    private void complete(boolean timedOut) {
+        final BatchResult result;
+        synchronized (this) {
+            mDone = true;
+            ArrayList<JSONObject> results = new ArrayList<>(mResults.length);
+            Collections.addAll(results, mResults);
+            result = new BatchResult(results, new TreeMap<>(mErrors), timedOut);
+        }
+        // 個別請求的結果可能在Agent的回應Executor上送達，監聽器固定在主執行緒上呼叫
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            mListener.OnBatchComplete(result);
+            return;
+        }
+        sMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mListener.OnBatchComplete(result);
+            }
+        });
+    }
+
+    private static String hostOf(String url) {
+        String host = Uri.parse(url).getHost();
+        return host == null ? "" : host;
+    }
+
+    /**
+     * 批次中的一個GET請求。
+     */
+    public static final class Spec {
+        final String targetURL;
+        final JSONObject bundledData;
+        final CachePolicy cachePolicy;
+
+        public Spec(@NonNull String targetURL) {
+            this(targetURL, null, null);
+        }
+
+        /**
+         * @param targetURL   目標網址。
+         * @param bundledData 附加的資料（可以為null），與 {@link InternetSourceAgent#GetSingleData(String, InternetSourceAgent.ResponseListener, JSONObject)} 相同。
+         * @param cachePolicy 回應快取策略（可以為null）。
+         */
+        public Spec(@NonNull String targetURL, @Nullable JSONObject bundledData, @Nullable CachePolicy cachePolicy) {
+            this.targetURL = targetURL;
+            this.bundledData = bundledData;
+            this.cachePolicy = cachePolicy;
+        }
+    }
+
+    /**
+     * 整批請求的結果。
+     */
+    public static final class BatchResult {
+        private final List<JSONObject> mResults;
+        private final Map<Integer, VolleyError> mErrors;
+        private final boolean mTimedOut;
+
+        BatchResult(List<JSONObject> results, Map<Integer, VolleyError> errors, boolean timedOut) {
+            mResults = Collections.unmodifiableList(results);
+            mErrors = Collections.unmodifiableMap(errors);
+            mTimedOut = timedOut;
+        }
+
+        /**
+         * @return 依照傳入順序排列的結果。失敗或未完成的項目為null。
+         */
+        @NonNull
+        public List<JSONObject> getResults() {
+            return mResults;
+        }
+
+        /**
+         * @return 失敗的項目(索引 → 錯誤)。超過期限而未完成的項目為 {@link TimeoutError}。
+         */
+        @NonNull
+        public Map<Integer, VolleyError> getErrors() {
+            return mErrors;
+        }
+
+        public boolean isTimedOut() {
+            return mTimedOut;
+        }
+
+        public boolean isAllSuccess() {
+            return mErrors.isEmpty();
+        }
+
+        public int getSuccessCount() {
+            return mResults.size() - mErrors.size();
+        }
+    }
+
+    /**
+     * 整批請求結束(或超過期限)時的監聽器，只會呼叫一次，且在主執行緒上。
+     */
+    public interface BatchListener {
+        void OnBatchComplete(BatchResult result);
+    }
+}
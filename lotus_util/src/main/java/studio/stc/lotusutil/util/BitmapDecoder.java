@@ -0,0 +1,83 @@
+package studio.stc.lotusutil.util;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+/**
+ * BitmapDecoder by STC
+ * 圖片解碼工具：先讀取尺寸，以2的次方inSampleSize縮小到目標尺寸，並透過inBitmap重複使用 {@link BitmapPool} 中的記憶體。
+ * 解碼會花費不少時間，請在背景執行緒上呼叫。
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class BitmapDecoder {
+    private static final String TAG = "BitmapDecoder";
+
+    private BitmapDecoder() {
+    }
+
+    /**
+     * 解碼圖片。
+     *
+     * @param data      圖片的原始bytes。
+     * @param reqWidth  目標寬度。0代表不限制。
+     * @param reqHeight 目標高度。0代表不限制。
+     * @param config    顏色格式。
+     * @param pool      可以重複使用的Bitmap來源(可以為null)。
+     * @return 解碼後的Bitmap(尺寸不小於目標尺寸，除非原圖更小)；無法解碼時為null。
+     */
+    @Nullable
+    @WorkerThread
+    public static Bitmap decode(@NonNull byte[] data, int reqWidth, int reqHeight, @NonNull Bitmap.Config config, @Nullable BitmapPool pool) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) return null;
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight, reqWidth, reqHeight);
+        options.inPreferredConfig = config;
+        options.inMutable = true; // 可變的Bitmap之後才能放入BitmapPool
+        Bitmap reusable = null;
+        if (pool != null) {
+            int width = ceilDiv(options.outWidth, options.inSampleSize);
+            int height = ceilDiv(options.outHeight, options.inSampleSize);
+            reusable = pool.get(width, height, config);
+            options.inBitmap = reusable;
+        }
+        try {
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        } catch (IllegalArgumentException e) {
+            // inBitmap不相容(例如格式不同)時，改為配置新的記憶體
+            if (reusable == null) throw e;
+            Log.v(TAG, "decode: cannot reuse bitmap, allocating a new one.", e);
+            pool.put(reusable);
+            options.inBitmap = null;
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        }
+    }
+
+    /**
+     * @return 使解碼結果仍不小於目標尺寸的最大2的次方縮小倍率。
+     */
+    public static int calculateInSampleSize(int width, int height, int reqWidth, int reqHeight) {
+        if (reqWidth <= 0 && reqHeight <= 0) return 1;
+        int sampleSize = 1;
+        while (fits(width / (sampleSize * 2), reqWidth) && fits(height / (sampleSize * 2), reqHeight)) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private static boolean fits(int size, int required) {
+        return required <= 0 || size >= required;
+    }
+
+    private static int ceilDiv(int value, int divisor) {
+        return (value + divisor - 1) / divisor;
+    }
+}
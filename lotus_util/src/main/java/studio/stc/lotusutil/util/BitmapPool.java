@@ -0,0 +1,182 @@
+package studio.stc.lotusutil.util;
+
+import android.graphics.Bitmap;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+
+/**
+ * BitmapPool by STC
+ * 依(Config, 記憶體大小)分桶的Bitmap池，提供給 {@link BitmapDecoder} 以inBitmap重複使用記憶體。
+ * 只有「已經不在記憶體快取中、也沒有任何ImageView正在顯示」的Bitmap才會進入池中：
+ * 顯示時以 {@link #acquire(Bitmap)} / {@link #release(Bitmap)} 計數，離開快取時呼叫 {@link #onRemovedFromCache(Bitmap)}。
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class BitmapPool {
+    // 取出的Bitmap最多可以是需求大小的幾倍，避免用大圖裝小圖浪費記憶體
+    private static final int MAX_SIZE_MULTIPLE = 4;
+
+    private final long mMaxSize;
+    private long mSize = 0;
+    private final HashMap<Bitmap.Config, TreeMap<Integer, ArrayDeque<Bitmap>>> mBuckets = new HashMap<>();
+    // 放入的順序(最舊的在前)，超過容量時由最舊的開始丟棄
+    private final LinkedHashMap<Bitmap, Boolean> mOrder = new LinkedHashMap<>();
+    private final WeakHashMap<Bitmap, Usage> mUsages = new WeakHashMap<>();
+
+    /**
+     * @param maxSize 池的容量上限(bytes)。
+     */
+    public BitmapPool(long maxSize) {
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * 取出一個至少能容納 width x height 的Bitmap，供inBitmap使用。
+     *
+     * @return 可以重複使用的Bitmap；沒有合適的則為null。
+     */
+    @Nullable
+    public synchronized Bitmap get(int width, int height, @NonNull Bitmap.Config config) {
+        TreeMap<Integer, ArrayDeque<Bitmap>> buckets = mBuckets.get(config);
+        if (buckets == null) return null;
+        int required = width * height * bytesPerPixel(config);
+        Map.Entry<Integer, ArrayDeque<Bitmap>> entry = buckets.ceilingEntry(required);
+        if (entry == null || entry.getKey() > (long) required * MAX_SIZE_MULTIPLE) return null;
+        Bitmap bitmap = entry.getValue().poll();
+        if (entry.getValue().isEmpty()) buckets.remove(entry.getKey());
+        if (bitmap == null) return null;
+        mOrder.remove(bitmap);
+        mSize -= bitmap.getAllocationByteCount();
+        return bitmap;
+    }
+
+    /**
+     * 放入一個已經沒有人使用的Bitmap。不可變或已回收的Bitmap會被忽略。
+     */
+    public synchronized void put(@NonNull Bitmap bitmap) {
+        if (bitmap.isRecycled() || !bitmap.isMutable() || bitmap.getConfig() == null || mOrder.containsKey(bitmap)) return;
+        int size = bitmap.getAllocationByteCount();
+        if (size > mMaxSize) return;
+        TreeMap<Integer, ArrayDeque<Bitmap>> buckets = mBuckets.get(bitmap.getConfig());
+        if (buckets == null) {
+            buckets = new TreeMap<>();
+            mBuckets.put(bitmap.getConfig(), buckets);
+        }
+        ArrayDeque<Bitmap> bucket = buckets.get(size);
+        if (bucket == null) {
+            bucket = new ArrayDeque<>();
+            buckets.put(size, bucket);
+        }
+        bucket.add(bitmap);
+        mOrder.put(bitmap, Boolean.TRUE);
+        mSize += size;
+        trimToSize();
+    }
+
+    /**
+     * 某個View開始顯示此Bitmap。若它已經在池中(例如剛好在查詢快取之後被淘汰)，會由池中取回，不會再被inBitmap覆寫。
+     */
+    public synchronized void acquire(@NonNull Bitmap bitmap) {
+        Usage usage = usageOf(bitmap);
+        if (mOrder.remove(bitmap) != null) {
+            removeFromBuckets(bitmap);
+            // 在池中代表已經不在快取中，不再顯示時要放回池中
+            usage.removedFromCache = true;
+        }
+        usage.displayCount++;
+    }
+
+    /**
+     * 某個View不再顯示此Bitmap。若它也已經不在快取中，就放入池中。
+     */
+    public synchronized void release(@NonNull Bitmap bitmap) {
+        Usage usage = mUsages.get(bitmap);
+        if (usage == null || usage.displayCount == 0) return;
+        usage.displayCount--;
+        if (usage.displayCount == 0 && usage.removedFromCache) {
+            mUsages.remove(bitmap);
+            put(bitmap);
+        }
+    }
+
+    /**
+     * 此Bitmap被記憶體快取淘汰或取代。若沒有View正在顯示，就放入池中。
+     */
+    public synchronized void onRemovedFromCache(@NonNull Bitmap bitmap) {
+        Usage usage = usageOf(bitmap);
+        usage.removedFromCache = true;
+        if (usage.displayCount == 0) {
+            mUsages.remove(bitmap);
+            put(bitmap);
+        }
+    }
+
+    public synchronized void clear() {
+        mBuckets.clear();
+        mOrder.clear();
+        mSize = 0;
+    }
+
+    public synchronized long size() {
+        return mSize;
+    }
+
+    static int bytesPerPixel(@NonNull Bitmap.Config config) {
+        switch (config) {
+            case ALPHA_8:
+                return 1;
+            case RGB_565:
+            case ARGB_4444:
+                return 2;
+            default:
+                return 4;
+        }
+    }
+
+    private Usage usageOf(Bitmap bitmap) {
+        Usage usage = mUsages.get(bitmap);
+        if (usage == null) {
+            usage = new Usage();
+            mUsages.put(bitmap, usage);
+        }
+        return usage;
+    }
+
+    private void trimToSize() {
+        Iterator<Bitmap> iterator = mOrder.keySet().iterator();
+        while (mSize > mMaxSize && iterator.hasNext()) {
+            Bitmap eldest = iterator.next();
+            iterator.remove();
+            removeFromBuckets(eldest);
+        }
+    }
+
+    /**
+     * 由分桶中移除(呼叫者已由mOrder移除)。
+     */
+    private void removeFromBuckets(Bitmap bitmap) {
+        int size = bitmap.getAllocationByteCount();
+        TreeMap<Integer, ArrayDeque<Bitmap>> buckets = mBuckets.get(bitmap.getConfig());
+        if (buckets != null) {
+            ArrayDeque<Bitmap> bucket = buckets.get(size);
+            if (bucket != null) {
+                bucket.remove(bitmap);
+                if (bucket.isEmpty()) buckets.remove(size);
+            }
+        }
+        mSize -= size;
+    }
+
+    private static final class Usage {
+        int displayCount = 0;
+        boolean removedFromCache = false;
+    }
+}
@@ -0,0 +1,251 @@
+package studio.stc.lotusutil.util;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.collection.LruCache;
+
+import com.android.volley.Cache;
+import com.android.volley.NetworkResponse;
+import com.android.volley.ParseError;
+import com.android.volley.Response;
+import com.android.volley.toolbox.HttpHeaderParser;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * CachePolicy by STC
+ * JSON請求的回應快取策略，取代伺服器Header決定的快取時間：
+ * <ul>
+ * <li>{@link #maxAge(long)}：在期限內直接使用快取，不連線。</li>
+ * <li>{@link #staleWhileRevalidate(long)}：過期後的一段時間內先回傳快取，同時在背景更新。</li>
+ * <li>{@link #alwaysRevalidate()}：每次都以If-None-Match / If-Modified-Since向伺服器確認，304時使用快取內容。</li>
+ * </ul>
+ * 伺服器回應304(或命中快取)且驗證值(ETag / Last-Modified)相同時，會直接沿用同一個解析器先前解析好的物件而不重新解析。
+ * 解析結果以回應的大小計算，總共只保留約1MB的回應；超過256KB的回應每次都重新解析。
+ * 注意：沿用的物件(例如JSONObject)是同一個實體，會回傳給之後每一個相同的請求，請勿修改其內容；需要修改時請先複製。
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class CachePolicy {
+    // 以回應的位元組數計算(解析後的物件通常比原文大數倍)，避免長時間保留大量的大型解析結果
+    private static final int PARSED_CACHE_BYTES = 1024 * 1024;
+    // 超過此大小的回應不保留解析結果，以免單一回應就佔滿快取
+    private static final int MAX_PARSED_ENTRY_BYTES = PARSED_CACHE_BYTES / 4;
+    private static final LruCache<String, ParsedEntry> sParsedCache = new LruCache<String, ParsedEntry>(PARSED_CACHE_BYTES) {
+        @Override
+        protected int sizeOf(@NonNull String key, @NonNull ParsedEntry value) {
+            // 空的回應也佔一個單位，數量不會無限增加
+            return Math.max(1, value.length);
+        }
+    };
+
+    private final long mMaxAgeMs;
+    private final long mStaleWhileRevalidateMs;
+    private final boolean mAlwaysRevalidate;
+
+    private CachePolicy(long maxAgeMs, long staleWhileRevalidateMs, boolean alwaysRevalidate) {
+        mMaxAgeMs = maxAgeMs;
+        mStaleWhileRevalidateMs = staleWhileRevalidateMs;
+        mAlwaysRevalidate = alwaysRevalidate;
+    }
+
+    /**
+     * @param maxAgeMs 快取的有效時間(毫秒)。期限內不會連線。
+     */
+    @NonNull
+    public static CachePolicy maxAge(long maxAgeMs) {
+        return new CachePolicy(Math.max(0, maxAgeMs), 0, false);
+    }
+
+    /**
+     * 每次都向伺服器確認(conditional request)。內容沒有變化時伺服器只需回應304。
+     */
+    @NonNull
+    public static CachePolicy alwaysRevalidate() {
+        return new CachePolicy(0, 0, true);
+    }
+
+    /**
+     * @param staleMs 超過maxAge之後，仍可先回傳舊內容並在背景更新的時間(毫秒)。
+     * @return 新的CachePolicy。
+     */
+    @NonNull
+    public CachePolicy staleWhileRevalidate(long staleMs) {
+        return new CachePolicy(mMaxAgeMs, Math.max(0, staleMs), mAlwaysRevalidate);
+    }
+
+    public long getMaxAgeMs() {
+        return mMaxAgeMs;
+    }
+
+    public long getStaleWhileRevalidateMs() {
+        return mStaleWhileRevalidateMs;
+    }
+
+    public boolean isAlwaysRevalidate() {
+        return mAlwaysRevalidate;
+    }
+
+    /**
+     * 依此策略建立快取項目。伺服器指定no-store時不快取。
+     */
+    @Nullable
+    public Cache.Entry toCacheEntry(@NonNull NetworkResponse response) {
+        Map<String, String> headers = caseInsensitive(response.headers);
+        String cacheControl = headers.get("Cache-Control");
+        if (cacheControl != null && cacheControl.contains("no-store")) return null;
+
+        long now = System.currentTimeMillis();
+        Cache.Entry entry = new Cache.Entry();
+        entry.data = response.data;
+        entry.etag = headers.get("ETag");
+        String serverDate = headers.get("Date");
+        if (serverDate != null) entry.serverDate = HttpHeaderParser.parseDateAsEpoch(serverDate);
+        String lastModified = headers.get("Last-Modified");
+        if (lastModified != null) entry.lastModified = HttpHeaderParser.parseDateAsEpoch(lastModified);
+        entry.responseHeaders = response.headers;
+        entry.allResponseHeaders = response.allHeaders;
+        if (mAlwaysRevalidate) {
+            // 立即過期：下次請求一定會帶著驗證值連線
+            entry.softTtl = 0;
+            entry.ttl = 0;
+        } else {
+            entry.softTtl = now + mMaxAgeMs;
+            entry.ttl = entry.softTtl + mStaleWhileRevalidateMs;
+        }
+        return entry;
+    }
+
+    /**
+     * 依此策略解析回應。驗證值與上次相同、且使用同一個解析器時，直接沿用上次解析的結果(同一個物件，請勿修改)。
+     * 同一個網址以不同的解析器(例如JSONObject與JSONArray)請求時，各自解析，不會互相沿用。
+     *
+     * @param cacheKey 請求的cache key。
+     * @param parser   將回應文字轉換成物件的方法。
+     */
+    @NonNull
+    public <T> Response<T> parseResponse(@NonNull NetworkResponse response, @NonNull String cacheKey, @NonNull BodyParser<T> parser) {
+        Cache.Entry entry = toCacheEntry(response);
+        String validator = validatorOf(response);
+        int length = response.data == null ? 0 : response.data.length;
+        String parsedKey = parsedKeyOf(cacheKey, parser);
+        if (validator != null) {
+            ParsedEntry parsed = sParsedCache.get(parsedKey);
+            if (parsed != null && parsed.parser == parser && parsed.validator.equals(validator) && parsed.length == length) {
+                @SuppressWarnings("unchecked")
+                T value = (T) parsed.value;
+                return Response.success(value, entry);
+            }
+        }
+        try {
+            T value = parseBody(parser, response);
+            if (validator != null) {
+                if (length <= MAX_PARSED_ENTRY_BYTES) sParsedCache.put(parsedKey, new ParsedEntry(parser, validator, length, value));
+                else sParsedCache.remove(parsedKey);
+            }
+            return Response.success(value, entry);
+        } catch (UnsupportedEncodingException | JSONException e) {
+            return Response.error(new ParseError(e));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CachePolicy{maxAge=" + mMaxAgeMs + ", swr=" + mStaleWhileRevalidateMs + ", revalidate=" + mAlwaysRevalidate + "}";
+    }
+
+    /**
+     * 將回應文字轉換成物件。
+     */
+    public interface BodyParser<T> {
+        T parse(String body) throws JSONException;
+    }
+
+    /**
+     * 可以直接由回應內容的串流轉換的解析器，省下把整個回應先轉成String的複製。
+     */
+    interface StreamBodyParser<T> extends BodyParser<T> {
+        T parse(InputStream body, String charset) throws JSONException;
+    }
+
+    /**
+     * 直接使用回應內容bytes的解析器(不複製)。
+     */
+    interface BytesBodyParser<T> extends BodyParser<T> {
+        T parse(byte[] body, String charset) throws JSONException;
+    }
+
+    /**
+     * 以解析器轉換回應內容。支援 {@link StreamBodyParser} 或 {@link BytesBodyParser} 時直接由bytes讀取。
+     */
+    static <T> T parseBody(@NonNull BodyParser<T> parser, @NonNull NetworkResponse response) throws UnsupportedEncodingException, JSONException {
+        String charset = HttpHeaderParser.parseCharset(response.headers, "utf-8");
+        byte[] data = response.data == null ? new byte[0] : response.data;
+        if (parser instanceof BytesBodyParser) {
+            return ((BytesBodyParser<T>) parser).parse(data, charset);
+        }
+        if (parser instanceof StreamBodyParser) {
+            return ((StreamBodyParser<T>) parser).parse(new ByteArrayInputStream(data), charset);
+        }
+        return parser.parse(new String(data, charset));
+    }
+
+    public static final BodyParser<JSONObject> JSON_OBJECT_PARSER = new BodyParser<JSONObject>() {
+        @Override
+        public JSONObject parse(String body) throws JSONException {
+            return new JSONObject(body);
+        }
+    };
+
+    public static final BodyParser<JSONArray> JSON_ARRAY_PARSER = new BodyParser<JSONArray>() {
+        @Override
+        public JSONArray parse(String body) throws JSONException {
+            return new JSONArray(body);
+        }
+    };
+
+    /**
+     * 解析結果以cache key與解析器區分：同一個網址的結果型別可能不同。
+     */
+    private static String parsedKeyOf(String cacheKey, BodyParser<?> parser) {
+        return cacheKey + '#' + Integer.toHexString(System.identityHashCode(parser));
+    }
+
+    @Nullable
+    private static String validatorOf(NetworkResponse response) {
+        Map<String, String> headers = caseInsensitive(response.headers);
+        String etag = headers.get("ETag");
+        if (etag != null) return "E:" + etag;
+        String lastModified = headers.get("Last-Modified");
+        if (lastModified != null) return "L:" + lastModified;
+        return null;
+    }
+
+    private static Map<String, String> caseInsensitive(@Nullable Map<String, String> headers) {
+        TreeMap<String, String> map = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        if (headers != null) map.putAll(headers);
+        return map;
+    }
+
+    private static final class ParsedEntry {
+        // 以identity比對，避免identityHashCode相同時拿到別的型別
+        final BodyParser<?> parser;
+        final String validator;
+        final int length;
+        final Object value;
+
+        ParsedEntry(BodyParser<?> parser, String validator, int length, Object value) {
+            this.parser = parser;
+            this.validator = validator;
+            this.length = length;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package studio.stc.lotusutil.util;
+
+import androidx.annotation.NonNull;
+
+/**
+ * CircuitBreaker by STC
+ * 單一host的斷路器：
+ * <ul>
+ * <li>CLOSED：正常放行，連續失敗達到門檻時轉為OPEN。</li>
+ * <li>OPEN：所有請求立即失敗，不送出網路連線；經過openDurationMs後轉為HALF_OPEN。</li>
+ * <li>HALF_OPEN：只放行少量試探請求，成功則回到CLOSED，失敗則再次OPEN。</li>
+ * </ul>
+ * 狀態的變化可以透過 {@link HostGuard#addStateListener(HostGuard.StateListener)} 觀察。
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class CircuitBreaker {
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String mHost;
+    private final int mFailureThreshold;
+    private final long mOpenDurationMs;
+    private final int mMaxProbes;
+
+    private State mState = State.CLOSED;
+    private int mConsecutiveFailures = 0;
+    private long mOpenedAt = 0;
+    private int mProbesInFlight = 0;
+    private long mLastProbeAt = 0;
+
+    /**
+     * @param failureThreshold 連續失敗幾次後斷路。
+     * @param openDurationMs   斷路後多久開始試探(毫秒)。
+     * @param maxProbes        HALF_OPEN時同時放行的試探請求數。
+     */
+    CircuitBreaker(@NonNull String host, int failureThreshold, long openDurationMs, int maxProbes) {
+        mHost = host;
+        mFailureThreshold = Math.max(1, failureThreshold);
+        mOpenDurationMs = Math.max(0, openDurationMs);
+        mMaxProbes = Math.max(1, maxProbes);
+    }
+
+    @NonNull
+    public String getHost() {
+        return mHost;
+    }
+
+    @NonNull
+    public synchronized State getState() {
+        return mState;
+    }
+
+    /**
+     * @return 斷路中且尚未到試探時間時，距離可以試探的毫秒數；否則為0。
+     */
+    synchronized long getRemainingOpenMs(long now) {
+        if (mState != State.OPEN) return 0;
+        return Math.max(0, mOpenedAt + mOpenDurationMs - now);
+    }
+
+    /**
+     * 請求即將送出網路時呼叫。
+     *
+     * @return 是否放行。放行的請求之後必須呼叫 {@link #onSuccess} 或 {@link #onFailure} 之一。
+     */
+    synchronized boolean tryAcquire(long now) {
+        switch (mState) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (now - mOpenedAt < mOpenDurationMs) return false;
+                transitionTo(State.HALF_OPEN);
+                mProbesInFlight = 0;
+                // fall through
+            case HALF_OPEN:
+            default:
+                // 試探請求在送出前被取消時不會回報結果，逾時後允許新的試探
+                if (mProbesInFlight >= mMaxProbes && now - mLastProbeAt < mOpenDurationMs) return false;
+                if (mProbesInFlight >= mMaxProbes) mProbesInFlight = 0;
+                mProbesInFlight++;
+                mLastProbeAt = now;
+                return true;
+        }
+    }
+
+    synchronized void onSuccess() {
+        mConsecutiveFailures = 0;
+        if (mState == State.HALF_OPEN) {
+            mProbesInFlight = 0;
+            transitionTo(State.CLOSED);
+        }
+    }
+
+    synchronized void onFailure(long now) {
+        mConsecutiveFailures++;
+        if (mState == State.HALF_OPEN || (mState == State.CLOSED && mConsecutiveFailures >= mFailureThreshold)) {
+            mOpenedAt = now;
+            mProbesInFlight = 0;
+            transitionTo(State.OPEN);
+        }
+    }
+
+    private void transitionTo(State state) {
+        if (mState == state) return;
+        State previous = mState;
+        mState = state;
+        HostGuard.notifyStateChanged(this, previous, state);
+    }
+
+    @NonNull
+    @Override
+    public synchronized String toString() {
+        return "CircuitBreaker{" + mHost + " " + mState + ", failures=" + mConsecutiveFailures + "}";
+    }
+}
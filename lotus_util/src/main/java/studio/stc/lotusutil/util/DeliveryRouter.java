@@ -0,0 +1,96 @@
+package studio.stc.lotusutil.util;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+
+import com.android.volley.ExecutorDelivery;
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+import com.android.volley.Response;
+import com.android.volley.ResponseDelivery;
+import com.android.volley.VolleyError;
+
+import java.util.WeakHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * 共用RequestQueue的ResponseDelivery：依照請求指定的Executor回呼監聽器，沒有指定的請求照舊在主執行緒回呼。
+ * 每個指定了Executor的請求各自持有一個ExecutorDelivery，請求結束後連同Executor的參照一起被回收。
+ * 請求被取消時，與Volley原本的行為相同，不會回呼。
+ * {@link RetryConfig} 要求退避重試的請求不會回呼，而是在等待後重新加入Queue。
+ */
+final class DeliveryRouter implements ResponseDelivery {
+    private static final DeliveryRouter sInstance = new DeliveryRouter();
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final ResponseDelivery mMainDelivery = new ExecutorDelivery(mMainHandler);
+    // 請求結束後即可被回收，不需要手動移除。
+    // 不以Executor為key共用ExecutorDelivery：value會強參照自己的Executor，WeakHashMap的項目永遠不會被清除
+    private final WeakHashMap<Request<?>, ResponseDelivery> mRoutes = new WeakHashMap<>();
+
+    private DeliveryRouter() {
+    }
+
+    @NonNull
+    static DeliveryRouter getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * 指定某個請求的回呼Executor。必須在請求加入Queue之前呼叫。
+     */
+    void route(@NonNull Request<?> request, @NonNull Executor executor) {
+        ResponseDelivery delivery = new ExecutorDelivery(executor);
+        synchronized (mRoutes) {
+            mRoutes.put(request, delivery);
+        }
+    }
+
+    private ResponseDelivery deliveryOf(Request<?> request) {
+        synchronized (mRoutes) {
+            ResponseDelivery delivery = mRoutes.get(request);
+            return delivery == null ? mMainDelivery : delivery;
+        }
+    }
+
+    @Override
+    public void postResponse(Request<?> request, Response<?> response) {
+        deliveryOf(request).postResponse(request, response);
+    }
+
+    @Override
+    public void postResponse(Request<?> request, Response<?> response, Runnable runnable) {
+        deliveryOf(request).postResponse(request, response, runnable);
+    }
+
+    @Override
+    public void postError(Request<?> request, VolleyError error) {
+        if (error instanceof RetryConfig.DeferredRetryError) {
+            scheduleRetry(request, (RetryConfig.DeferredRetryError) error);
+            return;
+        }
+        deliveryOf(request).postError(request, error);
+    }
+
+    /**
+     * 等待退避時間後，把請求重新加入Queue。請求在Queue中的紀錄會保留，因此等待期間仍可被cancelAll取消。
+     */
+    private void scheduleRetry(final Request<?> request, final RetryConfig.DeferredRetryError retry) {
+        final RequestQueue queue = RequestDispatcher.getStartedQueue();
+        if (queue == null) {
+            deliveryOf(request).postError(request, retry.getError());
+            return;
+        }
+        request.addMarker("retry-backoff-" + retry.getDelayMs());
+        mMainHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                // 已取消的請求經由ExecutorDelivery結束(不會回呼)，才會離開Queue
+                if (request.isCanceled()) deliveryOf(request).postError(request, retry.getError());
+                else HostGuard.add(queue, request);
+            }
+        }, retry.getDelayMs());
+    }
+}
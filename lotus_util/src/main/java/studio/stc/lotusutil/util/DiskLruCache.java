@@ -0,0 +1,368 @@
+package studio.stc.lotusutil.util;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * DiskLruCache by STC
+ * 有容量上限、以LRU淘汰的磁碟快取，存放的是原始bytes。
+ * 所有操作都會寫入journal，因此存取順序與內容可以在程序被終止後還原。
+ * 注意：會進行檔案IO，請勿在主執行緒上呼叫。
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class DiskLruCache {
+    private static final String TAG = "DiskLruCache";
+
+    private static final String JOURNAL_FILE = "journal";
+    private static final String JOURNAL_FILE_TEMP = "journal.tmp";
+    private static final String MAGIC = "studio.stc.lotusutil.DiskLruCache";
+    private static final String VERSION = "1";
+    private static final String CLEAN = "CLEAN";
+    private static final String REMOVE = "REMOVE";
+    private static final String READ = "READ";
+    private static final String ENTRY_SUFFIX = ".0";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int REDUNDANT_OP_COMPACT_THRESHOLD = 2000;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File mDirectory;
+    private final long mMaxSize;
+    // accessOrder = true：迭代順序即為LRU順序(最舊的在前)
+    private final LinkedHashMap<String, Long> mEntries = new LinkedHashMap<>(0, 0.75f, true);
+    private long mSize = 0;
+    private int mRedundantOpCount = 0;
+    private Writer mJournalWriter;
+
+    private DiskLruCache(File directory, long maxSize) {
+        mDirectory = directory;
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * 開啟(或建立)位於指定資料夾的快取，並由journal還原狀態。
+     *
+     * @param directory 快取資料夾，必須由此快取獨佔。
+     * @param maxSize   容量上限(bytes)。
+     */
+    @NonNull
+    public static DiskLruCache open(@NonNull File directory, long maxSize) throws IOException {
+        if (maxSize <= 0) throw new IllegalArgumentException("maxSize <= 0");
+        if (!directory.exists() && !directory.mkdirs())
+            throw new IOException("cannot create cache directory " + directory);
+        DiskLruCache cache = new DiskLruCache(directory, maxSize);
+        File journal = new File(directory, JOURNAL_FILE);
+        if (journal.exists()) {
+            try {
+                boolean truncated = cache.readJournal(journal);
+                cache.deleteOrphanFiles();
+                if (truncated) {
+                    // 接著寫入會接在殘缺的那一行後面，重寫一份journal
+                    Log.w(TAG, "open: journal " + journal + " ends with an incomplete line, rewriting it.");
+                    cache.rebuildJournal();
+                } else {
+                    cache.mJournalWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(journal, true), UTF_8));
+                }
+                return cache;
+            } catch (IOException e) {
+                Log.w(TAG, "open: journal " + journal + " is corrupt, rebuilding cache.", e);
+                cache.clearDirectory();
+            }
+        }
+        cache.rebuildJournal();
+        return cache;
+    }
+
+    /**
+     * 將任意字串(例如網址)轉為可以作為檔名的key。
+     */
+    @NonNull
+    public static String keyOf(@NonNull String raw) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(raw.getBytes(UTF_8));
+            StringBuilder builder = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                builder.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return String.valueOf(raw.hashCode());
+        }
+    }
+
+    /**
+     * @param key 由 {@link #keyOf(String)} 產生的key。
+     * @return 快取的內容；若不存在則為null。
+     */
+    @Nullable
+    public synchronized byte[] get(@NonNull String key) throws IOException {
+        checkNotClosed();
+        Long length = mEntries.get(key);
+        if (length == null) return null;
+        File file = entryFile(key);
+        byte[] data = new byte[(int) (long) length];
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            int offset = 0;
+            while (offset < data.length) {
+                int read = in.read(data, offset, data.length - offset);
+                if (read < 0) break;
+                offset += read;
+            }
+            if (offset != data.length) {
+                removeEntry(key);
+                return null;
+            }
+        } catch (IOException e) {
+            // 檔案被外部刪除等情形：視為未命中
+            removeEntry(key);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+        appendJournal(READ + ' ' + key);
+        return data;
+    }
+
+    /**
+     * 寫入(或覆蓋)一筆資料。先寫入暫存檔再改名，因此中途中斷不會留下殘缺的項目。
+     */
+    public synchronized void put(@NonNull String key, @NonNull byte[] data) throws IOException {
+        checkNotClosed();
+        if (data.length > mMaxSize) return;
+        File temp = new File(mDirectory, key + ENTRY_SUFFIX + TEMP_SUFFIX);
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            out.write(data);
+        } finally {
+            closeQuietly(out);
+        }
+        File target = entryFile(key);
+        if (!temp.renameTo(target)) {
+            deleteIfExists(temp);
+            throw new IOException("cannot commit cache entry " + key);
+        }
+        Long previous = mEntries.put(key, (long) data.length);
+        if (previous != null) {
+            mSize -= previous;
+            mRedundantOpCount++;
+        }
+        mSize += data.length;
+        appendJournal(CLEAN + ' ' + key + ' ' + data.length);
+        trimToSize();
+    }
+
+    public synchronized boolean remove(@NonNull String key) throws IOException {
+        checkNotClosed();
+        if (!mEntries.containsKey(key)) return false;
+        removeEntry(key);
+        return true;
+    }
+
+    public synchronized boolean contains(@NonNull String key) {
+        return mEntries.containsKey(key);
+    }
+
+    public synchronized long size() {
+        return mSize;
+    }
+
+    public long maxSize() {
+        return mMaxSize;
+    }
+
+    public synchronized void flush() throws IOException {
+        checkNotClosed();
+        mJournalWriter.flush();
+    }
+
+    public synchronized void close() throws IOException {
+        if (mJournalWriter == null) return;
+        mJournalWriter.close();
+        mJournalWriter = null;
+    }
+
+    /**
+     * 由journal還原狀態。程序在寫入途中被終止時，最後一行會沒有換行字元；這一行會被忽略，不視為損壞。
+     *
+     * @return 最後一行是否殘缺(被忽略)。
+     */
+    private boolean readJournal(File journal) throws IOException {
+        boolean truncated = !endsWithNewline(journal);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(journal), UTF_8));
+        try {
+            if (!MAGIC.equals(reader.readLine()) || !VERSION.equals(reader.readLine()))
+                throw new IOException("unexpected journal header");
+            int lineCount = 0;
+            String line = reader.readLine();
+            while (line != null) {
+                String next = reader.readLine();
+                if (next == null && truncated) break;
+                lineCount++;
+                String[] parts = line.split(" ");
+                if (parts.length < 2) throw new IOException("unexpected journal line: " + line);
+                String key = parts[1];
+                switch (parts[0]) {
+                    case CLEAN:
+                        if (parts.length != 3) throw new IOException("unexpected journal line: " + line);
+                        Long previous = mEntries.put(key, Long.parseLong(parts[2]));
+                        if (previous != null) mSize -= previous;
+                        mSize += Long.parseLong(parts[2]);
+                        break;
+                    case READ:
+                        mEntries.get(key); // 更新LRU順序
+                        break;
+                    case REMOVE:
+                        Long removed = mEntries.remove(key);
+                        if (removed != null) mSize -= removed;
+                        break;
+                    default:
+                        throw new IOException("unexpected journal line: " + line);
+                }
+                line = next;
+            }
+            mRedundantOpCount = lineCount - mEntries.size();
+            return truncated;
+        } catch (NumberFormatException e) {
+            throw new IOException("unexpected journal entry size", e);
+        } finally {
+            closeQuietly(reader);
+        }
+    }
+
+    private static boolean endsWithNewline(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            if (in.length() == 0) return false;
+            in.seek(in.length() - 1);
+            return in.read() == '\n';
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * 刪除journal中沒有紀錄的檔案(例如寫到一半被中斷的暫存檔)，以及journal中有紀錄但已經遺失的項目。
+     */
+    private void deleteOrphanFiles() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.equals(JOURNAL_FILE)) continue;
+                if (!name.endsWith(ENTRY_SUFFIX) || !mEntries.containsKey(name.substring(0, name.length() - ENTRY_SUFFIX.length())))
+                    deleteIfExists(file);
+            }
+        }
+        Iterator<Map.Entry<String, Long>> iterator = mEntries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            if (entryFile(entry.getKey()).length() != entry.getValue()) {
+                mSize -= entry.getValue();
+                deleteIfExists(entryFile(entry.getKey()));
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * 以目前的狀態重寫一份精簡的journal，取代原本的journal。
+     */
+    private void rebuildJournal() throws IOException {
+        if (mJournalWriter != null) mJournalWriter.close();
+        File temp = new File(mDirectory, JOURNAL_FILE_TEMP);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), UTF_8));
+        try {
+            writer.write(MAGIC + '\n' + VERSION + '\n');
+            // 依LRU順序寫入，還原時順序才會一致
+            for (Map.Entry<String, Long> entry : mEntries.entrySet()) {
+                writer.write(CLEAN + ' ' + entry.getKey() + ' ' + entry.getValue() + '\n');
+            }
+        } finally {
+            writer.close();
+        }
+        File journal = new File(mDirectory, JOURNAL_FILE);
+        if (!temp.renameTo(journal)) throw new IOException("cannot replace journal " + journal);
+        mRedundantOpCount = 0;
+        mJournalWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(journal, true), UTF_8));
+    }
+
+    private void appendJournal(String line) throws IOException {
+        mJournalWriter.write(line + '\n');
+        mJournalWriter.flush();
+        if (!line.startsWith(CLEAN)) mRedundantOpCount++;
+        if (mRedundantOpCount >= REDUNDANT_OP_COMPACT_THRESHOLD && mRedundantOpCount >= mEntries.size())
+            rebuildJournal();
+    }
+
+    private void trimToSize() throws IOException {
+        if (mSize <= mMaxSize) return;
+        ArrayList<String> evicted = new ArrayList<>();
+        long size = mSize;
+        for (Map.Entry<String, Long> entry : mEntries.entrySet()) {
+            if (size <= mMaxSize) break;
+            evicted.add(entry.getKey());
+            size -= entry.getValue();
+        }
+        for (String key : evicted) {
+            removeEntry(key);
+        }
+    }
+
+    private void removeEntry(String key) throws IOException {
+        Long length = mEntries.remove(key);
+        if (length != null) mSize -= length;
+        deleteIfExists(entryFile(key));
+        appendJournal(REMOVE + ' ' + key);
+    }
+
+    private void clearDirectory() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) deleteIfExists(file);
+        }
+        mEntries.clear();
+        mSize = 0;
+    }
+
+    private File entryFile(String key) {
+        return new File(mDirectory, key + ENTRY_SUFFIX);
+    }
+
+    private void checkNotClosed() throws IOException {
+        if (mJournalWriter == null) throw new IOException("cache is closed");
+    }
+
+    private static void deleteIfExists(File file) {
+        if (file.exists() && !file.delete()) Log.w(TAG, "deleteIfExists: cannot delete " + file);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
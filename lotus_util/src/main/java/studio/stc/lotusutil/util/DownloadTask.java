@@ -0,0 +1,326 @@
+package studio.stc.lotusutil.util;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.android.volley.ClientError;
+import com.android.volley.ParseError;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.HttpResponse;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 把回應內容直接寫入檔案的下載任務。內容經由固定大小的direct ByteBuffer與FileChannel寫入，
+ * 不論檔案多大，記憶體用量都相同。
+ * 下載中的內容存放在「目標檔名.part」，中斷後再次下載同一個目標時，會以Range與If-Range接續；
+ * 伺服器沒有提供ETag或Last-Modified、不支援Range或檔案已經改變時，則從頭下載。完成後檢查大小與checksum，通過才改名為目標檔案。
+ */
+final class DownloadTask extends StreamTask {
+    private static final String TAG = "DownloadTask";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long PROGRESS_INTERVAL_MS = 200;
+    private static final String PART_SUFFIX = ".part";
+    private static final String VALIDATOR_SUFFIX = ".part.validator";
+    private static final int STATUS_PARTIAL_CONTENT = 206;
+    private static final int STATUS_RANGE_NOT_SATISFIABLE = 416;
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
+    private final RequestSpec mSpec;
+    private final File mDestination;
+    private final File mPartFile;
+    private final File mValidatorFile;
+    private final long mExpectedSize;
+    @Nullable
+    private final String mChecksumAlgorithm;
+    @Nullable
+    private final String mExpectedChecksum;
+    private final InternetSourceAgent.DownloadListener mListener;
+    private long mLastProgressAt = 0;
+
+    /**
+     * @param expectedSize      預期的檔案大小；小於0代表不檢查(仍會與伺服器回報的大小比對)。
+     * @param checksumAlgorithm MessageDigest的演算法名稱，例如"SHA-256"(可以為null)。
+     * @param expectedChecksum  預期的checksum(16進位，不分大小寫；可以為null)。
+     */
+    DownloadTask(@Nullable Object tag, @NonNull RequestSpec spec, @NonNull File destination, long expectedSize,
+                 @Nullable String checksumAlgorithm, @Nullable String expectedChecksum, @NonNull InternetSourceAgent.DownloadListener listener) {
+        super(tag);
+        mSpec = spec;
+        mDestination = destination;
+        mPartFile = new File(destination.getPath() + PART_SUFFIX);
+        mValidatorFile = new File(destination.getPath() + VALIDATOR_SUFFIX);
+        mExpectedSize = expectedSize;
+        mChecksumAlgorithm = checksumAlgorithm;
+        mExpectedChecksum = expectedChecksum;
+        mListener = listener;
+    }
+
+    @Override
+    protected void execute() {
+        try {
+            File parent = mDestination.getParentFile();
+            if (parent != null && !parent.exists() && !parent.mkdirs())
+                throw new IOException("cannot create directory " + parent);
+            try {
+                download(mPartFile.length());
+            } catch (ClientError error) {
+                // 暫存檔比伺服器上的檔案還大(檔案已改變)：從頭下載
+                if (error.networkResponse == null || error.networkResponse.statusCode != STATUS_RANGE_NOT_SATISFIABLE) throw error;
+                Log.i(TAG, "execute: range not satisfiable for " + mSpec.getUrl() + ", restarting");
+                deletePartial();
+                download(0);
+            }
+        } catch (VolleyError error) {
+            if (!isCancelled()) deliverError(error);
+        } catch (IOException e) {
+            // 取消時關閉串流也會造成IOException，此時不回呼；暫存檔保留，下次可以接續
+            if (!isCancelled()) deliverError(toVolleyError(e));
+        }
+    }
+
+    private void download(long existing) throws VolleyError, IOException {
+        Map<String, String> headers = new HashMap<>(mSpec.getHeaders());
+        String validator = existing > 0 ? readValidator() : null;
+        if (existing > 0 && validator == null) {
+            // 沒有ETag或Last-Modified就無法確認檔案在中斷後沒有改變，接上去可能拼出錯誤的內容
+            Log.i(TAG, "download: no validator for the partial file of " + mSpec.getUrl() + ", restarting");
+            existing = 0;
+        }
+        if (existing > 0) {
+            headers.put("Range", "bytes=" + existing + "-");
+            // 檔案在中斷後改變時，伺服器會回傳完整的200而不是206
+            headers.put("If-Range", validator);
+        }
+        HttpResponse response = open(mSpec.getMethod(), mSpec.getUrl(), headers, mSpec.getBody());
+        InputStream content = response.getContent();
+        RandomAccessFile file = null;
+        try {
+            Map<String, String> responseHeaders = headersOf(response);
+            boolean resumed = existing > 0 && response.getStatusCode() == STATUS_PARTIAL_CONTENT;
+            if (!resumed) existing = 0;
+            long total = totalSizeOf(responseHeaders, existing, resumed);
+            if (mExpectedSize >= 0 && total >= 0 && total != mExpectedSize)
+                throw new ParseError(new IOException("server reports " + total + " bytes, expected " + mExpectedSize));
+            writeValidator(validatorOf(responseHeaders));
+            Log.i(TAG, "download: " + (resumed ? "resuming at " + existing : "starting") + " " + mSpec.getUrl() + " to " + mDestination);
+
+            MessageDigest digest = digestOf(mChecksumAlgorithm);
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            file = new RandomAccessFile(mPartFile, "rw");
+            FileChannel channel = file.getChannel();
+            if (resumed) {
+                if (digest != null) digestExisting(channel, existing, digest, buffer);
+            } else {
+                channel.truncate(0);
+            }
+            channel.position(existing);
+            long downloaded = existing;
+            reportProgress(downloaded, total, true);
+            if (content != null) {
+                ReadableByteChannel source = Channels.newChannel(content);
+                while (!isCancelled() && source.read(buffer) != -1) {
+                    buffer.flip();
+                    if (digest != null) {
+                        digest.update(buffer);
+                        buffer.rewind();
+                    }
+                    while (buffer.hasRemaining()) downloaded += channel.write(buffer);
+                    buffer.clear();
+                    reportProgress(downloaded, total, false);
+                }
+            }
+            if (isCancelled()) return;
+            channel.force(false);
+            file.close();
+            file = null;
+            verify(downloaded, total, digest);
+            deleteQuietly(mDestination);
+            if (!mPartFile.renameTo(mDestination)) throw new IOException("cannot move " + mPartFile + " to " + mDestination);
+            deleteQuietly(mValidatorFile);
+            reportProgress(downloaded, total, true);
+            deliverComplete();
+        } finally {
+            closeQuietly(file);
+            closeQuietly(content);
+        }
+    }
+
+    /**
+     * 接續下載時，先把已下載的部分算入checksum。
+     */
+    private static void digestExisting(FileChannel channel, long existing, MessageDigest digest, ByteBuffer buffer) throws IOException {
+        channel.position(0);
+        long remaining = existing;
+        while (remaining > 0) {
+            buffer.clear();
+            if (remaining < buffer.capacity()) buffer.limit((int) remaining);
+            int read = channel.read(buffer);
+            if (read < 0) throw new IOException("partial file shorter than expected");
+            buffer.flip();
+            digest.update(buffer);
+            remaining -= read;
+        }
+        buffer.clear();
+    }
+
+    private void verify(long downloaded, long total, @Nullable MessageDigest digest) throws ParseError {
+        String problem = null;
+        if (total >= 0 && downloaded != total) problem = "received " + downloaded + " of " + total + " bytes";
+        else if (mExpectedSize >= 0 && downloaded != mExpectedSize) problem = "received " + downloaded + " bytes, expected " + mExpectedSize;
+        else if (digest != null && mExpectedChecksum != null) {
+            String actual = toHex(digest.digest());
+            if (!actual.equalsIgnoreCase(mExpectedChecksum)) problem = mChecksumAlgorithm + " mismatch: " + actual;
+        }
+        if (problem == null) return;
+        // 內容有誤，不能再接續
+        deletePartial();
+        throw new ParseError(new IOException("download of " + mSpec.getUrl() + " failed verification: " + problem));
+    }
+
+    /**
+     * @return 完整檔案的大小；無法得知時為-1。
+     */
+    private static long totalSizeOf(Map<String, String> headers, long existing, boolean resumed) {
+        if (resumed) {
+            // Content-Range: bytes 100-999/1000
+            String range = headers.get("Content-Range");
+            if (range != null) {
+                int slash = range.lastIndexOf('/');
+                if (slash >= 0) {
+                    try {
+                        return Long.parseLong(range.substring(slash + 1).trim());
+                    } catch (NumberFormatException ignored) {
+                        // 總長度為"*"
+                    }
+                }
+            }
+        }
+        String length = headers.get("Content-Length");
+        if (length == null) return -1;
+        try {
+            return existing + Long.parseLong(length.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    @Nullable
+    private static String validatorOf(Map<String, String> headers) {
+        String etag = headers.get("ETag");
+        // 弱ETag不能用於If-Range
+        if (etag != null && !etag.startsWith("W/")) return etag;
+        return headers.get("Last-Modified");
+    }
+
+    @Nullable
+    private String readValidator() {
+        if (!mValidatorFile.exists()) return null;
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(mValidatorFile, "r");
+            byte[] data = new byte[(int) file.length()];
+            file.readFully(data);
+            String validator = new String(data, StandardCharsets.UTF_8).trim();
+            return validator.isEmpty() ? null : validator;
+        } catch (IOException e) {
+            return null;
+        } finally {
+            closeQuietly(file);
+        }
+    }
+
+    private void writeValidator(@Nullable String validator) {
+        if (validator == null) {
+            deleteQuietly(mValidatorFile);
+            return;
+        }
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(mValidatorFile);
+            out.write(validator.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            Log.w(TAG, "writeValidator: cannot save validator, a later resume will restart", e);
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    private void deletePartial() {
+        deleteQuietly(mPartFile);
+        deleteQuietly(mValidatorFile);
+    }
+
+    @Nullable
+    private static MessageDigest digestOf(@Nullable String algorithm) throws ParseError {
+        if (algorithm == null) return null;
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new ParseError(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return builder.toString();
+    }
+
+    private static void deleteQuietly(File file) {
+        if (file.exists() && !file.delete()) Log.w(TAG, "deleteQuietly: cannot delete " + file);
+    }
+
+    /**
+     * 回報進度。除了force之外，最多每PROGRESS_INTERVAL_MS回報一次。
+     */
+    private void reportProgress(final long downloaded, final long total, boolean force) {
+        long now = SystemClock.elapsedRealtime();
+        if (!force && now - mLastProgressAt < PROGRESS_INTERVAL_MS) return;
+        mLastProgressAt = now;
+        sMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!isCancelled()) mListener.OnProgress(downloaded, total);
+            }
+        });
+    }
+
+    private void deliverComplete() {
+        sMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!isCancelled()) mListener.OnDownloadComplete(mDestination);
+            }
+        });
+    }
+
+    private void deliverError(final VolleyError error) {
+        sMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!isCancelled()) mListener.OnResponseError(error);
+            }
+        });
+    }
+}
@@ -0,0 +1,100 @@
+package studio.stc.lotusutil.util;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * HedgePolicy by STC
+ * 對冪等的GET送出「避險請求(hedged request)」：第一個請求在該host的延遲百分位數之內沒有回應時，
+ * 再送出一個相同的請求，取先回來的結果並取消另一個。用來壓低p99這類長尾延遲。
+ * 延遲百分位數來自最近完成的請求；樣本不足時使用minDelayMs。
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class HedgePolicy {
+    private static final int SAMPLE_SIZE = 128;
+    private static final int MIN_SAMPLES = 16;
+    private static final HashMap<String, LatencyWindow> sWindows = new HashMap<>();
+
+    private final double mPercentile;
+    private final long mMinDelayMs;
+    private final long mMaxDelayMs;
+    private final int mMaxHedges;
+
+    /**
+     * @param percentile 以此百分位數(0~1，例如0.95)的延遲作為送出避險請求的時間點。
+     * @param minDelayMs 最短的等待時間(也是樣本不足時的等待時間)。
+     * @param maxDelayMs 最長的等待時間。
+     * @param maxHedges  每個請求最多額外送出的請求數。
+     */
+    public HedgePolicy(double percentile, long minDelayMs, long maxDelayMs, int maxHedges) {
+        mPercentile = Math.min(1, Math.max(0, percentile));
+        mMinDelayMs = Math.max(0, minDelayMs);
+        mMaxDelayMs = Math.max(mMinDelayMs, maxDelayMs);
+        mMaxHedges = Math.max(1, maxHedges);
+    }
+
+    /**
+     * 在p95延遲時送出一個避險請求。
+     */
+    @NonNull
+    public static HedgePolicy atP95() {
+        return new HedgePolicy(0.95, 100, 5000, 1);
+    }
+
+    public int getMaxHedges() {
+        return mMaxHedges;
+    }
+
+    /**
+     * @return 對此host應該等待多久才送出下一個避險請求。
+     */
+    public long delayFor(@NonNull String host) {
+        LatencyWindow window;
+        synchronized (sWindows) {
+            window = sWindows.get(host);
+        }
+        long delay = window == null ? -1 : window.percentile(mPercentile);
+        if (delay < 0) return mMinDelayMs;
+        return Math.min(mMaxDelayMs, Math.max(mMinDelayMs, delay));
+    }
+
+    /**
+     * 紀錄某host一次成功請求的延遲。
+     */
+    static void recordLatency(@NonNull String host, long latencyMs) {
+        LatencyWindow window;
+        synchronized (sWindows) {
+            window = sWindows.get(host);
+            if (window == null) {
+                window = new LatencyWindow();
+                sWindows.put(host, window);
+            }
+        }
+        window.add(latencyMs);
+    }
+
+    /**
+     * 最近SAMPLE_SIZE個延遲樣本的環狀緩衝區。
+     */
+    private static final class LatencyWindow {
+        private final long[] samples = new long[SAMPLE_SIZE];
+        private int next = 0;
+        private int count = 0;
+
+        synchronized void add(long latencyMs) {
+            samples[next] = latencyMs;
+            next = (next + 1) % SAMPLE_SIZE;
+            if (count < SAMPLE_SIZE) count++;
+        }
+
+        synchronized long percentile(double percentile) {
+            if (count < MIN_SAMPLES) return -1;
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile * count) - 1;
+            return sorted[Math.min(count - 1, Math.max(0, index))];
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package studio.stc.lotusutil.util;
+
+import androidx.annotation.NonNull;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram by STC
+ * 無鎖(lock-free)的直方圖，以2的次方分桶：第n桶收錄 [2^(n-1), 2^n) 的值。
+ * 紀錄只需要幾個atomic操作，可以在任何執行緒上頻繁呼叫；百分位數為該桶上界的近似值。
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class Histogram {
+    private static final int BUCKET_COUNT = 64;
+
+    private final String mUnit;
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    /**
+     * @param unit 數值的單位，只用於輸出。
+     */
+    public Histogram(@NonNull String unit) {
+        mUnit = unit;
+    }
+
+    public void record(long value) {
+        if (value < 0) value = 0;
+        mBuckets.incrementAndGet(BUCKET_COUNT - Long.numberOfLeadingZeros(value));
+        mCount.incrementAndGet();
+        mSum.addAndGet(value);
+        long max;
+        while (value > (max = mMax.get())) {
+            if (mMax.compareAndSet(max, value)) break;
+        }
+    }
+
+    public long getCount() {
+        return mCount.get();
+    }
+
+    public long getSum() {
+        return mSum.get();
+    }
+
+    public long getMax() {
+        return mMax.get();
+    }
+
+    public long getMean() {
+        long count = mCount.get();
+        return count == 0 ? 0 : mSum.get() / count;
+    }
+
+    /**
+     * @param percentile 0~1，例如0.99。
+     * @return 近似的百分位數(所在桶的上界，不超過最大值)。沒有資料時為0。
+     */
+    public long getPercentile(double percentile) {
+        long count = mCount.get();
+        if (count == 0) return 0;
+        long target = Math.max(1, (long) Math.ceil(percentile * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += mBuckets.get(i);
+            if (seen >= target) {
+                long upper = (1L << i) - 1; // i = 63時溢位後恰為Long.MAX_VALUE
+                return Math.min(upper, mMax.get());
+            }
+        }
+        return mMax.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) mBuckets.set(i, 0);
+        mCount.set(0);
+        mSum.set(0);
+        mMax.set(0);
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "n=%d mean=%d p50=%d p90=%d p99=%d max=%d %s",
+                getCount(), getMean(), getPercentile(0.5), getPercentile(0.9), getPercentile(0.99), getMax(), mUnit);
+    }
+}
@@ -0,0 +1,338 @@
+package studio.stc.lotusutil.util;
+
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.Network;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.BaseHttpStack;
+import com.android.volley.toolbox.HttpResponse;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * HostGuard by STC
+ * 以host為單位的流量限制與斷路器：
+ * <ul>
+ * <li>流量限制：每個host一個token bucket，超過速率的請求會延後(以Handler排程，不會佔住network thread)才加入Queue。
+ * 預設不限制，以 {@link #setRateLimit(String, double, int)} 設定。</li>
+ * <li>斷路器：host連續失敗(無回應、5xx或429)時斷路，斷路期間的請求立即以 {@link CircuitOpenError} 失敗，
+ * 不會佔用Queue，其他健康的host不受影響。參見 {@link CircuitBreaker}。</li>
+ * </ul>
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class HostGuard {
+    private static final String TAG = "HostGuard";
+
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    public static final long DEFAULT_OPEN_DURATION_MS = 30 * 1000;
+    public static final int DEFAULT_MAX_PROBES = 1;
+
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+    private static final ConcurrentHashMap<String, CircuitBreaker> sBreakers = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, TokenBucket> sBuckets = new ConcurrentHashMap<>();
+    private static final CopyOnWriteArrayList<StateListener> sListeners = new CopyOnWriteArrayList<>();
+    // 因流量限制而延後加入Queue的請求
+    private static final HashMap<Request<?>, Runnable> sDelayed = new HashMap<>();
+
+    private static volatile boolean sBreakerEnabled = true;
+    private static volatile int sFailureThreshold = DEFAULT_FAILURE_THRESHOLD;
+    private static volatile long sOpenDurationMs = DEFAULT_OPEN_DURATION_MS;
+    private static volatile int sMaxProbes = DEFAULT_MAX_PROBES;
+
+    private HostGuard() {
+    }
+
+    /**
+     * 設定某個host的流量上限。
+     *
+     * @param permitsPerSecond 每秒可以送出的請求數。小於等於0代表取消限制。
+     * @param burst            短時間內最多可以連續送出的請求數。
+     */
+    public static void setRateLimit(@NonNull String host, double permitsPerSecond, int burst) {
+        if (permitsPerSecond <= 0) sBuckets.remove(host);
+        else sBuckets.put(host, new TokenBucket(permitsPerSecond, burst));
+    }
+
+    /**
+     * 設定之後建立的斷路器參數(已存在的host不受影響，可以先呼叫 {@link #reset()})。
+     *
+     * @param failureThreshold 連續失敗幾次後斷路。
+     * @param openDurationMs   斷路後多久開始試探(毫秒)。
+     * @param maxProbes        試探時同時放行的請求數。
+     */
+    public static void setBreakerConfig(int failureThreshold, long openDurationMs, int maxProbes) {
+        sFailureThreshold = failureThreshold;
+        sOpenDurationMs = openDurationMs;
+        sMaxProbes = maxProbes;
+    }
+
+    public static void setBreakerEnabled(boolean enabled) {
+        sBreakerEnabled = enabled;
+    }
+
+    /**
+     * @return 某個host目前的斷路器狀態。
+     */
+    @NonNull
+    public static CircuitBreaker.State getState(@NonNull String host) {
+        CircuitBreaker breaker = sBreakers.get(host);
+        return breaker == null ? CircuitBreaker.State.CLOSED : breaker.getState();
+    }
+
+    /**
+     * @return 所有已經有紀錄的斷路器。
+     */
+    @NonNull
+    public static List<CircuitBreaker> getBreakers() {
+        return new ArrayList<>(sBreakers.values());
+    }
+
+    /**
+     * 清除所有斷路器的狀態。
+     */
+    public static void reset() {
+        sBreakers.clear();
+    }
+
+    public static void addStateListener(@NonNull StateListener listener) {
+        sListeners.add(listener);
+    }
+
+    public static void removeStateListener(@NonNull StateListener listener) {
+        sListeners.remove(listener);
+    }
+
+    @NonNull
+    static String hostOf(@NonNull String url) {
+        String host = Uri.parse(url).getHost();
+        return host == null ? "" : host;
+    }
+
+    /**
+     * 經過斷路器與流量限制後，把請求加入Queue：
+     * 斷路中的host立即以 {@link CircuitOpenError} 回報；超過速率的請求延後加入。
+     */
+    static void add(@NonNull final RequestQueue queue, @NonNull final Request<?> request) {
+        String host = hostOf(request.getUrl());
+        CircuitBreaker breaker = sBreakerEnabled ? sBreakers.get(host) : null;
+        long remainingOpenMs = breaker == null ? 0 : breaker.getRemainingOpenMs(SystemClock.elapsedRealtime());
+        if (remainingOpenMs > 0) {
+            CircuitOpenError error = new CircuitOpenError(host, remainingOpenMs);
+            Log.v(TAG, "add: " + error.getMessage());
+            // 與一般的回應相同，在該請求指定的執行緒回呼
+            DeliveryRouter.getInstance().postError(request, error);
+            return;
+        }
+        TokenBucket bucket = sBuckets.get(host);
+        long delayMs = bucket == null ? 0 : bucket.reserve(SystemClock.elapsedRealtime());
+        if (delayMs <= 0) {
+            queue.add(request);
+            return;
+        }
+        Log.v(TAG, "add: rate limit reached for " + host + ", delaying request by " + delayMs + " ms");
+        Runnable delayed = new Runnable() {
+            @Override
+            public void run() {
+                synchronized (sDelayed) {
+                    if (sDelayed.remove(request) == null) return;
+                }
+                if (!request.isCanceled()) add(queue, request);
+            }
+        };
+        synchronized (sDelayed) {
+            sDelayed.put(request, delayed);
+        }
+        sMainHandler.postDelayed(delayed, delayMs);
+    }
+
+    /**
+     * 取消因流量限制而尚未加入Queue的請求(RequestQueue.cancelAll看不到這些請求)。
+     */
+    static void cancelAll(@NonNull Object tag) {
+        synchronized (sDelayed) {
+            Iterator<Map.Entry<Request<?>, Runnable>> iterator = sDelayed.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Request<?>, Runnable> entry = iterator.next();
+                if (tag.equals(entry.getKey().getTag())) {
+                    sMainHandler.removeCallbacks(entry.getValue());
+                    entry.getKey().cancel();
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * 請求即將送出網路時呼叫。斷路中時拋出 {@link CircuitOpenError}。
+     */
+    static void acquire(@NonNull String url) throws CircuitOpenError {
+        if (!sBreakerEnabled) return;
+        String host = hostOf(url);
+        long now = SystemClock.elapsedRealtime();
+        CircuitBreaker breaker = breakerOf(host);
+        if (!breaker.tryAcquire(now)) throw new CircuitOpenError(host, breaker.getRemainingOpenMs(now));
+    }
+
+    private static void recordSuccess(String url) {
+        if (!sBreakerEnabled) return;
+        breakerOf(hostOf(url)).onSuccess();
+    }
+
+    /**
+     * 紀錄不經過HTTP stack的請求(串流上傳)收到的回應。
+     */
+    static void recordResponse(@NonNull String url, int statusCode) {
+        if (isFailureStatus(statusCode)) recordFailure(url);
+        else recordSuccess(url);
+    }
+
+    /**
+     * 紀錄沒有收到回應的連線失敗。
+     */
+    static void recordFailure(@NonNull String url) {
+        if (!sBreakerEnabled) return;
+        breakerOf(hostOf(url)).onFailure(SystemClock.elapsedRealtime());
+    }
+
+    private static boolean isFailureStatus(int statusCode) {
+        return statusCode >= 500 || statusCode == 429;
+    }
+
+    private static CircuitBreaker breakerOf(String host) {
+        CircuitBreaker breaker = sBreakers.get(host);
+        if (breaker == null) {
+            CircuitBreaker created = new CircuitBreaker(host, sFailureThreshold, sOpenDurationMs, sMaxProbes);
+            breaker = sBreakers.putIfAbsent(host, created);
+            if (breaker == null) breaker = created;
+        }
+        return breaker;
+    }
+
+    static void notifyStateChanged(@NonNull final CircuitBreaker breaker, @NonNull final CircuitBreaker.State from, @NonNull final CircuitBreaker.State to) {
+        Log.i(TAG, "circuit for " + breaker.getHost() + ": " + from + " -> " + to);
+        if (sListeners.isEmpty()) return;
+        sMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (StateListener listener : sListeners) listener.OnStateChanged(breaker.getHost(), from, to);
+            }
+        });
+    }
+
+    /**
+     * 斷路器狀態變化的監聽器(主執行緒)。
+     */
+    public interface StateListener {
+        void OnStateChanged(String host, CircuitBreaker.State from, CircuitBreaker.State to);
+    }
+
+    /**
+     * host斷路中，請求沒有送出。
+     */
+    public static final class CircuitOpenError extends VolleyError {
+        private final String mHost;
+        private final long mRetryAfterMs;
+
+        CircuitOpenError(@NonNull String host, long retryAfterMs) {
+            super("circuit open for " + host + ", retry after " + retryAfterMs + " ms");
+            mHost = host;
+            mRetryAfterMs = retryAfterMs;
+        }
+
+        @NonNull
+        public String getHost() {
+            return mHost;
+        }
+
+        /**
+         * @return 預計多久之後開始試探(毫秒)。
+         */
+        public long getRetryAfterMs() {
+            return mRetryAfterMs;
+        }
+    }
+
+    /**
+     * 預留式的token bucket：token不足時仍然預留，回傳需要等待的時間，使延後的請求依序送出。
+     */
+    private static final class TokenBucket {
+        private final double mPermitsPerMs;
+        private final double mBurst;
+        private double mTokens;
+        private long mUpdatedAt;
+
+        TokenBucket(double permitsPerSecond, int burst) {
+            mPermitsPerMs = permitsPerSecond / 1000;
+            mBurst = Math.max(1, burst);
+            mTokens = mBurst;
+            mUpdatedAt = SystemClock.elapsedRealtime();
+        }
+
+        synchronized long reserve(long now) {
+            mTokens = Math.min(mBurst, mTokens + (now - mUpdatedAt) * mPermitsPerMs);
+            mUpdatedAt = now;
+            mTokens -= 1;
+            if (mTokens >= 0) return 0;
+            return (long) Math.ceil(-mTokens / mPermitsPerMs);
+        }
+    }
+
+    /**
+     * 送出網路連線前檢查斷路器的Network包裝：Queue中已在等待的請求，在斷路後也會立即失敗。
+     */
+    static final class GuardedNetwork implements Network {
+        private final Network mDelegate;
+
+        GuardedNetwork(@NonNull Network delegate) {
+            mDelegate = delegate;
+        }
+
+        @Override
+        public NetworkResponse performRequest(Request<?> request) throws VolleyError {
+            acquire(request.getUrl());
+            return mDelegate.performRequest(request);
+        }
+    }
+
+    /**
+     * 紀錄每次連線結果的HTTP stack包裝。RequestQueue與 {@link StreamTask} 都經過這裡。
+     */
+    static final class GuardedHttpStack extends BaseHttpStack {
+        private final BaseHttpStack mDelegate;
+
+        GuardedHttpStack(@NonNull BaseHttpStack delegate) {
+            mDelegate = delegate;
+        }
+
+        @Override
+        public HttpResponse executeRequest(Request<?> request, Map<String, String> additionalHeaders) throws IOException, AuthFailureError {
+            HttpResponse response;
+            try {
+                response = mDelegate.executeRequest(request, additionalHeaders);
+            } catch (IOException e) {
+                recordFailure(request.getUrl());
+                throw e;
+            }
+            if (isFailureStatus(response.getStatusCode())) recordFailure(request.getUrl());
+            else recordSuccess(request.getUrl());
+            return response;
+        }
+    }
+}
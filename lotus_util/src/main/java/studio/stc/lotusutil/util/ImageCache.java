@@ -0,0 +1,220 @@
+package studio.stc.lotusutil.util;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import androidx.collection.LruCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * ImageCache by STC
+ * {@link InternetSourceAgent} 共用的兩層圖片快取：
+ * 第一層是依裝置memory class決定大小的記憶體快取(已解碼的Bitmap)，
+ * 第二層是有journal的 {@link DiskLruCache}(原始的編碼bytes)，在程序重啟後依然有效。
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class ImageCache {
+    private static final String TAG = "ImageCache";
+
+    private static final String DISK_CACHE_DIR = "lotus_images";
+    private static final long DEFAULT_DISK_CACHE_SIZE = 50L * 1024 * 1024;
+    private static final int MEMORY_CACHE_FRACTION = 8; // 使用memory class的1/8
+    private static final int BITMAP_POOL_FRACTION = 16; // 使用memory class的1/16
+
+    private static volatile ImageCache sInstance;
+    private static long sDiskCacheSize = DEFAULT_DISK_CACHE_SIZE;
+
+    private final LruCache<String, Bitmap> mMemoryCache;
+    // 查詢記憶體快取並acquire、與淘汰時交給BitmapPool必須互斥，否則查到的Bitmap可能在acquire之前就進入池中
+    private final Object mMemoryLock = new Object();
+    private final BitmapPool mBitmapPool;
+    private final File mDiskCacheDir;
+    private final Object mDiskCacheLock = new Object();
+    private DiskLruCache mDiskCache;
+    private boolean mDiskCacheUnavailable = false;
+    private final ExecutorService mDiskExecutor;
+
+    private ImageCache(Context appContext) {
+        int memoryClass = getMemoryClassInBytes(appContext);
+        int memoryCacheSize = memoryClass / MEMORY_CACHE_FRACTION;
+        Log.i(TAG, "ImageCache: memory cache size " + memoryCacheSize + " bytes, disk cache size " + sDiskCacheSize + " bytes.");
+        mBitmapPool = new BitmapPool(memoryClass / BITMAP_POOL_FRACTION);
+        mMemoryCache = new LruCache<String, Bitmap>(memoryCacheSize) {
+            @Override
+            protected int sizeOf(@NonNull String key, @NonNull Bitmap bitmap) {
+                return bitmap.getAllocationByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, @NonNull String key, @NonNull Bitmap oldValue, @Nullable Bitmap newValue) {
+                if (oldValue == newValue) return;
+                synchronized (mMemoryLock) {
+                    mBitmapPool.onRemovedFromCache(oldValue);
+                }
+            }
+        };
+        mDiskCacheDir = new File(appContext.getCacheDir(), DISK_CACHE_DIR);
+        mDiskExecutor = Executors.newFixedThreadPool(2, new ThreadFactory() {
+            private int count = 0;
+
+            @Override
+            public Thread newThread(@NonNull Runnable runnable) {
+                Thread thread = new Thread(runnable, "ImageCache-disk-" + (count++));
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * 取得共用的ImageCache。
+     *
+     * @param context 任意Context，只會使用其ApplicationContext。
+     */
+    @NonNull
+    public static ImageCache getInstance(@NonNull Context context) {
+        ImageCache instance = sInstance;
+        if (instance == null) {
+            synchronized (ImageCache.class) {
+                instance = sInstance;
+                if (instance == null) {
+                    instance = new ImageCache(context.getApplicationContext());
+                    sInstance = instance;
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * 設定磁碟快取的容量上限。必須在第一次使用ImageCache之前呼叫。
+     */
+    public static synchronized void setDiskCacheSize(long maxSizeInBytes) {
+        if (sInstance != null) {
+            Log.w(TAG, "setDiskCacheSize: cache already created, new size " + maxSizeInBytes + " ignored.");
+            return;
+        }
+        sDiskCacheSize = maxSizeInBytes;
+    }
+
+    /**
+     * 產生記憶體快取用的key。同一張圖以不同尺寸/格式解碼時是不同的項目。
+     */
+    @NonNull
+    public static String memoryKeyOf(@NonNull String url, int maxWidth, int maxHeight, @NonNull Bitmap.Config config) {
+        return url + "#W" + maxWidth + "#H" + maxHeight + "#" + config.name();
+    }
+
+    /**
+     * 用來執行磁碟讀寫與解碼的背景執行緒。
+     */
+    @NonNull
+    public ExecutorService getDiskExecutor() {
+        return mDiskExecutor;
+    }
+
+    /**
+     * 解碼時用來重複使用記憶體的Bitmap池。
+     */
+    @NonNull
+    public BitmapPool getBitmapPool() {
+        return mBitmapPool;
+    }
+
+    @Nullable
+    public Bitmap getBitmapFromMemory(@NonNull String memoryKey) {
+        return mMemoryCache.get(memoryKey);
+    }
+
+    /**
+     * 查詢記憶體快取，命中時同時以 {@link BitmapPool#acquire(Bitmap)} 計數，之後不會被淘汰進池中重複使用。
+     * 使用完畢(例如交給ImageView之後)必須呼叫 {@link BitmapPool#release(Bitmap)}。
+     *
+     * @return 已acquire的Bitmap；未命中時為null。
+     */
+    @Nullable
+    public Bitmap acquireBitmapFromMemory(@NonNull String memoryKey) {
+        synchronized (mMemoryLock) {
+            Bitmap bitmap = mMemoryCache.get(memoryKey);
+            if (bitmap != null) mBitmapPool.acquire(bitmap);
+            return bitmap;
+        }
+    }
+
+    public void putBitmapToMemory(@NonNull String memoryKey, @NonNull Bitmap bitmap) {
+        mMemoryCache.put(memoryKey, bitmap);
+    }
+
+    /**
+     * 由磁碟快取讀取某網址的原始bytes。
+     *
+     * @return 原始bytes；未命中或磁碟快取無法使用時為null。
+     */
+    @Nullable
+    @WorkerThread
+    public byte[] getBytesFromDisk(@NonNull String url) {
+        DiskLruCache diskCache = getDiskCache();
+        if (diskCache == null) return null;
+        try {
+            return diskCache.get(DiskLruCache.keyOf(url));
+        } catch (IOException e) {
+            Log.w(TAG, "getBytesFromDisk: failed reading cache of " + url, e);
+            return null;
+        }
+    }
+
+    @WorkerThread
+    public void putBytesToDisk(@NonNull String url, @NonNull byte[] data) {
+        DiskLruCache diskCache = getDiskCache();
+        if (diskCache == null) return;
+        try {
+            diskCache.put(DiskLruCache.keyOf(url), data);
+        } catch (IOException e) {
+            Log.w(TAG, "putBytesToDisk: failed writing cache of " + url, e);
+        }
+    }
+
+    /**
+     * 清空記憶體快取。可以在onTrimMemory等場合呼叫。
+     */
+    public void clearMemory() {
+        mMemoryCache.evictAll();
+        mBitmapPool.clear();
+    }
+
+    /**
+     * @return 第一次使用時才開啟的磁碟快取；若無法開啟則為null。
+     */
+    @Nullable
+    private DiskLruCache getDiskCache() {
+        synchronized (mDiskCacheLock) {
+            if (mDiskCache == null && !mDiskCacheUnavailable) {
+                try {
+                    mDiskCache = DiskLruCache.open(mDiskCacheDir, sDiskCacheSize);
+                } catch (IOException e) {
+                    Log.e(TAG, "getDiskCache: cannot open disk cache at " + mDiskCacheDir + ", using memory cache only.", e);
+                    mDiskCacheUnavailable = true;
+                }
+            }
+            return mDiskCache;
+        }
+    }
+
+    private static int getMemoryClassInBytes(Context context) {
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        boolean largeHeap = (context.getApplicationInfo().flags & ApplicationInfo.FLAG_LARGE_HEAP) != 0;
+        int memoryClass = largeHeap ? activityManager.getLargeMemoryClass() : activityManager.getMemoryClass();
+        return memoryClass * 1024 * 1024;
+    }
+}
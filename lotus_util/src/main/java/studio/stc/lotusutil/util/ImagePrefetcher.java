@@ -0,0 +1,230 @@
+package studio.stc.lotusutil.util;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.View;
+import android.widget.ImageView;
+
+import androidx.annotation.IdRes;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.lifecycle.LifecycleOwner;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.android.volley.VolleyError;
+
+import java.util.HashSet;
+import java.util.List;
+
+import studio.ultoolapp.lotusutil.EasyRecyclerViewAdapter;
+
+/**
+ * ImagePrefetcher by STC
+ * 依照捲動方向，預先以低優先順序讀取並解碼接下來K個項目的圖片到 {@link ImageCache} 的記憶體快取，
+ * 項目進入畫面時 {@link InternetSourceAgent#RequestImage(String, ImageView, int, int)} 可以直接命中快取，不必先顯示預設圖片。
+ * K會依照實際的讀取時間與網路頻寬自動縮小，避免在慢速網路上搶走畫面上圖片的頻寬。
+ * 例如：
+ * <pre>
+ * ImagePrefetcher&lt;Item&gt; prefetcher = new ImagePrefetcher&lt;&gt;(context, adapter, R.id.item_image, 6,
+ *         new ImagePrefetcher.UrlProvider&lt;Item&gt;() {
+ *             public String urlOf(Item item) {
+ *                 return item.imageUrl;
+ *             }
+ *         });
+ * prefetcher.attachTo(recyclerView);
+ * </pre>
+ * 預先載入的圖片以畫面上ImageView的尺寸解碼，因此清單中的圖片尺寸最好一致。所有方法都必須在主執行緒上呼叫。
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class ImagePrefetcher<T> extends RecyclerView.OnScrollListener {
+    private static final String TAG = "ImagePrefetcher";
+
+    public static final int DEFAULT_MAX_AHEAD = 6;
+    // 平均讀取時間超過這些值時，K減為1/2或1/4
+    private static final long SLOW_LATENCY_MS = 800;
+    private static final long VERY_SLOW_LATENCY_MS = 2000;
+    // 頻寬低於此值(kbps)時，K減半
+    private static final int LOW_BANDWIDTH_KBPS = 1500;
+    private static final float LATENCY_SMOOTHING = 0.3f;
+
+    private final InternetSourceAgent mAgent;
+    private final EasyRecyclerViewAdapter<T> mAdapter;
+    @IdRes
+    private final int mImageViewId;
+    private final int mMaxAhead;
+    private final UrlProvider<T> mUrlProvider;
+    @Nullable
+    private final ConnectivityManager mConnectivityManager;
+    // 進行中的預先載入，避免每次onScrolled重複送出
+    private final HashSet<String> mPending = new HashSet<>();
+    @Nullable
+    private RecyclerView mRecyclerView;
+    private int mDirection = 0;
+    private long mAverageLatencyMs = -1;
+
+    /**
+     * @param adapter     清單的Adapter，用來取得接下來的資料。
+     * @param imageViewId 項目中顯示圖片的ImageView的id，用來決定解碼尺寸。
+     * @param maxAhead    網路正常時預先載入的項目數(K的上限)。
+     * @param urlProvider 取得資料的圖片網址。
+     */
+    public ImagePrefetcher(@NonNull Context context, @NonNull EasyRecyclerViewAdapter<T> adapter, @IdRes int imageViewId, int maxAhead,
+                           @NonNull UrlProvider<T> urlProvider) {
+        // 使用專屬的標籤，捲動方向改變時只取消預先載入的請求，不影響畫面上的圖片
+        mAgent = new InternetSourceAgent(context, TAG + "#" + Integer.toHexString(System.identityHashCode(this)));
+        mAdapter = adapter;
+        mImageViewId = imageViewId;
+        mMaxAhead = Math.max(1, maxAhead);
+        mUrlProvider = urlProvider;
+        mConnectivityManager = (ConnectivityManager) context.getApplicationContext().getSystemService(Context.CONNECTIVITY_SERVICE);
+    }
+
+    public ImagePrefetcher(@NonNull Context context, @NonNull EasyRecyclerViewAdapter<T> adapter, @IdRes int imageViewId,
+                           @NonNull UrlProvider<T> urlProvider) {
+        this(context, adapter, imageViewId, DEFAULT_MAX_AHEAD, urlProvider);
+    }
+
+    /**
+     * 開始監聽RecyclerView的捲動。
+     */
+    public ImagePrefetcher<T> attachTo(@NonNull RecyclerView recyclerView) {
+        detach();
+        mRecyclerView = recyclerView;
+        recyclerView.addOnScrollListener(this);
+        return this;
+    }
+
+    /**
+     * 停止監聽，並取消進行中的預先載入。
+     */
+    public void detach() {
+        if (mRecyclerView != null) mRecyclerView.removeOnScrollListener(this);
+        mRecyclerView = null;
+        cancelPending();
+    }
+
+    /**
+     * 元件被銷毀時自動取消預先載入，參見 {@link InternetSourceAgent#bindTo(LifecycleOwner)}。
+     */
+    public ImagePrefetcher<T> bindTo(@NonNull LifecycleOwner owner) {
+        mAgent.bindTo(owner);
+        return this;
+    }
+
+    /**
+     * @return 目前預先載入的項目數(K)。依照最近的平均讀取時間與網路頻寬，由maxAhead縮小。
+     */
+    public int getPrefetchDistance() {
+        int distance = mMaxAhead;
+        if (mAverageLatencyMs > VERY_SLOW_LATENCY_MS) distance /= 4;
+        else if (mAverageLatencyMs > SLOW_LATENCY_MS) distance /= 2;
+        int bandwidthKbps = downstreamBandwidthKbps();
+        if (bandwidthKbps > 0 && bandwidthKbps < LOW_BANDWIDTH_KBPS) distance /= 2;
+        return Math.max(1, distance);
+    }
+
+    @Override
+    public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+        int direction = Integer.signum(dy != 0 ? dy : dx);
+        if (direction == 0) return;
+        if (direction != mDirection) {
+            // 反方向的預先載入已經不需要了
+            if (mDirection != 0) cancelPending();
+            mDirection = direction;
+        }
+        prefetch(recyclerView);
+    }
+
+    @Override
+    public void onScrollStateChanged(@NonNull RecyclerView recyclerView, int newState) {
+        // 停下來時補齊停下位置之後的項目
+        if (newState == RecyclerView.SCROLL_STATE_IDLE && mDirection != 0) prefetch(recyclerView);
+    }
+
+    private void prefetch(RecyclerView recyclerView) {
+        int first = Integer.MAX_VALUE;
+        int last = -1;
+        ImageView sample = null;
+        for (int i = 0; i < recyclerView.getChildCount(); i++) {
+            View child = recyclerView.getChildAt(i);
+            int position = recyclerView.getChildAdapterPosition(child);
+            if (position == RecyclerView.NO_POSITION) continue;
+            first = Math.min(first, position);
+            last = Math.max(last, position);
+            if (sample == null) {
+                View view = child.findViewById(mImageViewId);
+                // 與RequestImage相同，以layout後的尺寸解碼
+                if (view instanceof ImageView && view.isLaidOut()) sample = (ImageView) view;
+            }
+        }
+        if (last < 0 || sample == null) return;
+        int[] targetSize = InternetSourceAgent.targetSizeOf(sample);
+        ImageCache imageCache = ImageCache.getInstance(recyclerView.getContext());
+        List<T> dataList = mAdapter.getDataList();
+        int distance = getPrefetchDistance();
+        for (int i = 1; i <= distance; i++) {
+            int dataPosition = mAdapter.toDataPosition(mDirection > 0 ? last + i : first - i);
+            if (dataPosition < 0) continue;
+            final String url = mUrlProvider.urlOf(dataList.get(dataPosition));
+            if (url == null || url.isEmpty() || mPending.contains(url)) continue;
+            if (imageCache.getBitmapFromMemory(ImageCache.memoryKeyOf(url, targetSize[0], targetSize[1], Bitmap.Config.RGB_565)) != null)
+                continue;
+            mPending.add(url);
+            final long start = SystemClock.elapsedRealtime();
+            mAgent.PrefetchImage(url, targetSize[0], targetSize[1], new InternetSourceAgent.ResponseListener<Bitmap>() {
+                @Override
+                public void OnResponseSuccess(Bitmap object) {
+                    mPending.remove(url);
+                    recordLatency(SystemClock.elapsedRealtime() - start);
+                }
+
+                @Override
+                public void OnResponseError(VolleyError error) {
+                    mPending.remove(url);
+                    // 逾時也代表網路很慢
+                    recordLatency(SystemClock.elapsedRealtime() - start);
+                }
+            });
+        }
+    }
+
+    private void cancelPending() {
+        if (mPending.isEmpty()) return;
+        Log.v(TAG, "cancelPending: cancelling " + mPending.size() + " prefetches");
+        mAgent.CancelRequest();
+        mPending.clear();
+    }
+
+    private void recordLatency(long latencyMs) {
+        if (mAverageLatencyMs < 0) mAverageLatencyMs = latencyMs;
+        else mAverageLatencyMs = (long) (LATENCY_SMOOTHING * latencyMs + (1 - LATENCY_SMOOTHING) * mAverageLatencyMs);
+    }
+
+    /**
+     * @return 系統估計的下行頻寬(kbps)；無法得知時為0。
+     */
+    private int downstreamBandwidthKbps() {
+        if (mConnectivityManager == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.M) return 0;
+        Network network = mConnectivityManager.getActiveNetwork();
+        if (network == null) return 0;
+        NetworkCapabilities capabilities = mConnectivityManager.getNetworkCapabilities(network);
+        return capabilities == null ? 0 : capabilities.getLinkDownstreamBandwidthKbps();
+    }
+
+    /**
+     * 取得資料對應的圖片網址。
+     */
+    public interface UrlProvider<T> {
+        /**
+         * @return 圖片網址；沒有圖片時回傳null。
+         */
+        @Nullable
+        String urlOf(T data);
+    }
+}
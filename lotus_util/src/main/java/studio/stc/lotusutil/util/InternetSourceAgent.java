@@ -2,33 +2,49 @@ package studio.stc.lotusutil.util;
 
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.DisplayMetrics;
 import android.util.Log;
+import android.view.View;
+import android.view.ViewGroup;
 import android.widget.ImageView;
 
 import androidx.annotation.DrawableRes;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
-import androidx.collection.LruCache;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleEventObserver;
+import androidx.lifecycle.LifecycleOwner;
 
+import com.android.volley.DefaultRetryPolicy;
+import com.android.volley.NetworkResponse;
+import com.android.volley.ParseError;
 import com.android.volley.Request;
 import com.android.volley.RequestQueue;
 import com.android.volley.Response;
 import com.android.volley.VolleyError;
+import com.android.volley.toolbox.HttpHeaderParser;
 import com.android.volley.toolbox.ImageLoader;
-import com.android.volley.toolbox.ImageRequest;
 import com.android.volley.toolbox.JsonArrayRequest;
 import com.android.volley.toolbox.JsonObjectRequest;
-import com.android.volley.toolbox.Volley;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import studio.stc.lotusutil.R;
+
+import java.io.File;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * InternetSourceAgent by STC
@@ -39,10 +55,17 @@ import java.util.Map;
 @SuppressWarnings({"unused", "WeakerAccess"})
 public final class InternetSourceAgent {
     private static final String TAG = "Internet Source Agent";
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+    private static final AtomicInteger sBatchCounter = new AtomicInteger();
 
-    private RequestQueue _RequestQueue;
+    private final Context _Context; // 只保存ApplicationContext
     private String _RequestFrom; // 用來在取消時作用
-    private boolean isCancelled;
+    private final Scope _Scope; // 與 with... 取得的Agent共用的取消狀態
+    private final List<BatchRequest> _Batches;
+    private RetryConfig _RetryConfig; // 可以為null：使用Volley預設的重試設定
+    private HedgePolicy _HedgePolicy; // 可以為null：不送出避險請求
+    private boolean _UseOutbox; // 離線時是否把修改型請求存入RequestOutbox
+    private Executor _ResponseExecutor; // 可以為null：在主執行緒回呼
 
     /**
      * 示範程式碼。只能做為撰寫code的參考，請勿直接呼叫。
@@ -64,10 +87,248 @@ public final class InternetSourceAgent {
         }, null);
     }
 
+    /**
+     * 建立Agent。所有Agent共用 {@link RequestDispatcher} 的同一個RequestQueue，建構本身幾乎沒有成本。
+     *
+     * @param context     任意Context，只會保存其ApplicationContext。
+     * @param requestFrom 請求來源標籤。此Agent送出的請求都會以此標籤標記，供 {@link #CancelRequest()} 使用。
+     */
     public InternetSourceAgent(Context context, String requestFrom) {
-        isCancelled = false;
+        _Scope = new Scope();
+        _RequestFrom = requestFrom;
+        _Context = context.getApplicationContext();
+        _Batches = new ArrayList<>();
+    }
+
+    /**
+     * 複製一個使用相同標籤的Agent，用於個別請求的設定。
+     */
+    private InternetSourceAgent(InternetSourceAgent source) {
+        _Scope = source._Scope;
+        _RequestFrom = source._RequestFrom;
+        _Context = source._Context;
+        _Batches = source._Batches;
+        _RetryConfig = source._RetryConfig;
+        _HedgePolicy = source._HedgePolicy;
+        _UseOutbox = source._UseOutbox;
+        _ResponseExecutor = source._ResponseExecutor;
+    }
+
+    /**
+     * 複製一個設定相同、但使用另一個標籤與取消狀態的Agent，供批次請求使用：批次可以單獨取消，其他設定與此Agent一致。
+     */
+    private InternetSourceAgent(InternetSourceAgent source, String requestFrom) {
+        _Scope = new Scope();
         _RequestFrom = requestFrom;
-        _RequestQueue = Volley.newRequestQueue(context);
+        _Context = source._Context;
+        _Batches = new ArrayList<>();
+        _RetryConfig = source._RetryConfig;
+        _HedgePolicy = source._HedgePolicy;
+        _UseOutbox = source._UseOutbox;
+        _ResponseExecutor = source._ResponseExecutor;
+    }
+
+    /**
+     * 設定此Agent所有請求的逾時與重試方式。
+     *
+     * @param retryConfig 重試設定。null代表使用Volley預設的重試設定。
+     */
+    public InternetSourceAgent setRetryConfig(@Nullable RetryConfig retryConfig) {
+        _RetryConfig = retryConfig;
+        return this;
+    }
+
+    /**
+     * 設定此Agent的GET請求是否送出避險請求(hedged request)。
+     *
+     * @param hedgePolicy 避險設定。null代表不送出。
+     */
+    public InternetSourceAgent setHedgePolicy(@Nullable HedgePolicy hedgePolicy) {
+        _HedgePolicy = hedgePolicy;
+        return this;
+    }
+
+    /**
+     * 設定離線時是否保留修改型請求(POST/PATCH等)。
+     * 啟用後，這類請求因為沒有網路而失敗時會存入 {@link RequestOutbox}，網路恢復後自動重送；
+     * 監聽器收到的錯誤是 {@link RequestOutbox.QueuedError}，可以由此得知請求並未遺失。
+     * 逾時等可能已送達伺服器的失敗，只有PUT/DELETE會被保留(參見 {@link RequestOutbox#isOfflineError(VolleyError, int)})。
+     */
+    public InternetSourceAgent setOutboxEnabled(boolean useOutbox) {
+        _UseOutbox = useOutbox;
+        return this;
+    }
+
+    /**
+     * 將此Agent綁定到Android元件的生命週期：元件被銷毀(ON_DESTROY)時，自動取消此Agent所有進行中與等待中的請求
+     * (包含下載、上傳與分頁讀取)，之後送出的請求也會直接被丟棄。
+     * Agent不會持有owner本身，因此不會讓Activity或Fragment在銷毀後仍無法被回收。必須在主執行緒上呼叫。
+     *
+     * @param owner Activity、Fragment等LifecycleOwner。
+     */
+    public InternetSourceAgent bindTo(LifecycleOwner owner) {
+        final Lifecycle lifecycle = owner.getLifecycle();
+        if (lifecycle.getCurrentState() == Lifecycle.State.DESTROYED) {
+            Log.w(TAG, "bindTo: owner of \"" + _RequestFrom + "\" already destroyed");
+            _Scope.destroyed = true;
+            CancelRequest();
+            return this;
+        }
+        lifecycle.addObserver(new LifecycleEventObserver() {
+            @Override
+            public void onStateChanged(@NonNull LifecycleOwner source, @NonNull Lifecycle.Event event) {
+                if (event != Lifecycle.Event.ON_DESTROY) return;
+                Log.v(TAG, "bindTo: owner destroyed, cancelling requests tagged with \"" + _RequestFrom + "\"");
+                source.getLifecycle().removeObserver(this);
+                _Scope.destroyed = true;
+                CancelRequest();
+            }
+        });
+        return this;
+    }
+
+    /**
+     * 設定此Agent的回應在哪個Executor上回呼監聽器。
+     * 預設在主執行緒回呼；回應很大或處理很花時間時，可以指定背景的Executor，避免佔用UI執行緒，
+     * 處理完畢後再以 {@link #RunOnMainThread(Runnable)} 只把最後的畫面更新切回主執行緒。
+     * 回應的解析(bytes轉為JSON等)原本就在network thread上進行，不受此設定影響。
+     * 串流、下載與上傳類的請求有各自的回呼方式，也不受此設定影響。
+     *
+     * @param responseExecutor 回呼用的Executor。null代表主執行緒。
+     */
+    public InternetSourceAgent setResponseExecutor(@Nullable Executor responseExecutor) {
+        _ResponseExecutor = responseExecutor;
+        return this;
+    }
+
+    /**
+     * 取得一個只在此次請求使用不同回呼Executor的Agent。標籤相同，因此仍可由原Agent的 {@link #CancelRequest()} 取消。
+     * 例如： {@code agent.withResponseExecutor(executor).GetSingleData(url, listener);}
+     */
+    public InternetSourceAgent withResponseExecutor(@Nullable Executor responseExecutor) {
+        return new InternetSourceAgent(this).setResponseExecutor(responseExecutor);
+    }
+
+    /**
+     * 在主執行緒上執行。已經在主執行緒時直接執行。
+     * 用於在背景回呼中處理完回應後，只把最後的UI更新切回主執行緒。
+     */
+    public static void RunOnMainThread(Runnable runnable) {
+        if (Looper.myLooper() == Looper.getMainLooper()) runnable.run();
+        else sMainHandler.post(runnable);
+    }
+
+    /**
+     * 包裝監聽器，使其一律在主執行緒上被呼叫。
+     * 搭配 {@link #setResponseExecutor(Executor)} 時，可以讓只更新畫面的監聽器不必自行切換執行緒。
+     */
+    public static <T> ResponseListener<T> OnMainThread(final ResponseListener<T> listener) {
+        return new ResponseListener<T>() {
+            @Override
+            public void OnResponseSuccess(final T object) {
+                RunOnMainThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.OnResponseSuccess(object);
+                    }
+                });
+            }
+
+            @Override
+            public void OnResponseError(final VolleyError error) {
+                RunOnMainThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.OnResponseError(error);
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * 取得一個只在此次請求使用不同重試設定的Agent。標籤相同，因此仍可由原Agent的 {@link #CancelRequest()} 取消。
+     * 例如： {@code agent.withRetryConfig(config).GetSingleData(url, listener);}
+     */
+    public InternetSourceAgent withRetryConfig(@Nullable RetryConfig retryConfig) {
+        return new InternetSourceAgent(this).setRetryConfig(retryConfig);
+    }
+
+    /**
+     * 取得一個只在此次請求使用不同避險設定的Agent。標籤相同，因此仍可由原Agent的 {@link #CancelRequest()} 取消。
+     */
+    public InternetSourceAgent withHedgePolicy(@Nullable HedgePolicy hedgePolicy) {
+        return new InternetSourceAgent(this).setHedgePolicy(hedgePolicy);
+    }
+
+    /**
+     * 預先連線到指定網址的host，參見 {@link RequestDispatcher#preconnect(String)}。
+     */
+    public void Preconnect(String targetURL) {
+        Log.i(TAG, "Preconnect: warming up connection to " + hostOf(targetURL));
+        RequestDispatcher.preconnect(targetURL);
+    }
+
+    /**
+     * @return 共用的RequestQueue。第一次使用時才會啟動。
+     */
+    private RequestQueue getRequestQueue() {
+        return RequestDispatcher.getRequestQueue(_Context);
+    }
+
+    /**
+     * 送出新請求前呼叫。綁定的生命週期已結束時回傳false，請求不應送出；否則清除取消狀態。
+     */
+    private boolean checkActive(String requestName) {
+        if (_Scope.destroyed) {
+            Log.w(TAG, requestName + ": owner of \"" + _RequestFrom + "\" already destroyed, request dropped");
+            return false;
+        }
+        _Scope.cancelled = false;
+        return true;
+    }
+
+    /**
+     * 以此Agent的標籤標記請求後，加入共用的RequestQueue。
+     */
+    private void enqueue(Request<?> request) {
+        request.setTag(_RequestFrom);
+        if (!checkActive("enqueue")) {
+            request.cancel();
+            return;
+        }
+        HostGuard.add(getRequestQueue(), applyPolicies(request));
+    }
+
+    /**
+     * 在共用的串流執行緒上執行任務。綁定的生命週期已結束時直接取消。
+     */
+    private void executeTask(StreamTask task) {
+        if (checkActive("executeTask")) RequestDispatcher.executeTask(task);
+        else task.cancel();
+    }
+
+    /**
+     * 套用此Agent的重試設定與回呼Executor。
+     */
+    private <R extends Request<?>> R applyPolicies(R request) {
+        if (_RetryConfig != null) _RetryConfig.applyTo(request);
+        if (_ResponseExecutor != null) DeliveryRouter.getInstance().route(request, _ResponseExecutor);
+        return request;
+    }
+
+    /**
+     * 合併GET請求用的key。回呼Executor不同的請求不能合併，否則監聽器會在非預期的執行緒上被呼叫。
+     */
+    private String coalesceKeyOf(String url, @Nullable Map<String, String> headers, @Nullable CachePolicy cachePolicy) {
+        String key = RequestCoalescer.keyOf(Request.Method.GET, url, headers, cachePolicy);
+        if (_ResponseExecutor != null) key += " @" + System.identityHashCode(_ResponseExecutor);
+        return key;
+    }
+
+    private static String hostOf(String url) {
+        String host = Uri.parse(url).getHost();
+        return host == null ? "" : host;
     }
 
     public static class LogText {
@@ -102,21 +363,116 @@ public final class InternetSourceAgent {
      * @param bundledData      附加的資料（可以為null）
      */
     public void GetSingleData(String targetURL, final ResponseListener<JSONObject> responseListener, @Nullable final JSONObject bundledData) {
-        String bundledDataString = ".";
+        GetSingleData(targetURL, responseListener, bundledData, null);
+    }
+
+    /**
+     * 使用Volley與HTTP GET方法獲取單一JSONObject資料，並以指定的快取策略決定快取時間與是否重新驗證。
+     *
+     * @param targetURL        目標網址。
+     * @param responseListener 回應監聽器。
+     * @param bundledData      附加的資料（可以為null）
+     * @param cachePolicy      回應快取策略。若為null則依照伺服器的快取Header。內容未變時回傳的是共用的同一個物件，請勿修改。
+     */
+    public void GetSingleData(final String targetURL, final ResponseListener<JSONObject> responseListener, @Nullable final JSONObject bundledData,
+                              @Nullable final CachePolicy cachePolicy) {
+        Log.i(TAG, "GetSingleData: start getting data from " + targetURL + describeBundledData(bundledData));
+        // 附加資料只做為Header；GET不會送出內容
+        RequestSingleData(new RequestSpec.Builder(Request.Method.GET, targetURL).headers(headersOf(bundledData)).build(), responseListener, cachePolicy);
+    }
+
+    /**
+     * 使用Volley與HTTP PATCH方法獲取單一JSONObject資料。
+     * 為了相容，附加資料會同時做為Header與內容；需要分開指定時請使用 {@link #RequestSingleData(RequestSpec, ResponseListener, CachePolicy)}。
+     *
+     * @param targetURL        目標網址。
+     * @param responseListener 回應監聽器。
+     * @param bundledData      附加的資料（可以為null）
+     */
+    public void PatchSingleData(String targetURL, final ResponseListener<JSONObject> responseListener, @Nullable final JSONObject bundledData) {
+        Log.i(TAG, "PatchSingleData: start patching data from " + targetURL + describeBundledData(bundledData));
+        RequestSpec.Builder builder = new RequestSpec.Builder(Request.Method.PATCH, targetURL).headers(headersOf(bundledData));
+        if (bundledData != null) builder.body(bundledData);
+        RequestSingleData(builder.build(), responseListener, null);
+    }
+
+    /**
+     * 記錄用的附加資料描述。輸出完整內容需要再轉換一次文字，因此只在開啟VERBOSE記錄時才輸出
+     * (adb shell setprop log.tag.InternetSourceAgent VERBOSE)；大量資料請改用 {@link UploadBody#ofJsonArray}。
+     */
+    private static String describeBundledData(@Nullable Object bundledData) {
+        if (bundledData == null) return ".";
+        boolean isArray = bundledData instanceof JSONArray;
+        if (!Log.isLoggable(TAG, Log.VERBOSE)) {
+            int size = isArray ? ((JSONArray) bundledData).length() : ((JSONObject) bundledData).length();
+            return ", bundled with " + size + (isArray ? " elements." : " fields.");
+        }
         try {
-            if (bundledData != null)
-                bundledDataString = ", bundled with data\n" + bundledData.toString(1);
+            return ", bundled with data\n" + (isArray ? ((JSONArray) bundledData).toString(1) : ((JSONObject) bundledData).toString(1));
         } catch (JSONException e) {
             e.printStackTrace();
+            return ".";
         }
-        Log.i(TAG, "GetSingleData: start getting data from " + targetURL + bundledDataString);
-        JsonObjectRequest jsonObjectRequest = new JsonObjectRequest(
-                Request.Method.GET,
-                targetURL,
-                bundledData,
-                new Response.Listener<JSONObject>() {
+    }
+
+    /**
+     * 依照 {@link RequestSpec} 獲取單一JSONObject資料。
+     * RequestSpec中的Header與內容都已預先計算，重試或重複使用同一個RequestSpec時不會再轉換。
+     * GET請求會與進行中的相同請求合併，並套用避險設定。
+     *
+     * @param spec             請求描述。
+     * @param responseListener 回應監聽器。
+     * @param cachePolicy      回應快取策略。若為null則依照伺服器的快取Header。內容未變時回傳的是共用的同一個物件，請勿修改。
+     */
+    public void RequestSingleData(final RequestSpec spec, final ResponseListener<JSONObject> responseListener, @Nullable final CachePolicy cachePolicy) {
+        Log.v(TAG, "RequestSingleData: " + spec);
+        if (spec.getMethod() != Request.Method.GET) {
+            enqueue(new SpecRequest<>(spec, CachePolicy.JSON_OBJECT_PARSER, cachePolicy,
+                    new Response.Listener<JSONObject>() {
+                        @Override
+                        public void onResponse(JSONObject response) {
+                            responseListener.OnResponseSuccess(response);
+                        }
+                    },
+                    new Response.ErrorListener() {
+                        @Override
+                        public void onErrorResponse(VolleyError error) {
+                            if (_UseOutbox && RequestOutbox.isOfflineError(error, spec.getMethod())) {
+                                long entryId = RequestOutbox.getInstance(_Context).enqueue(spec);
+                                Log.i(TAG, "RequestSingleData: offline, " + spec + " saved to outbox as " + entryId);
+                                error = new RequestOutbox.QueuedError(entryId, error);
+                            }
+                            responseListener.OnResponseError(error);
+                        }
+                    }));
+            return;
+        }
+        if (!checkActive("RequestSingleData")) return;
+        // 相同網址與Header的GET若正在進行中，直接共用同一次網路呼叫
+        RequestCoalescer.execute(getRequestQueue(), coalesceKeyOf(spec.getUrl(), spec.getHeaders(), cachePolicy), _RequestFrom, responseListener,
+                new RequestCoalescer.RequestFactory<JSONObject>() {
                     @Override
-                    public void onResponse(JSONObject response) {
+                    public Request<JSONObject> create(Response.Listener<JSONObject> listener, Response.ErrorListener errorListener) {
+                        return applyPolicies(new SpecRequest<>(spec, CachePolicy.JSON_OBJECT_PARSER, cachePolicy, listener, errorListener));
+                    }
+                }, _HedgePolicy, hostOf(spec.getUrl()));
+    }
+
+    /**
+     * 只取出回應中特定路徑的值，不建立整份JSONObject。
+     * 回應內容在network thread上以 {@link JsonPathExtractor} 讀過一遍，未指定的欄位都會被略過；
+     * 適合只需要大型回應中少數幾個欄位的場合。
+     *
+     * @param spec             請求描述。
+     * @param extractor        預先編譯好的路徑。
+     * @param responseListener 回應監聽器。
+     */
+    public void RequestFields(RequestSpec spec, JsonPathExtractor extractor, final ResponseListener<JsonPathExtractor.Result> responseListener) {
+        Log.v(TAG, "RequestFields: " + extractor.getPaths() + " from " + spec);
+        enqueue(new SpecRequest<>(spec, extractor.asBodyParser(), null,
+                new Response.Listener<JsonPathExtractor.Result>() {
+                    @Override
+                    public void onResponse(JsonPathExtractor.Result response) {
                         responseListener.OnResponseSuccess(response);
                     }
                 },
@@ -125,46 +481,64 @@ public final class InternetSourceAgent {
                     public void onErrorResponse(VolleyError error) {
                         responseListener.OnResponseError(error);
                     }
-                }
-        ) {
-            @Override
-            public Map<String, String> getHeaders() {
-                HashMap<String, String> headers = null;
-                try {
-                    headers = jsonToMap(bundledData);
-                } catch (JSONException e) {
-                    e.printStackTrace();
-                }
-                if (headers != null) Log.v(TAG, "getHeaders: headers are " + headers.toString());
-                return headers;
-            }
-        };
-        _RequestQueue.add(jsonObjectRequest); // 使用queue方式查詢
+                }));
     }
 
     /**
-     * 使用Volley與HTTP PATCH方法獲取單一JSONObject資料。
+     * 以 {@link JsonBinder} 直接把回應讀成物件：在network thread上由回應內容串流讀取，不建立JSONObject，
+     * 也不必先把整個回應轉成String。
+     *
+     * @param binder           通常是 {@link studio.stc.lotusutil.jsonbinder.JsonModel} 自動產生的「類別名稱_JsonBinder.INSTANCE」。
+     * @param responseListener 回應監聽器。回應是JSON的null時，回傳null。
+     */
+    public <T> void RequestObject(RequestSpec spec, JsonBinder<T> binder, final ResponseListener<T> responseListener) {
+        Log.v(TAG, "RequestObject: " + spec);
+        enqueue(new SpecRequest<>(spec, JsonUtil.asBodyParser(binder), null,
+                new Response.Listener<T>() {
+                    @Override
+                    public void onResponse(T response) {
+                        responseListener.OnResponseSuccess(response);
+                    }
+                },
+                new Response.ErrorListener() {
+                    @Override
+                    public void onErrorResponse(VolleyError error) {
+                        responseListener.OnResponseError(error);
+                    }
+                }));
+    }
+
+    /**
+     * 與 {@link #RequestObject(RequestSpec, JsonBinder, ResponseListener)} 相同，但回應內容是物件的陣列。
+     */
+    public <T> void RequestObjectList(RequestSpec spec, JsonBinder<T> binder, final ResponseListener<List<T>> responseListener) {
+        Log.v(TAG, "RequestObjectList: " + spec);
+        enqueue(new SpecRequest<>(spec, JsonUtil.asListBodyParser(binder), null,
+                new Response.Listener<List<T>>() {
+                    @Override
+                    public void onResponse(List<T> response) {
+                        responseListener.OnResponseSuccess(response);
+                    }
+                },
+                new Response.ErrorListener() {
+                    @Override
+                    public void onErrorResponse(VolleyError error) {
+                        responseListener.OnResponseError(error);
+                    }
+                }));
+    }
+
+    /**
+     * 取得 {@link LazyJsonDocument}：network thread上只建立結構索引，不轉換整份文件。適合很大的設定檔等回應。
      *
-     * @param targetURL        目標網址。
      * @param responseListener 回應監聽器。
-     * @param bundledData      附加的資料（可以為null）
      */
-    public void PatchSingleData(String targetURL, final ResponseListener<JSONObject> responseListener, @Nullable final JSONObject bundledData) {
-        String bundledDataString = ".";
-        try {
-            if (bundledData != null)
-                bundledDataString = ", bundled with data\n" + bundledData.toString(1);
-        } catch (JSONException e) {
-            e.printStackTrace();
-        }
-        Log.i(TAG, "PatchSingleData: start patching data from " + targetURL + bundledDataString);
-        JsonObjectRequest jsonObjectRequest = new JsonObjectRequest(
-                Request.Method.PATCH,
-                targetURL,
-                bundledData,
-                new Response.Listener<JSONObject>() {
+    public void RequestDocument(RequestSpec spec, final ResponseListener<LazyJsonDocument> responseListener) {
+        Log.v(TAG, "RequestDocument: " + spec);
+        enqueue(new SpecRequest<>(spec, LazyJsonDocument.BODY_PARSER, null,
+                new Response.Listener<LazyJsonDocument>() {
                     @Override
-                    public void onResponse(JSONObject response) {
+                    public void onResponse(LazyJsonDocument response) {
                         responseListener.OnResponseSuccess(response);
                     }
                 },
@@ -173,21 +547,7 @@ public final class InternetSourceAgent {
                     public void onErrorResponse(VolleyError error) {
                         responseListener.OnResponseError(error);
                     }
-                }
-        ) {
-            @Override
-            public Map<String, String> getHeaders() {
-                HashMap<String, String> headers = null;
-                try {
-                    headers = jsonToMap(bundledData);
-                } catch (JSONException e) {
-                    e.printStackTrace();
-                }
-                if (headers != null) Log.v(TAG, "getHeaders: headers are " + headers.toString());
-                return headers;
-            }
-        };
-        _RequestQueue.add(jsonObjectRequest); // 使用queue方式
+                }));
     }
 
     /**
@@ -198,21 +558,18 @@ public final class InternetSourceAgent {
      * @param bundledData      附加的資料。若為null會使用GET方法；否則，使用POST方法。
      */
     public void RequestSingleData(String targetURL, final ResponseListener<JSONObject> responseListener, @Nullable JSONObject bundledData) {
-        String bundledDataString = ".";
-        try {
-            if (bundledData != null)
-                bundledDataString = ", bundled with data\n" + bundledData.toString(1);
-        } catch (JSONException e) {
-            e.printStackTrace();
+        Log.i(TAG, "RequestSingleData: start requesting data from " + targetURL + describeBundledData(bundledData));
+        if (bundledData != null) {
+            // POST經由RequestSpec送出，離線時才能存入外寄匣
+            RequestSingleData(RequestSpec.post(targetURL).body(bundledData).build(), responseListener, null);
+            return;
         }
-        Log.i(TAG, "RequestSingleData: start requesting data from " + targetURL + bundledDataString);
         JsonObjectRequest jsonObjectRequest = new JsonObjectRequest(
                 targetURL,
-                bundledData,
+                (JSONObject) null,
                 new Response.Listener<JSONObject>() {
                     @Override
                     public void onResponse(JSONObject response) {
-                        Log.d(TAG, "response: " + response.toString());
                         responseListener.OnResponseSuccess(response);
                     }
                 },
@@ -223,7 +580,7 @@ public final class InternetSourceAgent {
                     }
                 }
         );
-        _RequestQueue.add(jsonObjectRequest); // 使用queue方式查詢
+        enqueue(jsonObjectRequest); // 使用queue方式查詢
     }
 
     /**
@@ -233,7 +590,7 @@ public final class InternetSourceAgent {
      * @param responseListener 回應監聽器。
      */
     public void RequestArrayData(String targetURL, final ResponseListener<JSONArray> responseListener) {
-        RequestArrayData(targetURL, responseListener, null);
+        RequestArrayData(targetURL, responseListener, (JSONArray) null);
     }
 
     /**
@@ -243,18 +600,15 @@ public final class InternetSourceAgent {
      * @param responseListener 回應監聽器。
      * @param bundledData      附加的資料。若為null會使用Get方法；反之，會使用Post方法。
      */
-    public void RequestArrayData(String targetURL, final ResponseListener<JSONArray> responseListener, @Nullable JSONArray bundledData) {
-        String bundledDataString = ".";
-        try {
-            if (bundledData != null)
-                bundledDataString = ", bundled with data\n" + bundledData.toString(1);
-        } catch (JSONException e) {
-            e.printStackTrace();
+    public void RequestArrayData(final String targetURL, final ResponseListener<JSONArray> responseListener, @Nullable JSONArray bundledData) {
+        Log.i(TAG, "RequestArrayData: start requesting data from " + targetURL + describeBundledData(bundledData));
+        if (bundledData == null) {
+            RequestArrayData(targetURL, responseListener, (CachePolicy) null);
+            return;
         }
-        Log.i(TAG, "RequestArrayData: start requesting data from " + targetURL + bundledDataString);
         JsonArrayRequest jsonArrayRequest;
         jsonArrayRequest = new JsonArrayRequest(
-                bundledData == null ? Request.Method.GET : Request.Method.POST,
+                Request.Method.POST,
                 targetURL,
                 bundledData,
                 new Response.Listener<JSONArray>() {
@@ -270,17 +624,170 @@ public final class InternetSourceAgent {
                     }
                 }
         );
-        _RequestQueue.add(jsonArrayRequest); // 使用queue方式查詢
+        enqueue(jsonArrayRequest); // 使用queue方式查詢
+    }
+
+    /**
+     * 使用Volley(Get Method)獲取JSONArray資料，並以指定的快取策略決定快取時間與是否重新驗證。
+     *
+     * @param targetURL        目標網址。
+     * @param responseListener 回應監聽器。
+     * @param cachePolicy      回應快取策略。若為null則依照伺服器的快取Header。內容未變時回傳的是共用的同一個物件，請勿修改。
+     */
+    public void RequestArrayData(final String targetURL, final ResponseListener<JSONArray> responseListener, @Nullable final CachePolicy cachePolicy) {
+        if (!checkActive("RequestArrayData")) return;
+        // 相同網址的GET若正在進行中，直接共用同一次網路呼叫
+        RequestCoalescer.execute(getRequestQueue(), coalesceKeyOf(targetURL, null, cachePolicy), _RequestFrom, responseListener,
+                new RequestCoalescer.RequestFactory<JSONArray>() {
+                    @Override
+                    public Request<JSONArray> create(Response.Listener<JSONArray> listener, Response.ErrorListener errorListener) {
+                        return applyPolicies(new JsonArrayRequest(Request.Method.GET, targetURL, (JSONArray) null, listener, errorListener) {
+                            @Override
+                            protected Response<JSONArray> parseNetworkResponse(NetworkResponse response) {
+                                if (cachePolicy == null) return super.parseNetworkResponse(response);
+                                return cachePolicy.parseResponse(response, getCacheKey(), CachePolicy.JSON_ARRAY_PARSER);
+                            }
+                        });
+                    }
+                }, _HedgePolicy, hostOf(targetURL));
+    }
+
+    /**
+     * 一次送出多個GET請求，全部結束後只回呼一次。每個host同時進行的請求數不超過maxConcurrentPerHost。
+     * 取代手動計算回呼次數的寫法。
+     *
+     * @param specs                要送出的請求，結果會依照此順序排列。
+     * @param maxConcurrentPerHost 每個host同時進行的請求數上限。
+     * @param deadlineMs           整批的期限(毫秒)，超過時未完成的請求會被取消並以TimeoutError回報。0代表沒有期限。
+     * @param batchListener        整批結束時的監聽器(主執行緒)。
+     * @return 此批次，可以用來取消。
+     */
+    public BatchRequest RequestBatch(List<BatchRequest.Spec> specs, int maxConcurrentPerHost, long deadlineMs, BatchRequest.BatchListener batchListener) {
+        // 每個批次使用專屬的標籤，期限到時只取消這個批次的請求
+        InternetSourceAgent batchAgent = new InternetSourceAgent(this, _RequestFrom + "#batch" + sBatchCounter.incrementAndGet());
+        BatchRequest batch = new BatchRequest(batchAgent, specs, maxConcurrentPerHost, batchListener);
+        if (!checkActive("RequestBatch")) {
+            batch.cancel();
+            return batch;
+        }
+        synchronized (_Batches) {
+            Iterator<BatchRequest> iterator = _Batches.iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().isDone()) iterator.remove();
+            }
+            _Batches.add(batch);
+        }
+        batch.start(deadlineMs);
+        return batch;
+    }
+
+    /**
+     * 以串流方式(HTTP GET)讀取JSON陣列：在背景執行緒上以JsonReader邊下載邊解析，
+     * 每次交給監聽器一個元素，不會建立整個JSONArray。
+     *
+     * @param targetURL      目標網址。
+     * @param streamListener 串流監聽器。注意：回呼在背景執行緒上。
+     * @return 此串流任務，可以用來提早取消。
+     */
+    public StreamTask RequestArrayStream(String targetURL, ArrayStreamListener streamListener) {
+        return RequestArrayStream(targetURL, 1, streamListener, null);
+    }
+
+    /**
+     * 以串流方式(HTTP GET)讀取JSON陣列：在背景執行緒上以JsonReader邊下載邊解析，
+     * 每讀滿batchSize個元素就交給監聽器一次，不會建立整個JSONArray。
+     * 監聽器在 {@link ArrayStreamListener#OnElements(List)} 回傳false時，會停止下載並關閉連線。
+     *
+     * @param targetURL      目標網址。
+     * @param batchSize      每批元素的數量(至少為1)。
+     * @param streamListener 串流監聽器。注意：回呼在背景執行緒上。
+     * @param bundledData    附加的Header（可以為null）
+     * @return 此串流任務，可以用來提早取消。
+     */
+    public StreamTask RequestArrayStream(String targetURL, int batchSize, ArrayStreamListener streamListener, @Nullable JSONObject bundledData) {
+        Log.i(TAG, "RequestArrayStream: start streaming data from " + targetURL + " in batches of " + batchSize);
+        StreamTask task = new JsonArrayStreamTask(_RequestFrom, targetURL, headersOf(bundledData), batchSize, streamListener);
+        executeTask(task);
+        return task;
+    }
+
+    /**
+     * 以Iterator逐一讀取分頁API的所有元素。讀取目前的頁面時，背景會預先下載後面最多prefetchPages頁。
+     * 例如：
+     * <pre>
+     * PagedIterator pages = agent.RequestPages(PagedIterator.byPageNumber(RequestSpec.get(url).build(), "page", 1, "items"), 3, 1024 * 1024);
+     * while (pages.hasNext()) handle(pages.next());
+     * if (pages.getError() != null) ...
+     * pages.close();
+     * </pre>
+     *
+     * @param strategy         分頁方式，參見 {@link PagedIterator#byPageNumber} 與 {@link PagedIterator#byCursor}。
+     * @param prefetchPages    預先下載的頁數(至少為1)。
+     * @param maxBufferedBytes 已下載但尚未讀取的頁面所佔記憶體的上限(bytes，以解析後的JSON估計)。超過時暫停預先下載。
+     * @return 元素的Iterator。注意：hasNext()可能需要等待網路，請在背景執行緒上使用。
+     */
+    public PagedIterator RequestPages(PagedIterator.PageStrategy strategy, int prefetchPages, long maxBufferedBytes) {
+        Log.i(TAG, "RequestPages: start paging with " + prefetchPages + " pages prefetched, at most " + maxBufferedBytes + " bytes buffered");
+        PagedIterator iterator = new PagedIterator(_RequestFrom, strategy, prefetchPages, maxBufferedBytes);
+        if (checkActive("RequestPages")) iterator.start();
+        else iterator.close();
+        return iterator;
+    }
+
+    /**
+     * 下載檔案(HTTP GET)。內容直接寫入檔案，不會保留在記憶體中；中斷後再次呼叫會由中斷處接續(伺服器必須提供ETag或Last-Modified，否則從頭下載)。
+     *
+     * @param targetURL        目標網址。
+     * @param destination      目標檔案。下載中的內容會暫存在同一資料夾的「檔名.part」。
+     * @param downloadListener 下載監聽器(主執行緒)。
+     * @return 此下載任務，可以用來取消。取消後暫存檔會保留，供下次接續。
+     */
+    public StreamTask RequestDownload(String targetURL, File destination, DownloadListener downloadListener) {
+        return RequestDownload(RequestSpec.get(targetURL).build(), destination, -1, null, null, downloadListener);
+    }
+
+    /**
+     * 下載檔案，並在完成時檢查大小與checksum。檢查失敗時暫存檔會被刪除，並回報ParseError。
+     *
+     * @param spec              請求描述(可以加上Header)。
+     * @param destination       目標檔案。
+     * @param expectedSize      預期的大小(bytes)；小於0代表不檢查。
+     * @param checksumAlgorithm checksum的演算法，例如"SHA-256"或"MD5"(可以為null)。
+     * @param expectedChecksum  預期的checksum(16進位，可以為null)。
+     * @param downloadListener  下載監聽器(主執行緒)。
+     * @return 此下載任務，可以用來取消。
+     */
+    public StreamTask RequestDownload(RequestSpec spec, File destination, long expectedSize, @Nullable String checksumAlgorithm,
+                                      @Nullable String expectedChecksum, DownloadListener downloadListener) {
+        Log.i(TAG, "RequestDownload: start downloading " + spec.getUrl() + " to " + destination);
+        StreamTask task = new DownloadTask(_RequestFrom, spec, destination, expectedSize, checksumAlgorithm, expectedChecksum, downloadListener);
+        executeTask(task);
+        return task;
+    }
+
+    /**
+     * 以串流方式上傳內容(multipart/form-data、檔案、JSON或任意來源)。內容不會整個放進記憶體；
+     * 大量的JSON資料請以 {@link UploadBody#ofJsonArray} 邊讀取邊寫出，不要先建立JSONArray再使用 {@link #RequestArrayData}。
+     * 長度未知時使用chunked transfer encoding。可以由此Agent的 {@link #CancelRequest()} 取消。
+     *
+     * @param spec           請求描述(POST或PUT，可以加上Header)。spec本身的內容會被忽略。
+     * @param body           上傳的內容，參見 {@link UploadBody#multipart()}。
+     * @param uploadListener 上傳監聽器(主執行緒)。
+     * @return 此上傳任務，可以用來取消。
+     */
+    public StreamTask RequestUpload(RequestSpec spec, UploadBody body, UploadListener uploadListener) {
+        Log.i(TAG, "RequestUpload: start uploading " + body.getContentType() + " (" + body.getContentLength() + " bytes) to " + spec.getUrl());
+        StreamTask task = new UploadTask(_RequestFrom, spec, body, uploadListener);
+        executeTask(task);
+        return task;
     }
 
     // maxWidth / maxHeight: 如果指定圖檔大於此值，則壓縮圖檔。指定成0的話就不會壓縮。
 // decodeConfig: 指定圖片的顏色屬性(Bitmap.Config系列)。常用： ARGB_8888(頂規，4 char per pixel) / RGB_565 (2 char per pixel)
     private void RequestImage(String targetURL, Response.Listener<Bitmap> listener, Response.ErrorListener errorListener, int maxWidth, int maxHeight, Bitmap.Config decodeConfig) {
         Log.i(TAG, "RequestImage: start requesting image from " + targetURL);
-        ImageRequest request = new ImageRequest(
-                targetURL, listener, maxWidth, maxHeight,
-                ImageView.ScaleType.CENTER_INSIDE, decodeConfig, errorListener);
-        _RequestQueue.add(request);
+        enqueue(new PooledImageRequest(targetURL, null, ImageCache.getInstance(_Context).getBitmapPool(),
+                listener, maxWidth, maxHeight, decodeConfig, errorListener));
     }
 
     public void RequestImage(String targetURL, final ResponseListener<Bitmap> listener, int maxWidth, int maxHeight, Bitmap.Config decodeConfig) {
@@ -309,10 +816,448 @@ public final class InternetSourceAgent {
         RequestImage(targetURL, listener, 0, 0, Bitmap.Config.RGB_565);
     }
 
+    /**
+     * 讀取圖片並顯示在ImageView上。必須在主執行緒上呼叫。
+     * 依序查詢共用的記憶體快取、磁碟快取( {@link ImageCache} )，都未命中才會由網路下載。
+     * 圖片會依ImageView的尺寸縮小解碼，並重複使用 {@link BitmapPool} 中不再顯示的Bitmap。
+     * <p>
+     * 請求與ImageView綁定：
+     * <ul>
+     * <li>同一個ImageView改為顯示其他網址時，原本的請求會被取消，舊的圖片不會覆蓋新的圖片。</li>
+     * <li>只有在畫面上(attached to window)的ImageView才會開始讀取，並以較高的優先順序送出，排在預先載入的圖片之前；
+     * 離開畫面時暫停(取消網路請求)，回到畫面時再重新開始。快速捲動時，網路與解碼只用在使用者看得到的圖片上。</li>
+     * <li>RecyclerView的Adapter可以在onViewRecycled時呼叫 {@link #CancelImage(ImageView)}。</li>
+     * </ul>
+     *
+     * @param targetURL    圖片網址。
+     * @param imageView    要顯示圖片的ImageView。
+     * @param defaultImage 載入中顯示的圖片(0代表不設定)。
+     * @param failedImage  載入失敗時顯示的圖片(0代表不設定)。
+     */
     public void RequestImage(String targetURL, ImageView imageView, @DrawableRes int defaultImage, @DrawableRes int failedImage) {
-        ImageLoader imageLoader = new ImageLoader(_RequestQueue, new BitmapCache());
-        ImageLoader.ImageListener listener = ImageLoader.getImageListener(imageView, defaultImage, failedImage);
-        imageLoader.get(targetURL, listener);
+        ImageBinding previous = bindingOf(imageView);
+        if (previous != null) {
+            // 同一列重新綁定相同的圖片(例如notifyItemChanged)時，沿用進行中的請求
+            if (previous.url.equals(targetURL) && !previous.finished) return;
+            previous.stop();
+        }
+        // 尚未layout的ImageView(例如剛建立的列)還不知道實際尺寸，要等layout之後才決定解碼尺寸並查詢記憶體快取。
+        // ImagePrefetcher也以layout後的尺寸解碼，兩者的快取key才會相同
+        int[] targetSize = imageView.isLaidOut() ? targetSizeOf(imageView) : null;
+        if (targetSize != null) {
+            String memoryKey = ImageCache.memoryKeyOf(targetURL, targetSize[0], targetSize[1], Bitmap.Config.RGB_565);
+            Bitmap cached = ImageCache.getInstance(_Context).acquireBitmapFromMemory(memoryKey);
+            if (cached != null) {
+                imageView.setTag(R.id.lotus_image_request, null);
+                showCachedBitmap(imageView, cached);
+                return;
+            }
+        }
+        // 沒有預設圖片時，原本的圖片會一直顯示到新圖片載入為止，因此要等到那時才能釋放
+        if (defaultImage != 0) showResource(imageView, defaultImage);
+        // 顯示圖片必須在主執行緒上
+        InternetSourceAgent agent = _ResponseExecutor == null ? this : new InternetSourceAgent(this).setResponseExecutor(null);
+        ImageBinding binding = agent.new ImageBinding(targetURL, imageView, failedImage);
+        imageView.setTag(R.id.lotus_image_request, binding);
+        if (imageView.getTag(R.id.lotus_image_attach_listener) == null) {
+            imageView.addOnAttachStateChangeListener(IMAGE_ATTACH_LISTENER);
+            imageView.setTag(R.id.lotus_image_attach_listener, IMAGE_ATTACH_LISTENER);
+        }
+        if (targetSize == null) {
+            binding.awaitLayout(imageView);
+            return;
+        }
+        binding.setSize(targetSize);
+        // 尚未在畫面上(例如RecyclerView預先綁定的列)時，等到attach才開始
+        if (imageView.isAttachedToWindow()) binding.start();
+    }
+
+    /**
+     * 取消ImageView上進行中的圖片請求，例如在RecyclerView.Adapter的onViewRecycled中呼叫。
+     * 目前顯示的圖片不會被移除。必須在主執行緒上呼叫。
+     */
+    public static void CancelImage(ImageView imageView) {
+        ImageBinding binding = bindingOf(imageView);
+        if (binding == null) return;
+        binding.stop();
+        imageView.setTag(R.id.lotus_image_request, null);
+    }
+
+    /**
+     * 以低優先順序預先讀取圖片到記憶體快取(依序查詢記憶體快取、磁碟快取，最後才使用網路)。
+     * 之後以相同尺寸呼叫 {@link #RequestImage(String, ImageView, int, int)} 時會直接命中記憶體快取，不會先顯示預設圖片。
+     * 通常由 {@link ImagePrefetcher} 呼叫。
+     *
+     * @param maxWidth  解碼的寬度上限，必須與顯示時ImageView的尺寸相同才能命中快取。
+     * @param maxHeight 解碼的高度上限。
+     * @param listener  讀取完成時的監聽器(可以為null)。
+     */
+    public void PrefetchImage(final String targetURL, final int maxWidth, final int maxHeight, @Nullable final ResponseListener<Bitmap> listener) {
+        // 新的請求開始：先前CancelRequest留下的取消狀態不能讓之後的預先載入在磁碟快取階段被默默丟棄
+        if (!checkActive("PrefetchImage")) return;
+        final ImageCache imageCache = ImageCache.getInstance(_Context);
+        final String memoryKey = ImageCache.memoryKeyOf(targetURL, maxWidth, maxHeight, Bitmap.Config.RGB_565);
+        Bitmap cached = imageCache.acquireBitmapFromMemory(memoryKey);
+        if (cached != null) {
+            if (listener != null) listener.OnResponseSuccess(cached);
+            imageCache.getBitmapPool().release(cached);
+            return;
+        }
+        imageCache.getDiskExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                if (_Scope.cancelled || _Scope.destroyed) return;
+                byte[] data = imageCache.getBytesFromDisk(targetURL);
+                final Bitmap bitmap = data == null ? null
+                        : BitmapDecoder.decode(data, maxWidth, maxHeight, Bitmap.Config.RGB_565, imageCache.getBitmapPool());
+                if (bitmap != null) {
+                    publishToMemory(imageCache, memoryKey, bitmap);
+                    if (listener == null) {
+                        imageCache.getBitmapPool().release(bitmap);
+                        return;
+                    }
+                    RunOnMainThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            listener.OnResponseSuccess(bitmap);
+                            imageCache.getBitmapPool().release(bitmap);
+                        }
+                    });
+                    return;
+                }
+                Log.v(TAG, "PrefetchImage: start prefetching image from " + targetURL);
+                enqueue(new PooledImageRequest(targetURL, imageCache, imageCache.getBitmapPool(),
+                        new Response.Listener<Bitmap>() {
+                            @Override
+                            public void onResponse(Bitmap response) {
+                                publishToMemory(imageCache, memoryKey, response);
+                                if (listener != null) listener.OnResponseSuccess(response);
+                                imageCache.getBitmapPool().release(response);
+                            }
+                        },
+                        maxWidth, maxHeight, Bitmap.Config.RGB_565,
+                        new Response.ErrorListener() {
+                            @Override
+                            public void onErrorResponse(VolleyError error) {
+                                if (listener != null) listener.OnResponseError(error);
+                            }
+                        }));
+            }
+        });
+    }
+
+    @Nullable
+    private static ImageBinding bindingOf(ImageView imageView) {
+        Object tag = imageView.getTag(R.id.lotus_image_request);
+        return tag instanceof ImageBinding ? (ImageBinding) tag : null;
+    }
+
+    /**
+     * ImageView離開畫面時暫停其圖片請求，回到畫面時再重新開始。不持有任何狀態，所有ImageView共用同一個。
+     */
+    private static final View.OnAttachStateChangeListener IMAGE_ATTACH_LISTENER = new View.OnAttachStateChangeListener() {
+        @Override
+        public void onViewAttachedToWindow(View v) {
+            ImageBinding binding = bindingOf((ImageView) v);
+            if (binding != null && !binding.finished && !binding.isRunning()) binding.start();
+        }
+
+        @Override
+        public void onViewDetachedFromWindow(View v) {
+            ImageBinding binding = bindingOf((ImageView) v);
+            if (binding != null && !binding.finished) binding.stop();
+        }
+    };
+
+    /**
+     * 在ImageView上顯示Bitmap，並更新 {@link BitmapPool} 的使用計數：
+     * 原本顯示的Bitmap在View換上新的圖片之後才釋放，之後才有機會被重複利用。
+     */
+    private void showBitmap(ImageView imageView, @NonNull Bitmap bitmap) {
+        Object previous = imageView.getTag(R.id.lotus_image_bitmap);
+        if (previous == bitmap) return;
+        BitmapPool pool = ImageCache.getInstance(_Context).getBitmapPool();
+        pool.acquire(bitmap);
+        imageView.setImageBitmap(bitmap);
+        imageView.setTag(R.id.lotus_image_bitmap, bitmap);
+        if (previous instanceof Bitmap) pool.release((Bitmap) previous);
+    }
+
+    /**
+     * 顯示由 {@link ImageCache#acquireBitmapFromMemory(String)} 取得的Bitmap，並釋放查詢時的計數。
+     */
+    private void showCachedBitmap(ImageView imageView, @NonNull Bitmap acquired) {
+        showBitmap(imageView, acquired);
+        ImageCache.getInstance(_Context).getBitmapPool().release(acquired);
+    }
+
+    /**
+     * 在ImageView上顯示圖片資源，換上之後才釋放原本顯示的Bitmap。
+     */
+    private void showResource(ImageView imageView, @DrawableRes int resId) {
+        imageView.setImageResource(resId);
+        Object previous = imageView.getTag(R.id.lotus_image_bitmap);
+        imageView.setTag(R.id.lotus_image_bitmap, null);
+        if (previous instanceof Bitmap) ImageCache.getInstance(_Context).getBitmapPool().release((Bitmap) previous);
+    }
+
+    /**
+     * 把剛解碼的Bitmap放入記憶體快取。放入之前先acquire：交給View之前若被其他執行緒的寫入淘汰，
+     * 也不會進入 {@link BitmapPool} 而被其他解碼以inBitmap覆寫。使用完畢後必須呼叫 {@link BitmapPool#release(Bitmap)}。
+     */
+    private static void publishToMemory(ImageCache imageCache, String memoryKey, Bitmap bitmap) {
+        imageCache.getBitmapPool().acquire(bitmap);
+        imageCache.putBitmapToMemory(memoryKey, bitmap);
+    }
+
+    /**
+     * 取得ImageView的目標尺寸：使用實際尺寸，為0時使用LayoutParams中的固定尺寸，都沒有時以螢幕尺寸為上限。
+     * 應在layout之後呼叫，RequestImage與 {@link ImagePrefetcher} 才會得到相同的尺寸。
+     */
+    static int[] targetSizeOf(ImageView imageView) {
+        DisplayMetrics metrics = imageView.getResources().getDisplayMetrics();
+        ViewGroup.LayoutParams params = imageView.getLayoutParams();
+        int width = imageView.getWidth();
+        int height = imageView.getHeight();
+        if (width <= 0 && params != null && params.width > 0) width = params.width;
+        if (height <= 0 && params != null && params.height > 0) height = params.height;
+        if (width <= 0) width = metrics.widthPixels;
+        if (height <= 0) height = metrics.heightPixels;
+        return new int[]{width, height};
+    }
+
+    /**
+     * 綁定在ImageView上(存放於tag)的圖片請求。除了載入中的背景工作之外，所有方法都在主執行緒上呼叫。
+     * 每次start都是新的一輪，stop之後舊一輪的結果(包含磁碟快取讀取)都會被丟棄。
+     * 只持有View的弱參照，等待中的請求不會讓已關閉的畫面無法被回收。
+     */
+    private final class ImageBinding {
+        final String url;
+        private final WeakReference<ImageView> viewRef;
+        // 解碼尺寸，在ImageView layout之後才決定
+        @Nullable
+        private String memoryKey;
+        private int maxWidth;
+        private int maxHeight;
+        @DrawableRes
+        private final int failedImage;
+        boolean finished = false;
+        private final AtomicInteger generation = new AtomicInteger();
+        private volatile boolean running = false;
+        @Nullable
+        private volatile Request<?> request;
+
+        ImageBinding(String url, ImageView imageView, @DrawableRes int failedImage) {
+            this.url = url;
+            this.viewRef = new WeakReference<>(imageView);
+            this.failedImage = failedImage;
+        }
+
+        void setSize(int[] size) {
+            maxWidth = size[0];
+            maxHeight = size[1];
+            memoryKey = ImageCache.memoryKeyOf(url, maxWidth, maxHeight, Bitmap.Config.RGB_565);
+        }
+
+        /**
+         * 等到ImageView第一次layout後再決定尺寸：記憶體快取命中時直接顯示，否則在畫面上時開始讀取。
+         */
+        void awaitLayout(ImageView imageView) {
+            imageView.addOnLayoutChangeListener(new View.OnLayoutChangeListener() {
+                @Override
+                public void onLayoutChange(View v, int left, int top, int right, int bottom, int oldLeft, int oldTop, int oldRight, int oldBottom) {
+                    v.removeOnLayoutChangeListener(this);
+                    ImageView view = (ImageView) v;
+                    // 期間已改綁其他圖片或被取消
+                    if (bindingOf(view) != ImageBinding.this || finished) return;
+                    setSize(targetSizeOf(view));
+                    Bitmap cached = ImageCache.getInstance(_Context).acquireBitmapFromMemory(memoryKey);
+                    if (cached != null) {
+                        finished = true;
+                        view.setTag(R.id.lotus_image_request, null);
+                        showCachedBitmap(view, cached);
+                        return;
+                    }
+                    if (view.isAttachedToWindow()) start();
+                }
+            });
+        }
+
+        boolean isRunning() {
+            return running;
+        }
+
+        boolean isCurrent(int round) {
+            return running && generation.get() == round;
+        }
+
+        void start() {
+            // 尺寸尚未決定，layout之後才會開始
+            if (memoryKey == null) return;
+            running = true;
+            RequestCachedImage(this, generation.incrementAndGet());
+        }
+
+        void stop() {
+            running = false;
+            generation.incrementAndGet();
+            Request<?> pending = request;
+            request = null;
+            if (pending != null) pending.cancel();
+        }
+
+        /**
+         * 記錄本輪送出的請求；本輪已經結束時直接取消。
+         */
+        void setRequest(int round, Request<?> request) {
+            this.request = request;
+            if (!isCurrent(round)) request.cancel();
+        }
+
+        void deliver(int round, @Nullable Bitmap bitmap) {
+            ImageView view = viewRef.get();
+            if (!isCurrent(round) || view == null || bindingOf(view) != this) return;
+            finished = true;
+            running = false;
+            request = null;
+            view.setTag(R.id.lotus_image_request, null);
+            if (bitmap != null) {
+                showBitmap(view, bitmap);
+            } else if (failedImage != 0) {
+                showResource(view, failedImage);
+            }
+        }
+    }
+
+    /**
+     * 讀取ImageView的圖片：先在背景查詢磁碟快取，未命中才使用網路。結果在主執行緒上交給binding。
+     * 每個步驟之前都會檢查binding是否仍在同一輪，已離開畫面或改綁其他圖片時不會繼續解碼或下載。
+     */
+    private void RequestCachedImage(final ImageBinding binding, final int round) {
+        final ImageCache imageCache = ImageCache.getInstance(_Context);
+        imageCache.getDiskExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!binding.isCurrent(round)) return;
+                byte[] data = imageCache.getBytesFromDisk(binding.url);
+                if (!binding.isCurrent(round)) return;
+                final Bitmap bitmap = data == null ? null
+                        : BitmapDecoder.decode(data, binding.maxWidth, binding.maxHeight, Bitmap.Config.RGB_565, imageCache.getBitmapPool());
+                if (bitmap != null) {
+                    publishToMemory(imageCache, binding.memoryKey, bitmap);
+                    sMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            binding.deliver(round, bitmap);
+                            imageCache.getBitmapPool().release(bitmap);
+                        }
+                    });
+                    return;
+                }
+                Log.i(TAG, "RequestImage: start requesting image from " + binding.url);
+                PooledImageRequest request = new PooledImageRequest(binding.url, imageCache, imageCache.getBitmapPool(),
+                        new Response.Listener<Bitmap>() {
+                            @Override
+                            public void onResponse(Bitmap response) {
+                                publishToMemory(imageCache, binding.memoryKey, response);
+                                binding.deliver(round, response);
+                                imageCache.getBitmapPool().release(response);
+                            }
+                        },
+                        binding.maxWidth, binding.maxHeight, Bitmap.Config.RGB_565,
+                        new Response.ErrorListener() {
+                            @Override
+                            public void onErrorResponse(VolleyError error) {
+                                binding.deliver(round, null);
+                            }
+                        });
+                // 畫面上的圖片排在預先載入的圖片之前
+                request.setPriority(Request.Priority.HIGH);
+                binding.setRequest(round, request);
+                if (!request.isCanceled()) enqueue(request);
+            }
+        });
+    }
+
+    /**
+     * 在network thread上以 {@link BitmapDecoder} 縮小解碼、並重複使用 {@link BitmapPool} 記憶體的圖片請求。
+     * 指定imageCache時，會先把原始bytes寫入磁碟快取再解碼，因此不再寫入Volley本身的回應快取。
+     */
+    private static class PooledImageRequest extends Request<Bitmap> {
+        private static final int IMAGE_TIMEOUT_MS = 1000;
+        private static final int IMAGE_MAX_RETRIES = 2;
+        private static final float IMAGE_BACKOFF_MULT = 2f;
+
+        private final Object mLock = new Object();
+        @Nullable
+        private final ImageCache mImageCache;
+        private final BitmapPool mBitmapPool;
+        private final int mMaxWidth;
+        private final int mMaxHeight;
+        private final Bitmap.Config mDecodeConfig;
+        private Response.Listener<Bitmap> mListener;
+        // 預設與Volley的ImageRequest相同；畫面上的圖片會提高
+        private Priority mPriority = Priority.LOW;
+
+        PooledImageRequest(String url, @Nullable ImageCache imageCache, BitmapPool bitmapPool, Response.Listener<Bitmap> listener,
+                           int maxWidth, int maxHeight, Bitmap.Config decodeConfig, Response.ErrorListener errorListener) {
+            super(Method.GET, url, errorListener);
+            // 與Volley的ImageRequest相同的重試設定與優先順序
+            setRetryPolicy(new DefaultRetryPolicy(IMAGE_TIMEOUT_MS, IMAGE_MAX_RETRIES, IMAGE_BACKOFF_MULT));
+            mImageCache = imageCache;
+            mBitmapPool = bitmapPool;
+            mListener = listener;
+            mMaxWidth = maxWidth;
+            mMaxHeight = maxHeight;
+            mDecodeConfig = decodeConfig;
+            if (imageCache != null) setShouldCache(false);
+        }
+
+        /**
+         * 必須在加入Queue之前設定；加入之後Queue不會重新排序。
+         */
+        void setPriority(Priority priority) {
+            mPriority = priority;
+        }
+
+        @Override
+        public Priority getPriority() {
+            return mPriority;
+        }
+
+        @Override
+        public void cancel() {
+            super.cancel();
+            synchronized (mLock) {
+                mListener = null;
+            }
+        }
+
+        @Override
+        protected Response<Bitmap> parseNetworkResponse(NetworkResponse response) {
+            if (response.data == null) return Response.error(new ParseError(response));
+            // 下載期間已被取消(例如該列已經捲出畫面)時不必解碼；取消的請求不會回呼
+            if (isCanceled()) return Response.error(new ParseError(response));
+            Bitmap bitmap;
+            try {
+                bitmap = BitmapDecoder.decode(response.data, mMaxWidth, mMaxHeight, mDecodeConfig, mBitmapPool);
+            } catch (OutOfMemoryError e) {
+                Log.e(TAG, "PooledImageRequest: out of memory decoding " + getUrl() + " (" + response.data.length + " bytes)");
+                return Response.error(new ParseError(e));
+            }
+            if (bitmap == null) return Response.error(new ParseError(response));
+            if (mImageCache != null) mImageCache.putBytesToDisk(getUrl(), response.data);
+            return Response.success(bitmap, HttpHeaderParser.parseCacheHeaders(response));
+        }
+
+        @Override
+        protected void deliverResponse(Bitmap response) {
+            Response.Listener<Bitmap> listener;
+            synchronized (mLock) {
+                listener = mListener;
+            }
+            if (listener != null) listener.onResponse(response);
+        }
     }
 
     public void CancelRequest() {
@@ -320,17 +1265,38 @@ public final class InternetSourceAgent {
     }
 
     void CancelRequest(String cancelTag) {
-        if (!cancelTag.equals("") && _RequestQueue != null) {
+        if (cancelTag != null && !cancelTag.equals("")) {
             Log.v(TAG, "CancelRequest: start cancelling in-queue request tagged with \"" + cancelTag + "\"");
-            _RequestQueue.cancelAll(cancelTag);
-            isCancelled = true;
+            if (RequestDispatcher.isStarted()) getRequestQueue().cancelAll(cancelTag);
+            HostGuard.cancelAll(cancelTag);
+            RequestCoalescer.cancelAll(cancelTag);
+            RequestDispatcher.cancelTasks(cancelTag);
+            if (cancelTag.equals(_RequestFrom)) {
+                synchronized (_Batches) {
+                    for (BatchRequest batch : _Batches) batch.cancel();
+                    _Batches.clear();
+                }
+            }
+            if (cancelTag.equals(_RequestFrom)) _Scope.cancelled = true;
         } else {
-            Log.e(TAG, "CancelRequest: tag not assigned, or queue is null");
+            Log.e(TAG, "CancelRequest: tag not assigned");
         }
     }
 
+    /**
+     * @return 此Agent是否已被取消：呼叫 {@link #CancelRequest()} 之後、尚未送出新請求之前，
+     * 或綁定的生命週期已結束時為true。
+     */
     public boolean IsCancelled() {
-        return isCancelled;
+        return _Scope.cancelled || _Scope.destroyed;
+    }
+
+    /**
+     * Agent與其 with... 複本共用的狀態。
+     */
+    private static final class Scope {
+        volatile boolean cancelled = false;
+        volatile boolean destroyed = false;
     }
 
     public interface ResponseListener<T> {
@@ -340,6 +1306,76 @@ public final class InternetSourceAgent {
         void OnResponseError(VolleyError error);
     }
 
+    /**
+     * 串流讀取JSON陣列用的監聽器。所有回呼都在背景執行緒上，更新UI時請自行切回主執行緒。
+     */
+    public interface ArrayStreamListener {
+        /**
+         * 讀到一批元素時呼叫。元素型別與 {@link JsonUtil#readValue(android.util.JsonReader)} 相同。
+         *
+         * @return 是否繼續讀取。回傳false會停止下載並關閉連線。
+         */
+        boolean OnElements(List<Object> elements);
+
+        /**
+         * 串流結束時呼叫。被取消時不會呼叫。
+         *
+         * @param count        總共讀到的元素數量。
+         * @param stoppedEarly 是否因為OnElements回傳false而提早結束。
+         */
+        void OnStreamComplete(int count, boolean stoppedEarly);
+
+        void OnResponseError(VolleyError error);
+    }
+
+    /**
+     * 下載檔案用的監聽器。所有回呼都在主執行緒上；被取消時不會再回呼。
+     */
+    public interface DownloadListener {
+        /**
+         * 下載進度。最多每200毫秒回呼一次。
+         *
+         * @param total 檔案的總大小；無法得知時為-1。
+         */
+        void OnProgress(long downloaded, long total);
+
+        void OnDownloadComplete(File file);
+
+        void OnResponseError(VolleyError error);
+    }
+
+    /**
+     * 上傳用的監聽器。所有回呼都在主執行緒上；被取消時不會再回呼。
+     */
+    public interface UploadListener {
+        /**
+         * 上傳進度。最多每200毫秒回呼一次。
+         *
+         * @param total 內容的總大小；chunked上傳時為-1。
+         */
+        void OnProgress(long sent, long total);
+
+        /**
+         * @param response 伺服器回應的文字內容。
+         */
+        void OnUploadComplete(String response);
+
+        void OnResponseError(VolleyError error);
+    }
+
+    /**
+     * 將附加資料轉換成Header。轉換失敗或沒有資料時回傳空的Map。
+     */
+    private static HashMap<String, String> headersOf(@Nullable JSONObject bundledData) {
+        if (bundledData == null) return new HashMap<>();
+        try {
+            return jsonToMap(bundledData);
+        } catch (JSONException e) {
+            e.printStackTrace();
+            return new HashMap<>();
+        }
+    }
+
     /**
      * 來自Vikas Gupta的方法。參見： https://stackoverflow.com/a/24012023/9735961
      *
@@ -387,30 +1423,25 @@ public final class InternetSourceAgent {
         return list;
     }
 
+    /**
+     * 給Volley {@link ImageLoader} 使用的快取，背後是共用的 {@link ImageCache} 記憶體快取。
+     */
     public class BitmapCache implements ImageLoader.ImageCache {
 
-        //TODO: 研究圖片Cache具體而言如何實現
-        //網址: https://blog.csdn.net/guolin_blog/article/details/17482165
-        private LruCache<String, Bitmap> mCache;
+        private final ImageCache mCache;
 
         public BitmapCache() {
-            int maxSize = 10 * 1024 * 1024;
-            mCache = new LruCache<String, Bitmap>(maxSize) {
-                @Override
-                protected int sizeOf(@NonNull String key, @NonNull Bitmap bitmap) {
-                    return bitmap.getRowBytes() * bitmap.getHeight();
-                }
-            };
+            mCache = ImageCache.getInstance(_Context);
         }
 
         @Override
         public Bitmap getBitmap(String url) {
-            return mCache.get(url);
+            return mCache.getBitmapFromMemory(url);
         }
 
         @Override
         public void putBitmap(String url, Bitmap bitmap) {
-            mCache.put(url, bitmap);
+            mCache.putBitmapToMemory(url, bitmap);
         }
 
     }
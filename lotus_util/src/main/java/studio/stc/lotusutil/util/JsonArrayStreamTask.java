@@ -0,0 +1,87 @@
+package studio.stc.lotusutil.util;
+
+import android.util.JsonReader;
+import android.util.Log;
+import android.util.MalformedJsonException;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.android.volley.ParseError;
+import com.android.volley.Request;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.HttpResponse;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 以JsonReader邊下載邊解析JSON陣列的請求，每讀滿batchSize個元素就交給監聽器一次。
+ * 記憶體中只會保留目前這一批元素，不會建立整個JSONArray。
+ */
+final class JsonArrayStreamTask extends StreamTask {
+    private static final String TAG = "JsonArrayStreamTask";
+
+    private final String mUrl;
+    private final Map<String, String> mHeaders;
+    private final int mBatchSize;
+    private final InternetSourceAgent.ArrayStreamListener mListener;
+
+    JsonArrayStreamTask(@Nullable Object tag, @NonNull String url, @Nullable Map<String, String> headers, int batchSize,
+                        @NonNull InternetSourceAgent.ArrayStreamListener listener) {
+        super(tag);
+        mUrl = url;
+        mHeaders = headers;
+        mBatchSize = Math.max(1, batchSize);
+        mListener = listener;
+    }
+
+    @Override
+    protected void execute() {
+        InputStream content = null;
+        int count = 0;
+        boolean stoppedEarly = false;
+        try {
+            HttpResponse response = open(Request.Method.GET, mUrl, mHeaders, null);
+            content = response.getContent();
+            if (content == null) throw new ParseError(new IOException("empty response body"));
+            JsonReader reader = new JsonReader(new InputStreamReader(new BufferedInputStream(content), charsetOf(response)));
+            reader.beginArray();
+            List<Object> batch = new ArrayList<>(mBatchSize);
+            while (!isCancelled() && reader.hasNext()) {
+                batch.add(JsonUtil.readValue(reader));
+                count++;
+                if (batch.size() >= mBatchSize) {
+                    if (!mListener.OnElements(batch)) {
+                        stoppedEarly = true;
+                        break;
+                    }
+                    batch = new ArrayList<>(mBatchSize);
+                }
+            }
+            if (isCancelled()) return;
+            if (!stoppedEarly) {
+                if (!batch.isEmpty()) stoppedEarly = !mListener.OnElements(batch);
+                if (!stoppedEarly) reader.endArray();
+            }
+            if (stoppedEarly) Log.v(TAG, "execute: stopped early after " + count + " elements from " + mUrl);
+            mListener.OnStreamComplete(count, stoppedEarly);
+        } catch (VolleyError error) {
+            if (!isCancelled()) mListener.OnResponseError(error);
+        } catch (IOException e) {
+            // 取消時關閉串流也會造成IOException，此時不回呼
+            if (!isCancelled())
+                mListener.OnResponseError(e instanceof MalformedJsonException ? new ParseError(e) : toVolleyError(e));
+        } catch (IllegalStateException e) {
+            // JsonReader遇到非預期的結構(例如回應不是陣列)
+            if (!isCancelled()) mListener.OnResponseError(new ParseError(e));
+        } finally {
+            closeQuietly(content);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package studio.stc.lotusutil.util;
+
+import android.util.JsonReader;
+import android.util.JsonWriter;
+
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+
+/**
+ * JsonBinder by STC
+ * 以 {@link JsonReader} / {@link JsonWriter} 直接讀寫某個型別的物件，不經過JSONObject。
+ * 標記了 studio.stc.lotusutil.jsonbinder.JsonModel 的類別，編譯時會自動產生實作「類別名稱_JsonBinder」，
+ * 以其INSTANCE使用，例如 {@code User user = User_JsonBinder.INSTANCE.read(reader);}。
+ * 請在App的build.gradle加入：
+ * <pre>
+ * implementation project(':lotusutil:jsonbinder')
+ * annotationProcessor project(':lotusutil:jsonbinder-compiler')
+ * </pre>
+ */
+public interface JsonBinder<T> {
+    /**
+     * 讀取目前位置的值。
+     *
+     * @return 讀取到的物件；JSON為null時回傳null。
+     */
+    @Nullable
+    T read(JsonReader reader) throws IOException;
+
+    /**
+     * 寫出物件。null會寫成JSON的null。
+     */
+    void write(JsonWriter writer, @Nullable T value) throws IOException;
+}
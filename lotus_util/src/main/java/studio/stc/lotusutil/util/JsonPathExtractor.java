@@ -0,0 +1,391 @@
+package studio.stc.lotusutil.util;
+
+import android.util.JsonReader;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * JsonPathExtractor by STC
+ * 只取出JSON文件中特定路徑的值。路徑先編譯一次，之後每次取值只以 {@link JsonReader} 讀過文件一遍：
+ * 只有指定的路徑會被轉換成物件，其他的子樹都以skipValue略過，不會建立任何物件；
+ * 所有路徑都找到之後就停止讀取，不會讀完剩下的文件。
+ * 例如：
+ * <pre>
+ * JsonPathExtractor extractor = JsonPathExtractor.compile("id", "user.name", "geo[0]", "items[*].id");
+ * JsonPathExtractor.Result result = extractor.extract(json);
+ * String name = result.getString("user.name", "");
+ * JSONArray ids = (JSONArray) result.get("items[*].id");
+ * </pre>
+ * 路徑語法：以「.」分隔欄位名稱，「[n]」取陣列的第n個元素，「[*]」取陣列的所有元素；開頭可以加上「$」。
+ * 含有[*]的路徑，結果是所有符合的值依序組成的JSONArray(多層[*]會攤平)。
+ * 值的型別與 {@link JsonUtil#readValue(JsonReader)} 相同。編譯後的Extractor可以在多個執行緒上重複使用。
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class JsonPathExtractor {
+    private static final String TAG = "JsonPathExtractor";
+
+    private final Node mRoot = new Node();
+    private final List<String> mPaths;
+    private final HashMap<String, Integer> mIndexOfPath = new HashMap<>();
+    private final boolean[] mMultiple;
+    private int mSingleCount = 0;
+
+    private JsonPathExtractor(String[] paths) {
+        mPaths = Collections.unmodifiableList(Arrays.asList(paths.clone()));
+        mMultiple = new boolean[paths.length];
+        for (int i = 0; i < paths.length; i++) {
+            if (mIndexOfPath.containsKey(paths[i])) throw new IllegalArgumentException("duplicated path \"" + paths[i] + "\"");
+            mIndexOfPath.put(paths[i], i);
+            Node node = mRoot;
+            for (Object segment : parse(paths[i])) {
+                if (segment == WILDCARD) {
+                    mMultiple[i] = true;
+                    if (node.wildcard == null) node.wildcard = new Node();
+                    node = node.wildcard;
+                } else if (segment instanceof Integer) {
+                    Node child = node.indices.get(segment);
+                    if (child == null) {
+                        child = new Node();
+                        node.indices.put((Integer) segment, child);
+                    }
+                    node = child;
+                } else {
+                    Node child = node.names.get(segment);
+                    if (child == null) {
+                        child = new Node();
+                        node.names.put((String) segment, child);
+                    }
+                    node = child;
+                }
+            }
+            node.targets.add(i);
+            if (!mMultiple[i]) mSingleCount++;
+        }
+    }
+
+    /**
+     * 編譯路徑。
+     *
+     * @throws IllegalArgumentException 路徑格式錯誤或重複時。
+     */
+    @NonNull
+    public static JsonPathExtractor compile(@NonNull String... paths) {
+        return new JsonPathExtractor(paths);
+    }
+
+    @NonNull
+    public List<String> getPaths() {
+        return mPaths;
+    }
+
+    /**
+     * 由JsonReader目前的位置讀取一個值(通常是整份文件)，取出所有路徑的值。
+     * 所有路徑都找到時會提早停止，因此之後reader的位置不一定在該值的結尾；請直接關閉reader。
+     */
+    @NonNull
+    public Result extract(@NonNull JsonReader reader) throws IOException {
+        State state = new State(mPaths.size(), mSingleCount);
+        for (int i = 0; i < mMultiple.length; i++) {
+            if (mMultiple[i]) state.values[i] = new JSONArray();
+        }
+        walk(reader, mRoot, state);
+        return new Result(state.values, state.found);
+    }
+
+    @NonNull
+    public Result extract(@NonNull String json) throws IOException {
+        JsonReader reader = new JsonReader(new StringReader(json));
+        try {
+            return extract(reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * 以UTF-8讀取串流。串流會被關閉。
+     */
+    @NonNull
+    public Result extract(@NonNull InputStream in) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        try {
+            return extract(reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * @return 供 {@link InternetSourceAgent} 使用的解析器：在network thread上直接由回應內容取值，不建立整份JSONObject。
+     */
+    @NonNull
+    CachePolicy.BodyParser<Result> asBodyParser() {
+        return new CachePolicy.StreamBodyParser<Result>() {
+            @Override
+            public Result parse(InputStream body, String charset) throws JSONException {
+                try {
+                    JsonReader reader = new JsonReader(new InputStreamReader(body, charset));
+                    try {
+                        return extract(reader);
+                    } finally {
+                        reader.close();
+                    }
+                } catch (IOException | IllegalStateException e) {
+                    throw JsonUtil.toJSONException("cannot extract " + mPaths, e);
+                }
+            }
+
+            @Override
+            public Result parse(String body) throws JSONException {
+                try {
+                    return extract(body);
+                } catch (IOException | IllegalStateException e) {
+                    throw JsonUtil.toJSONException("cannot extract " + mPaths, e);
+                }
+            }
+        };
+    }
+
+    private static void walk(JsonReader reader, Node node, State state) throws IOException {
+        if (!node.targets.isEmpty()) {
+            // 路徑的終點：轉換整個值，其下的其他路徑由轉換後的值取得
+            resolve(JsonUtil.readValue(reader), node, state);
+            return;
+        }
+        switch (reader.peek()) {
+            case BEGIN_OBJECT:
+                if (node.names.isEmpty()) {
+                    reader.skipValue();
+                    return;
+                }
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if (state.isComplete()) return;
+                    Node child = node.names.get(reader.nextName());
+                    if (child == null) reader.skipValue();
+                    else walk(reader, child, state);
+                }
+                reader.endObject();
+                return;
+            case BEGIN_ARRAY:
+                if (node.indices.isEmpty() && node.wildcard == null) {
+                    reader.skipValue();
+                    return;
+                }
+                reader.beginArray();
+                for (int i = 0; reader.hasNext(); i++) {
+                    if (state.isComplete()) return;
+                    Node child = node.indices.get(i);
+                    if (child != null && node.wildcard != null) {
+                        // 同一個元素同時符合[n]與[*]：只能讀一次，轉換後再分別取值
+                        Object element = JsonUtil.readValue(reader);
+                        resolve(element, child, state);
+                        resolve(element, node.wildcard, state);
+                    } else if (child != null) {
+                        walk(reader, child, state);
+                    } else if (node.wildcard != null) {
+                        walk(reader, node.wildcard, state);
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endArray();
+                return;
+            default:
+                // 路徑還沒結束，但這裡不是物件或陣列：不符合
+                reader.skipValue();
+        }
+    }
+
+    /**
+     * 由已轉換的值取得node以下所有路徑的值。
+     */
+    private static void resolve(Object value, Node node, State state) {
+        for (int target : node.targets) state.put(target, value);
+        if (value instanceof JSONObject) {
+            JSONObject object = (JSONObject) value;
+            for (Map.Entry<String, Node> entry : node.names.entrySet()) {
+                if (object.has(entry.getKey())) resolve(object.opt(entry.getKey()), entry.getValue(), state);
+            }
+        } else if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            for (Map.Entry<Integer, Node> entry : node.indices.entrySet()) {
+                if (entry.getKey() < array.length()) resolve(array.opt(entry.getKey()), entry.getValue(), state);
+            }
+            if (node.wildcard != null) {
+                for (int i = 0; i < array.length(); i++) resolve(array.opt(i), node.wildcard, state);
+            }
+        }
+    }
+
+    static final Object WILDCARD = new Object();
+
+    /**
+     * 將路徑拆成欄位名稱(String)、索引(Integer)與 {@link #WILDCARD}。{@link LazyJsonDocument} 也使用相同的語法。
+     */
+    static List<Object> parse(String path) {
+        List<Object> segments = new ArrayList<>();
+        int i = path.startsWith("$") ? 1 : 0;
+        int length = path.length();
+        while (i < length) {
+            char c = path.charAt(i);
+            if (c == '.') {
+                i++;
+                continue;
+            }
+            if (c == '[') {
+                int end = path.indexOf(']', i);
+                if (end < 0) throw new IllegalArgumentException("unclosed [ in path \"" + path + "\"");
+                String index = path.substring(i + 1, end).trim();
+                if (index.equals("*")) {
+                    segments.add(WILDCARD);
+                } else {
+                    try {
+                        segments.add(Integer.parseInt(index));
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("invalid index \"" + index + "\" in path \"" + path + "\"");
+                    }
+                }
+                i = end + 1;
+                continue;
+            }
+            int end = i;
+            while (end < length && path.charAt(end) != '.' && path.charAt(end) != '[') end++;
+            segments.add(path.substring(i, end));
+            i = end;
+        }
+        if (segments.isEmpty()) throw new IllegalArgumentException("empty path \"" + path + "\"");
+        return segments;
+    }
+
+    private static final class Node {
+        final HashMap<String, Node> names = new HashMap<>();
+        final HashMap<Integer, Node> indices = new HashMap<>();
+        Node wildcard;
+        final List<Integer> targets = new ArrayList<>(1);
+    }
+
+    /**
+     * 單次取值的狀態。
+     */
+    private final class State {
+        final Object[] values;
+        final boolean[] found;
+        private int mRemaining;
+
+        State(int pathCount, int singleCount) {
+            values = new Object[pathCount];
+            found = new boolean[pathCount];
+            mRemaining = singleCount;
+        }
+
+        void put(int target, Object value) {
+            if (mMultiple[target]) {
+                ((JSONArray) values[target]).put(value);
+                found[target] = true;
+            } else if (!found[target]) {
+                values[target] = value;
+                found[target] = true;
+                mRemaining--;
+            }
+        }
+
+        /**
+         * @return 是否已經不需要再讀取(沒有[*]路徑且所有路徑都已找到)。
+         */
+        boolean isComplete() {
+            return mRemaining == 0 && mSingleCount == mPaths.size();
+        }
+    }
+
+    /**
+     * 取值的結果。以編譯時的路徑字串查詢。
+     */
+    public final class Result {
+        private final Object[] mValues;
+        private final boolean[] mFound;
+
+        private Result(Object[] values, boolean[] found) {
+            mValues = values;
+            mFound = found;
+        }
+
+        private int indexOf(String path) {
+            Integer index = mIndexOfPath.get(path);
+            if (index == null) throw new IllegalArgumentException("path \"" + path + "\" was not compiled");
+            return index;
+        }
+
+        /**
+         * @return 文件中是否有此路徑(值為null也算)。含有[*]的路徑在至少有一個值時為true。
+         */
+        public boolean has(@NonNull String path) {
+            return mFound[indexOf(path)];
+        }
+
+        /**
+         * @return 此路徑的值；不存在時為null，值為JSON的null時為 {@link JSONObject#NULL}。
+         */
+        @Nullable
+        public Object get(@NonNull String path) {
+            int index = indexOf(path);
+            return mFound[index] ? mValues[index] : null;
+        }
+
+        /**
+         * 與 {@link JsonUtil#getValue(JSONObject, String, Object)} 相同：不存在時回傳預設值並記錄錯誤。
+         */
+        public Object getValue(@NonNull String path, Object defaultValue) {
+            Object value = get(path);
+            if (value != null) return value;
+            Log.e(TAG, "getValue: " + (defaultValue == null ? JsonUtil.LogText.FailLoadingJSONVar(path)
+                    : JsonUtil.LogText.FailLoadingJSONVar(path, String.valueOf(defaultValue))));
+            return defaultValue;
+        }
+
+        public String getString(@NonNull String path, String defaultValue) {
+            return JsonUtil.toString(get(path), defaultValue);
+        }
+
+        public long getLong(@NonNull String path, long defaultValue) {
+            return JsonUtil.toLong(get(path), defaultValue);
+        }
+
+        public double getDouble(@NonNull String path, double defaultValue) {
+            return JsonUtil.toDouble(get(path), defaultValue);
+        }
+
+        public boolean getBoolean(@NonNull String path, boolean defaultValue) {
+            return JsonUtil.toBoolean(get(path), defaultValue);
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder("Result{");
+            for (int i = 0; i < mValues.length; i++) {
+                if (i > 0) builder.append(", ");
+                builder.append(mPaths.get(i)).append('=').append(mFound[i] ? mValues[i] : "(missing)");
+            }
+            return builder.append('}').toString();
+        }
+    }
+}
@@ -2,17 +2,30 @@ package studio.stc.lotusutil.util;
 
 import android.util.JsonReader;
 import android.util.JsonToken;
+import android.util.JsonWriter;
 import android.util.Log;
 
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 public final class JsonUtil {
 
     private static final String TAG = "JsonUtil";
 
+    private static final int INITIAL_ARRAY_CAPACITY = 16;
+    // 不超過18個字元(含負號)的整數一定在long範圍內，可以逐位計算
+    private static final int MAX_FAST_DIGITS = 18;
+
     /**
      * 錯誤與提示訊息
      */
@@ -51,7 +64,364 @@ public final class JsonUtil {
         }
     }
 
+    /**
+     * 由JsonReader讀取下一個值，轉換成與org.json相同的型別：
+     * JSONObject / JSONArray / String / Long或Double / Boolean / {@link JSONObject#NULL}。
+     *
+     * @param jsReader 目前位置在某個值之前的JsonReader。
+     * @return 讀取到的值。
+     */
+    public static Object readValue(JsonReader jsReader) throws IOException {
+        switch (jsReader.peek()) {
+            case BEGIN_OBJECT:
+                JSONObject object = new JSONObject();
+                jsReader.beginObject();
+                while (jsReader.hasNext()) {
+                    String name = jsReader.nextName();
+                    try {
+                        object.put(name, readValue(jsReader));
+                    } catch (JSONException e) {
+                        throw new IOException("cannot put value of \"" + name + "\"", e);
+                    }
+                }
+                jsReader.endObject();
+                return object;
+            case BEGIN_ARRAY:
+                JSONArray array = new JSONArray();
+                jsReader.beginArray();
+                while (jsReader.hasNext()) {
+                    array.put(readValue(jsReader));
+                }
+                jsReader.endArray();
+                return array;
+            case STRING:
+                return jsReader.nextString();
+            case NUMBER:
+                return parseNumber(jsReader.nextString());
+            case BOOLEAN:
+                return jsReader.nextBoolean();
+            case NULL:
+                jsReader.nextNull();
+                return JSONObject.NULL;
+            default:
+                throw new IOException("unexpected token " + jsReader.peek());
+        }
+    }
+
+    /**
+     * 以binder讀取JSON文字。
+     *
+     * @return 讀取到的物件；JSON為null時回傳null。
+     */
+    public static <T> T fromJson(String json, JsonBinder<T> binder) throws IOException {
+        JsonReader jsReader = new JsonReader(new StringReader(json));
+        try {
+            return binder.read(jsReader);
+        } finally {
+            jsReader.close();
+        }
+    }
+
+    /**
+     * 以binder將物件寫成JSON文字。
+     */
+    public static <T> String toJson(T value, JsonBinder<T> binder) throws IOException {
+        StringWriter out = new StringWriter();
+        JsonWriter jsWriter = new JsonWriter(out);
+        binder.write(jsWriter, value);
+        jsWriter.close();
+        return out.toString();
+    }
+
+    /**
+     * 以binder讀取JSON陣列。陣列中的null元素會保留為null。
+     *
+     * @param jsReader 目前位置在陣列之前的JsonReader。
+     */
+    public static <T> List<T> readList(JsonReader jsReader, JsonBinder<T> binder) throws IOException {
+        List<T> list = new ArrayList<>();
+        jsReader.beginArray();
+        while (jsReader.hasNext()) {
+            list.add(binder.read(jsReader));
+        }
+        jsReader.endArray();
+        return list;
+    }
+
+    /**
+     * 以binder寫出JSON陣列。
+     */
+    public static <T> void writeList(JsonWriter jsWriter, List<T> list, JsonBinder<T> binder) throws IOException {
+        jsWriter.beginArray();
+        for (T value : list) {
+            binder.write(jsWriter, value);
+        }
+        jsWriter.endArray();
+    }
+
+    /**
+     * @return 供 {@link InternetSourceAgent} 使用的解析器：在network thread上直接由回應內容讀取物件。
+     */
+    static <T> CachePolicy.BodyParser<T> asBodyParser(final JsonBinder<T> binder) {
+        return new CachePolicy.StreamBodyParser<T>() {
+            @Override
+            public T parse(InputStream body, String charset) throws JSONException {
+                try {
+                    JsonReader jsReader = new JsonReader(new InputStreamReader(body, charset));
+                    try {
+                        return binder.read(jsReader);
+                    } finally {
+                        jsReader.close();
+                    }
+                } catch (IOException | IllegalStateException | NumberFormatException e) {
+                    throw toJSONException("cannot read " + binder.getClass().getSimpleName(), e);
+                }
+            }
+
+            @Override
+            public T parse(String body) throws JSONException {
+                try {
+                    return fromJson(body, binder);
+                } catch (IOException | IllegalStateException | NumberFormatException e) {
+                    throw toJSONException("cannot read " + binder.getClass().getSimpleName(), e);
+                }
+            }
+        };
+    }
+
+    /**
+     * @return 與 {@link #asBodyParser(JsonBinder)} 相同，但回應內容是JSON陣列。
+     */
+    static <T> CachePolicy.BodyParser<List<T>> asListBodyParser(final JsonBinder<T> binder) {
+        return asBodyParser(new JsonBinder<List<T>>() {
+            @Override
+            public List<T> read(JsonReader reader) throws IOException {
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+                    return null;
+                }
+                return readList(reader, binder);
+            }
+
+            @Override
+            public void write(JsonWriter writer, List<T> value) throws IOException {
+                if (value == null) writer.nullValue();
+                else writeList(writer, value, binder);
+            }
+        });
+    }
+
+    /**
+     * 將 {@link #readValue(JsonReader)} 的值轉換成String；null或JSON的null時回傳預設值。
+     */
+    static String toString(Object value, String defaultValue) {
+        return value == null || value == JSONObject.NULL ? defaultValue : value.toString();
+    }
+
+    static long toLong(Object value, long defaultValue) {
+        if (value instanceof Number) return ((Number) value).longValue();
+        if (value instanceof String) {
+            try {
+                return parseNumber((String) value).longValue();
+            } catch (NumberFormatException ignored) {
+                // 使用預設值
+            }
+        }
+        return defaultValue;
+    }
+
+    static double toDouble(Object value, double defaultValue) {
+        if (value instanceof Number) return ((Number) value).doubleValue();
+        if (value instanceof String) {
+            try {
+                return Double.parseDouble((String) value);
+            } catch (NumberFormatException ignored) {
+                // 使用預設值
+            }
+        }
+        return defaultValue;
+    }
+
+    static boolean toBoolean(Object value, boolean defaultValue) {
+        if (value instanceof Boolean) return (Boolean) value;
+        if ("true".equalsIgnoreCase(String.valueOf(value))) return true;
+        if ("false".equalsIgnoreCase(String.valueOf(value))) return false;
+        return defaultValue;
+    }
+
+    /**
+     * 將讀取時的錯誤包裝成JSONException，供 {@link CachePolicy.BodyParser} 使用。
+     */
+    static JSONException toJSONException(String message, Exception cause) {
+        JSONException exception = new JSONException(message + ": " + cause.getMessage());
+        exception.initCause(cause);
+        return exception;
+    }
+
+    /**
+     * 將JSON數字陣列直接讀成int[]，不建立任何Integer。
+     * 數字以整數的快速路徑轉換；有小數或指數的數字(例如1.0、1e3)必須剛好是整數。
+     *
+     * @param jsReader 目前位置在陣列之前的JsonReader。
+     * @throws NumberFormatException 數字不是整數或超出int範圍時。
+     * @throws IllegalStateException 陣列中有null或其他非數字的值時。
+     */
+    public static int[] readInts(JsonReader jsReader) throws IOException {
+        int[] buffer = new int[INITIAL_ARRAY_CAPACITY];
+        int size = 0;
+        jsReader.beginArray();
+        while (jsReader.hasNext()) {
+            if (size == buffer.length) buffer = Arrays.copyOf(buffer, size << 1);
+            long value = parseLong(jsReader.nextString());
+            if (value != (int) value) throw new NumberFormatException(value + " is out of int range");
+            buffer[size++] = (int) value;
+        }
+        jsReader.endArray();
+        return size == buffer.length ? buffer : Arrays.copyOf(buffer, size);
+    }
+
+    /**
+     * 將JSON數字陣列直接讀成long[]，不建立任何Long。參見 {@link #readInts(JsonReader)}。
+     */
+    public static long[] readLongs(JsonReader jsReader) throws IOException {
+        long[] buffer = new long[INITIAL_ARRAY_CAPACITY];
+        int size = 0;
+        jsReader.beginArray();
+        while (jsReader.hasNext()) {
+            if (size == buffer.length) buffer = Arrays.copyOf(buffer, size << 1);
+            buffer[size++] = parseLong(jsReader.nextString());
+        }
+        jsReader.endArray();
+        return size == buffer.length ? buffer : Arrays.copyOf(buffer, size);
+    }
+
+    /**
+     * 將JSON數字陣列直接讀成double[]，不建立任何Double。
+     * 整數(大多數的計數、時間戳記)以快速路徑轉換，不經過Double.parseDouble。
+     *
+     * @param jsReader 目前位置在陣列之前的JsonReader。
+     * @throws IllegalStateException 陣列中有null或其他非數字的值時。
+     */
+    public static double[] readDoubles(JsonReader jsReader) throws IOException {
+        double[] buffer = new double[INITIAL_ARRAY_CAPACITY];
+        int size = 0;
+        jsReader.beginArray();
+        while (jsReader.hasNext()) {
+            if (size == buffer.length) buffer = Arrays.copyOf(buffer, size << 1);
+            buffer[size++] = parseDouble(jsReader.nextString());
+        }
+        jsReader.endArray();
+        return size == buffer.length ? buffer : Arrays.copyOf(buffer, size);
+    }
+
+    /**
+     * @deprecated 只是示範用的讀法(輸出到System.out)。請改用 {@link #readDoubles(JsonReader)}。
+     */
+    @Deprecated
+    public static void readDoubleArray(JsonReader jsReader) throws IOException {
+        for (double value : readDoubles(jsReader)) {
+            System.out.println(value);
+        }
+    }
+
+    public static void writeInts(JsonWriter jsWriter, int[] array) throws IOException {
+        jsWriter.beginArray();
+        for (int value : array) {
+            jsWriter.value(value);
+        }
+        jsWriter.endArray();
+    }
+
+    public static void writeLongs(JsonWriter jsWriter, long[] array) throws IOException {
+        jsWriter.beginArray();
+        for (long value : array) {
+            jsWriter.value(value);
+        }
+        jsWriter.endArray();
+    }
+
+    /**
+     * @throws IllegalArgumentException 陣列中有NaN或無限大時(JSON無法表示)。
+     */
+    public static void writeDoubles(JsonWriter jsWriter, double[] array) throws IOException {
+        jsWriter.beginArray();
+        for (double value : array) {
+            jsWriter.value(value);
+        }
+        jsWriter.endArray();
+    }
+
+    /**
+     * 將JSON數字轉換成Long(整數)或Double(其他)。
+     */
+    static Number parseNumber(String number) {
+        if (isPlainInteger(number)) {
+            if (number.length() <= MAX_FAST_DIGITS) return parsePlainInteger(number);
+            try {
+                return Long.parseLong(number);
+            } catch (NumberFormatException ignored) {
+                // 超出long範圍，改以Double表示
+            }
+        }
+        return Double.parseDouble(number);
+    }
+
+    /**
+     * 轉換成long。沒有小數與指數、且不超過18個字元的數字直接逐位計算；
+     * 其他的數字必須剛好是整數(例如1.0、1e3)。
+     */
+    static long parseLong(String number) {
+        if (isPlainInteger(number)) {
+            return number.length() <= MAX_FAST_DIGITS ? parsePlainInteger(number) : Long.parseLong(number);
+        }
+        double value = Double.parseDouble(number);
+        long result = (long) value;
+        if (result != value) throw new NumberFormatException(number + " is not a long");
+        return result;
+    }
+
+    /**
+     * 轉換成double。整數的部分不經過Double.parseDouble：long轉成double與Double.parseDouble同樣取最接近的值，結果相同。
+     */
+    static double parseDouble(String number) {
+        // "-0"必須是-0.0，交給Double.parseDouble
+        if (number.length() <= MAX_FAST_DIGITS && isPlainInteger(number) && !number.equals("-0"))
+            return parsePlainInteger(number);
+        return Double.parseDouble(number);
+    }
+
+    /**
+     * @return 是否只有(可選的)負號與數字。
+     */
+    private static boolean isPlainInteger(String number) {
+        int length = number.length();
+        int start = length > 0 && number.charAt(0) == '-' ? 1 : 0;
+        if (start == length) return false;
+        for (int i = start; i < length; i++) {
+            char c = number.charAt(i);
+            if (c < '0' || c > '9') return false;
+        }
+        return true;
+    }
+
+    /**
+     * 逐位計算 {@link #isPlainInteger(String)} 的數字；長度不超過 {@link #MAX_FAST_DIGITS} 時不會溢位。
+     */
+    private static long parsePlainInteger(String number) {
+        boolean negative = number.charAt(0) == '-';
+        long value = 0;
+        for (int i = negative ? 1 : 0; i < number.length(); i++) {
+            value = value * 10 + (number.charAt(i) - '0');
+        }
+        return negative ? -value : value;
+    }
+
     // https://www.jianshu.com/p/6e5e5eb2c482
+
+    /**
+     * @deprecated 只是示範用的讀法(輸出到System.out)。請改用 {@link JsonPathExtractor}。
+     */
+    @Deprecated
     public static void readMessage(JsonReader jsReader) throws IOException {
         jsReader.beginObject();
         while (jsReader.hasNext()) {
@@ -73,16 +443,12 @@ public final class JsonUtil {
         jsReader.endObject();
     }
 
-    //解析geo中的数据
-    public static void readDoubleArray(JsonReader jsReader) throws IOException {
-        jsReader.beginArray();
-        while (jsReader.hasNext()) {
-            System.out.println(jsReader.nextDouble());
-        }
-        jsReader.endArray();
-    }
-
     //由于读取user中的数据
+
+    /**
+     * @deprecated 只是示範用的讀法(輸出到System.out)。請改用 {@link JsonPathExtractor}。
+     */
+    @Deprecated
     public static void readUser(JsonReader jsReader) throws IOException {
         String userName = null;
         int followsCount = -1;
@@ -0,0 +1,453 @@
+package studio.stc.lotusutil.util;
+
+import android.util.JsonReader;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * LazyJsonDocument by STC
+ * 延遲轉換的JSON文件。開啟時只以一次掃描建立結構索引(每個物件與陣列的開始、結束位置)，保留原始的UTF-8 bytes，
+ * 不建立任何JSONObject；之後只有實際存取到的部分才會轉換，轉換後的結果會被快取。
+ * 適合很大、但每個畫面只讀取一小部分的文件(例如設定檔)。例如：
+ * <pre>
+ * LazyJsonDocument document = LazyJsonDocument.parse(bytes);
+ * String title = document.getString("screens.home.title", "");
+ * JSONArray banners = document.getJSONArray("screens.home.banners");
+ * </pre>
+ * 路徑語法與 {@link JsonPathExtractor} 相同，但不支援「[*]」。值的型別與 {@link JsonUtil#readValue(JsonReader)} 相同。
+ * 開啟時只檢查括號與字串是否成對，其他格式錯誤要到轉換該部分時才會發現(此時回傳null並記錄錯誤)。
+ * 回傳的JSONObject / JSONArray 是共用的快取，請勿修改。可以在多個執行緒上使用。
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class LazyJsonDocument {
+    private static final String TAG = "LazyJsonDocument";
+
+    private static final int INITIAL_INDEX_CAPACITY = 64;
+
+    private final byte[] mData;
+    private final int mRootOffset;
+    // 第i個出現的物件或陣列的開始({或[)與結束(}或])位置，依開始位置排序
+    private final int[] mStarts;
+    private final int[] mEnds;
+    private final int mContainerCount;
+
+    // 以下都以容器的編號為key，存取時才建立
+    private final HashMap<Integer, Object> mDecoded = new HashMap<>();
+    private final HashMap<Integer, HashMap<String, Integer>> mMembers = new HashMap<>();
+    private final HashMap<Integer, int[]> mElements = new HashMap<>();
+
+    private LazyJsonDocument(byte[] data, int rootOffset, int[] starts, int[] ends, int containerCount) {
+        mData = data;
+        mRootOffset = rootOffset;
+        mStarts = starts;
+        mEnds = ends;
+        mContainerCount = containerCount;
+    }
+
+    /**
+     * 掃描UTF-8的JSON文件並建立索引。文件內容不會被複製，之後請勿修改data。
+     *
+     * @throws JSONException 文件是空的、括號不成對或字串沒有結束時。
+     */
+    @NonNull
+    public static LazyJsonDocument parse(@NonNull byte[] data) throws JSONException {
+        int[] starts = new int[INITIAL_INDEX_CAPACITY];
+        int[] ends = new int[INITIAL_INDEX_CAPACITY];
+        int[] stack = new int[16];
+        int depth = 0;
+        int count = 0;
+        int rootOffset = -1;
+        for (int i = 0; i < data.length; i++) {
+            byte b = data[i];
+            if (rootOffset < 0 && !isWhitespace(b)) rootOffset = i;
+            switch (b) {
+                case '"':
+                    i = endOfString(data, i);
+                    if (i < 0) throw new JSONException("unterminated string");
+                    break;
+                case '{':
+                case '[':
+                    if (count == starts.length) {
+                        starts = Arrays.copyOf(starts, count << 1);
+                        ends = Arrays.copyOf(ends, count << 1);
+                    }
+                    if (depth == stack.length) stack = Arrays.copyOf(stack, depth << 1);
+                    starts[count] = i;
+                    stack[depth++] = count++;
+                    break;
+                case '}':
+                case ']':
+                    if (depth == 0) throw new JSONException("unexpected " + (char) b + " at " + i);
+                    int id = stack[--depth];
+                    if (data[starts[id]] != (b == '}' ? '{' : '['))
+                        throw new JSONException("mismatched " + (char) b + " at " + i);
+                    ends[id] = i;
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (rootOffset < 0) throw new JSONException("empty document");
+        if (depth > 0) throw new JSONException("unterminated " + (char) data[starts[stack[depth - 1]]]);
+        return new LazyJsonDocument(data, rootOffset, starts, ends, count);
+    }
+
+    @NonNull
+    public static LazyJsonDocument parse(@NonNull String json) throws JSONException {
+        return parse(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 供 {@link InternetSourceAgent} 使用的解析器：在network thread上建立索引，直接使用回應內容的bytes。
+     */
+    static final CachePolicy.BodyParser<LazyJsonDocument> BODY_PARSER = new CachePolicy.BytesBodyParser<LazyJsonDocument>() {
+        @Override
+        public LazyJsonDocument parse(byte[] body, String charset) throws JSONException {
+            if (Charset.forName(charset).equals(StandardCharsets.UTF_8)) return LazyJsonDocument.parse(body);
+            return LazyJsonDocument.parse(new String(body, Charset.forName(charset)));
+        }
+
+        @Override
+        public LazyJsonDocument parse(String body) throws JSONException {
+            return LazyJsonDocument.parse(body);
+        }
+    };
+
+    /**
+     * @return 文件中物件與陣列的數量(索引的大小)。
+     */
+    public int getContainerCount() {
+        return mContainerCount;
+    }
+
+    /**
+     * @return 文件中是否有此路徑(值為null也算)。
+     */
+    public boolean has(@NonNull String path) {
+        return offsetOf(path) >= 0;
+    }
+
+    /**
+     * 取得路徑的值：只轉換該值本身，沿途的物件與陣列只掃描直接的子元素。
+     *
+     * @return 此路徑的值；不存在或無法轉換時為null，值為JSON的null時為 {@link JSONObject#NULL}。
+     * @throws IllegalArgumentException 路徑格式錯誤時。
+     */
+    @Nullable
+    public Object get(@NonNull String path) {
+        int offset = offsetOf(path);
+        if (offset < 0) return null;
+        try {
+            return valueAt(offset);
+        } catch (IOException | JSONException | RuntimeException e) {
+            Log.e(TAG, "get: cannot decode \"" + path + "\": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return 整份文件轉換後的值。
+     */
+    @Nullable
+    public Object getRoot() {
+        return get("$");
+    }
+
+    /**
+     * 與 {@link JsonUtil#getValue(JSONObject, String, Object)} 相同：不存在時回傳預設值並記錄錯誤。
+     */
+    public Object getValue(@NonNull String path, Object defaultValue) {
+        Object value = get(path);
+        if (value != null) return value;
+        Log.e(TAG, "getValue: " + (defaultValue == null ? JsonUtil.LogText.FailLoadingJSONVar(path)
+                : JsonUtil.LogText.FailLoadingJSONVar(path, String.valueOf(defaultValue))));
+        return defaultValue;
+    }
+
+    @Nullable
+    public JSONObject getJSONObject(@NonNull String path) {
+        Object value = get(path);
+        return value instanceof JSONObject ? (JSONObject) value : null;
+    }
+
+    @Nullable
+    public JSONArray getJSONArray(@NonNull String path) {
+        Object value = get(path);
+        return value instanceof JSONArray ? (JSONArray) value : null;
+    }
+
+    public String getString(@NonNull String path, String defaultValue) {
+        return JsonUtil.toString(get(path), defaultValue);
+    }
+
+    public long getLong(@NonNull String path, long defaultValue) {
+        return JsonUtil.toLong(get(path), defaultValue);
+    }
+
+    public double getDouble(@NonNull String path, double defaultValue) {
+        return JsonUtil.toDouble(get(path), defaultValue);
+    }
+
+    public boolean getBoolean(@NonNull String path, boolean defaultValue) {
+        return JsonUtil.toBoolean(get(path), defaultValue);
+    }
+
+    /**
+     * @return 物件的欄位數或陣列的長度；不是物件或陣列時為-1。只掃描直接的子元素，不轉換。
+     */
+    public int sizeOf(@NonNull String path) {
+        int offset = offsetOf(path);
+        if (offset < 0) return -1;
+        try {
+            if (mData[offset] == '{') return membersOf(containerAt(offset)).size();
+            if (mData[offset] == '[') return elementsOf(containerAt(offset)).length;
+        } catch (JSONException e) {
+            Log.e(TAG, "sizeOf: cannot scan \"" + path + "\": " + e.getMessage());
+        }
+        return -1;
+    }
+
+    /**
+     * @return 路徑的值在mData中的開始位置；不存在時為-1。
+     */
+    private int offsetOf(String path) {
+        int offset = mRootOffset;
+        if (path.equals("$")) return offset;
+        List<Object> segments = JsonPathExtractor.parse(path);
+        try {
+            for (Object segment : segments) {
+                if (segment == JsonPathExtractor.WILDCARD)
+                    throw new IllegalArgumentException("[*] is not supported by LazyJsonDocument: \"" + path + "\"");
+                if (segment instanceof Integer) {
+                    if (mData[offset] != '[') return -1;
+                    int[] elements = elementsOf(containerAt(offset));
+                    int index = (Integer) segment;
+                    if (index < 0 || index >= elements.length) return -1;
+                    offset = elements[index];
+                } else {
+                    if (mData[offset] != '{') return -1;
+                    Integer member = membersOf(containerAt(offset)).get(segment);
+                    if (member == null) return -1;
+                    offset = member;
+                }
+            }
+        } catch (JSONException e) {
+            Log.e(TAG, "offsetOf: cannot scan \"" + path + "\": " + e.getMessage());
+            return -1;
+        }
+        return offset;
+    }
+
+    /**
+     * @return 開始於offset的物件或陣列的編號。
+     * @throws JSONException offset不是物件或陣列的開始時(格式錯誤的文件)。
+     */
+    private int containerAt(int offset) throws JSONException {
+        int id = Arrays.binarySearch(mStarts, 0, mContainerCount, offset);
+        if (id < 0) throw new JSONException("expected { or [ at " + offset);
+        return id;
+    }
+
+    /**
+     * @throws JSONException 超出文件結尾時。
+     */
+    private byte byteAt(int offset) throws JSONException {
+        if (offset >= mData.length) throw new JSONException("unexpected end of document");
+        return mData[offset];
+    }
+
+    /**
+     * @return 值的開始位置(offset本身)。
+     * @throws JSONException offset上不是一個值的開始時(例如「{"a":}」)。
+     */
+    private int valueStartAt(int offset) throws JSONException {
+        byte b = byteAt(offset);
+        if (b == ',' || b == ':' || b == '}' || b == ']') throw new JSONException("expected value at " + offset);
+        return offset;
+    }
+
+    private Object valueAt(int offset) throws IOException, JSONException {
+        byte b = mData[offset];
+        if (b == '{' || b == '[') {
+            int id = containerAt(offset);
+            synchronized (mDecoded) {
+                Object cached = mDecoded.get(id);
+                if (cached != null) return cached;
+            }
+            JsonReader reader = new JsonReader(new InputStreamReader(
+                    new ByteArrayInputStream(mData, offset, mEnds[id] - offset + 1), StandardCharsets.UTF_8));
+            Object value;
+            try {
+                value = JsonUtil.readValue(reader);
+            } finally {
+                reader.close();
+            }
+            synchronized (mDecoded) {
+                mDecoded.put(id, value);
+            }
+            return value;
+        }
+        if (b == '"') return readString(offset);
+        int end = endOfLiteral(offset);
+        String literal = new String(mData, offset, end - offset, StandardCharsets.UTF_8);
+        switch (literal) {
+            case "true":
+                return Boolean.TRUE;
+            case "false":
+                return Boolean.FALSE;
+            case "null":
+                return JSONObject.NULL;
+            default:
+                return JsonUtil.parseNumber(literal);
+        }
+    }
+
+    /**
+     * @return 物件的欄位名稱與值的開始位置。第一次存取時掃描直接的子元素，巢狀的物件與陣列以索引跳過。
+     */
+    private HashMap<String, Integer> membersOf(int id) throws JSONException {
+        synchronized (mMembers) {
+            HashMap<String, Integer> members = mMembers.get(id);
+            if (members != null) return members;
+        }
+        HashMap<String, Integer> members = new HashMap<>();
+        int i = skipWhitespace(mStarts[id] + 1);
+        while (byteAt(i) != '}') {
+            if (mData[i] != '"') throw new JSONException("expected name at " + i);
+            String name = readString(i);
+            i = skipWhitespace(endOfString(mData, i) + 1);
+            if (byteAt(i) != ':') throw new JSONException("expected : at " + i);
+            i = valueStartAt(skipWhitespace(i + 1));
+            // 與JSONObject相同，重複的名稱以最後一個為準
+            members.put(name, i);
+            i = nextMember(i);
+        }
+        synchronized (mMembers) {
+            mMembers.put(id, members);
+        }
+        return members;
+    }
+
+    private int[] elementsOf(int id) throws JSONException {
+        synchronized (mElements) {
+            int[] elements = mElements.get(id);
+            if (elements != null) return elements;
+        }
+        int[] elements = new int[8];
+        int size = 0;
+        int i = skipWhitespace(mStarts[id] + 1);
+        while (byteAt(i) != ']') {
+            if (size == elements.length) elements = Arrays.copyOf(elements, size << 1);
+            elements[size++] = valueStartAt(i);
+            i = nextMember(i);
+        }
+        elements = Arrays.copyOf(elements, size);
+        synchronized (mElements) {
+            mElements.put(id, elements);
+        }
+        return elements;
+    }
+
+    /**
+     * 跳過開始於offset的值與其後的逗號。
+     *
+     * @return 下一個子元素的位置，或結束的}、]的位置。
+     */
+    private int nextMember(int offset) throws JSONException {
+        int i;
+        byte b = byteAt(offset);
+        if (b == '{' || b == '[') {
+            i = mEnds[containerAt(offset)] + 1;
+        } else if (b == '"') {
+            i = endOfString(mData, offset);
+            if (i < 0) throw new JSONException("unterminated string");
+            i++;
+        } else {
+            i = endOfLiteral(offset);
+        }
+        i = skipWhitespace(i);
+        if (i >= mData.length) throw new JSONException("unexpected end of document");
+        if (mData[i] == ',') return skipWhitespace(i + 1);
+        if (mData[i] != '}' && mData[i] != ']') throw new JSONException("expected , at " + i);
+        return i;
+    }
+
+    private int endOfLiteral(int offset) {
+        int i = offset;
+        while (i < mData.length) {
+            byte b = mData[i];
+            if (b == ',' || b == '}' || b == ']' || isWhitespace(b)) break;
+            i++;
+        }
+        return i;
+    }
+
+    private int skipWhitespace(int offset) {
+        int i = offset;
+        while (i < mData.length && isWhitespace(mData[i])) i++;
+        return i;
+    }
+
+    private String readString(int offset) throws JSONException {
+        int end = endOfString(mData, offset);
+        if (end < 0) throw new JSONException("unterminated string");
+        boolean escaped = false;
+        for (int i = offset + 1; i < end; i++) {
+            if (mData[i] == '\\') {
+                escaped = true;
+                break;
+            }
+        }
+        // 大多數的名稱沒有跳脫字元，直接轉換
+        if (!escaped) return new String(mData, offset + 1, end - offset - 1, StandardCharsets.UTF_8);
+        try {
+            JsonReader reader = new JsonReader(new InputStreamReader(
+                    new ByteArrayInputStream(mData, offset, end - offset + 1), StandardCharsets.UTF_8));
+            // 單獨的字串不是合法的JSON文件，需要lenient
+            reader.setLenient(true);
+            try {
+                return reader.nextString();
+            } finally {
+                reader.close();
+            }
+        } catch (IOException | IllegalStateException e) {
+            throw JsonUtil.toJSONException("invalid string at " + offset, e);
+        }
+    }
+
+    /**
+     * @return 開始於offset的字串結束的引號位置；沒有結束時為-1。UTF-8的多位元組字元不會等於ASCII的引號或反斜線。
+     */
+    private static int endOfString(byte[] data, int offset) {
+        for (int i = offset + 1; i < data.length; i++) {
+            if (data[i] == '\\') i++;
+            else if (data[i] == '"') return i;
+        }
+        return -1;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "LazyJsonDocument{" + mData.length + " bytes, " + mContainerCount + " containers}";
+    }
+}
@@ -0,0 +1,471 @@
+package studio.stc.lotusutil.util;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.android.volley.ParseError;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.HttpResponse;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * PagedIterator by STC
+ * 把分頁的API串成一個連續的Iterator。目前的頁面還在處理時，背景就已經在下載後面的頁面(最多prefetchPages頁)，
+ * 網路延遲與處理時間因此互相重疊，而不是一頁一頁累加。
+ * 已下載但尚未讀取的頁面所佔的記憶體(以解析後的JSON估計，通常是原始回應的數倍)超過maxBufferedBytes時會暫停預先下載，
+ * 避免佔用過多記憶體。
+ * <p>
+ * {@link #hasNext()} 在下一頁尚未下載完成時會等待，請在背景執行緒上使用。
+ * 某一頁失敗時，在它之前已下載或下載中的頁面仍會照常讀取；讀到失敗的頁面時 {@link #hasNext()} 才回傳false，
+ * 並可由 {@link #getError()} 取得原因(失敗的頁面在結尾之後時，例如超過最後一頁時的404，則視為正常結束)。
+ * 用完請呼叫 {@link #close()}。
+ * 元素的型別與 {@link JsonUtil#readValue(android.util.JsonReader)} 相同。
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class PagedIterator implements Iterator<Object>, Closeable {
+    private static final String TAG = "PagedIterator";
+
+    private final Object mLock = new Object();
+    private final Object mTag;
+    private final PageStrategy mStrategy;
+    private final int mPrefetchPages;
+    private final long mMaxBufferedBytes;
+
+    // 以下欄位皆由mLock保護
+    private final HashMap<Integer, Page> mLoaded = new HashMap<>();
+    private final List<PageTask> mRunning = new ArrayList<>();
+    private long mBufferedBytes = 0;
+    private int mNextToRequest = 0;
+    private int mNextToConsume = 0;
+    private int mEndIndex = Integer.MAX_VALUE; // 第一個不存在的頁面
+    @Nullable
+    private Object mLastRequestedPage; // 最後一個已下載頁面的內容，只在cursor分頁計算下一頁之前保留
+    private boolean mLastRequestedLoaded = true;
+    private VolleyError mError; // 讀取端已經讀到的錯誤
+    @Nullable
+    private VolleyError mPageError; // 最前面失敗頁面的錯誤，讀到該頁時才成為mError
+    private int mFailedIndex = Integer.MAX_VALUE; // 最前面失敗的頁面
+    private boolean mClosed = false;
+
+    // 只由讀取端使用
+    private JSONArray mCurrentItems;
+    private int mCurrentPosition = 0;
+
+    PagedIterator(@Nullable Object tag, @NonNull PageStrategy strategy, int prefetchPages, long maxBufferedBytes) {
+        mTag = tag;
+        mStrategy = strategy;
+        mPrefetchPages = Math.max(1, prefetchPages);
+        mMaxBufferedBytes = maxBufferedBytes;
+    }
+
+    void start() {
+        synchronized (mLock) {
+            scheduleLocked();
+        }
+    }
+
+    /**
+     * @return 是否還有元素。下一頁尚未下載完成時會等待。
+     */
+    @Override
+    @WorkerThread
+    public boolean hasNext() {
+        while (mCurrentItems == null || mCurrentPosition >= mCurrentItems.length()) {
+            Page page = takeNextPage();
+            if (page == null) return false;
+            mCurrentItems = page.items;
+            mCurrentPosition = 0;
+        }
+        return true;
+    }
+
+    @Override
+    @WorkerThread
+    public Object next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        return mCurrentItems.opt(mCurrentPosition++);
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("remove");
+    }
+
+    /**
+     * @return 造成提早結束的錯誤；正常結束或尚未結束時為null。
+     */
+    @Nullable
+    public VolleyError getError() {
+        synchronized (mLock) {
+            return mError;
+        }
+    }
+
+    /**
+     * @return 目前已下載但尚未讀取的頁面所佔記憶體的估計值(bytes)。
+     */
+    public long getBufferedBytes() {
+        synchronized (mLock) {
+            return mBufferedBytes;
+        }
+    }
+
+    /**
+     * 停止預先下載並釋放已下載的頁面。之後 {@link #hasNext()} 一律回傳false。
+     */
+    @Override
+    public void close() {
+        List<PageTask> running;
+        synchronized (mLock) {
+            if (mClosed) return;
+            mClosed = true;
+            mLoaded.clear();
+            mLastRequestedPage = null;
+            mBufferedBytes = 0;
+            running = new ArrayList<>(mRunning);
+            mRunning.clear();
+            mLock.notifyAll();
+        }
+        for (PageTask task : running) task.cancel();
+    }
+
+    @Nullable
+    private Page takeNextPage() {
+        synchronized (mLock) {
+            while (true) {
+                if (mClosed || mError != null || mNextToConsume >= mEndIndex) return null;
+                if (mNextToConsume >= mFailedIndex) {
+                    mError = mPageError;
+                    return null;
+                }
+                Page page = mLoaded.remove(mNextToConsume);
+                if (page != null) {
+                    mNextToConsume++;
+                    mBufferedBytes -= page.bytes;
+                    scheduleLocked();
+                    return page;
+                }
+                try {
+                    mLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+        }
+    }
+
+    /**
+     * 在預先下載的頁數與記憶體上限之內，送出後續頁面的請求。
+     */
+    private void scheduleLocked() {
+        while (!mClosed && mNextToRequest < mEndIndex && mNextToRequest < mFailedIndex
+                && mNextToRequest - mNextToConsume < mPrefetchPages
+                && (mBufferedBytes < mMaxBufferedBytes || mNextToRequest == mNextToConsume)) {
+            // cursor分頁必須等上一頁下載完成才知道下一頁的位置
+            if (mStrategy.dependsOnPreviousPage() && !mLastRequestedLoaded) return;
+            RequestSpec spec = mStrategy.requestFor(mNextToRequest, mNextToRequest == 0 ? null : mLastRequestedPage);
+            // 上一頁已經用完，不再保留(已讀取的頁面才能被回收)
+            mLastRequestedPage = null;
+            if (spec == null) {
+                mEndIndex = mNextToRequest;
+                mLock.notifyAll();
+                return;
+            }
+            PageTask task = new PageTask(mTag, mNextToRequest, spec);
+            mRunning.add(task);
+            mLastRequestedLoaded = false;
+            mNextToRequest++;
+            RequestDispatcher.executeTask(task);
+        }
+    }
+
+    private void onPageLoaded(PageTask task, Object body, JSONArray items, long bytes) {
+        synchronized (mLock) {
+            if (!mRunning.remove(task) || mClosed) return;
+            if (task.mIndex == mNextToRequest - 1) {
+                if (mStrategy.dependsOnPreviousPage()) mLastRequestedPage = body;
+                mLastRequestedLoaded = true;
+            }
+            if (items.length() == 0) {
+                // 空白的頁面代表已經沒有資料，之後的頁面即使已送出也不需要了
+                mEndIndex = Math.min(mEndIndex, task.mIndex);
+                cancelFromLocked(mEndIndex);
+            } else if (task.mIndex < mEndIndex && task.mIndex < mFailedIndex) {
+                mLoaded.put(task.mIndex, new Page(items, bytes));
+                mBufferedBytes += bytes;
+            }
+            scheduleLocked();
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * 記錄失敗的頁面。之前的頁面繼續下載，之後的頁面已經不需要了。
+     */
+    private void onPageFailed(PageTask task, VolleyError error) {
+        synchronized (mLock) {
+            if (!mRunning.remove(task) || mClosed) return;
+            Log.w(TAG, "onPageFailed: page " + task.mIndex + " failed", error);
+            if (task.mIndex < mFailedIndex) {
+                mFailedIndex = task.mIndex;
+                mPageError = error;
+                cancelFromLocked(mFailedIndex);
+            }
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * 頁面任務被取消(例如所屬Agent呼叫CancelRequest)時，讓等待中的讀取端結束。
+     */
+    private void onPageCancelled(PageTask task) {
+        boolean closeAll;
+        synchronized (mLock) {
+            closeAll = mRunning.contains(task) && !mClosed;
+        }
+        if (closeAll) close();
+    }
+
+    /**
+     * 取消並丟棄index(含)之後的頁面。
+     */
+    private void cancelFromLocked(int index) {
+        Iterator<PageTask> iterator = mRunning.iterator();
+        while (iterator.hasNext()) {
+            PageTask task = iterator.next();
+            if (task.mIndex >= index) {
+                iterator.remove();
+                task.cancelQuietly();
+            }
+        }
+        Iterator<Map.Entry<Integer, Page>> loaded = mLoaded.entrySet().iterator();
+        while (loaded.hasNext()) {
+            Map.Entry<Integer, Page> entry = loaded.next();
+            if (entry.getKey() >= index) {
+                mBufferedBytes -= entry.getValue().bytes;
+                loaded.remove();
+            }
+        }
+    }
+
+    /**
+     * 分頁方式。
+     */
+    public interface PageStrategy {
+        /**
+         * @param pageIndex    頁面的順序(由0開始)。
+         * @param previousPage 上一頁的內容(JSONObject或JSONArray)。第一頁，或 {@link #dependsOnPreviousPage()} 為false時可能為null。
+         * @return 該頁的請求；null代表已經沒有下一頁。
+         */
+        @Nullable
+        RequestSpec requestFor(int pageIndex, @Nullable Object previousPage);
+
+        /**
+         * @return 是否需要上一頁的內容才能產生下一頁的請求(例如cursor分頁)。為false時可以同時下載多頁。
+         */
+        boolean dependsOnPreviousPage();
+
+        /**
+         * @param page 頁面的內容(JSONObject或JSONArray)。
+         * @return 頁面中的元素。空的陣列代表已經沒有資料。
+         */
+        @NonNull
+        JSONArray itemsOf(@NonNull Object page) throws JSONException;
+    }
+
+    /**
+     * 以頁碼分頁：在base的網址加上 pageParameter=頁碼，頁面可以同時下載。
+     * 回傳空陣列的頁面視為結尾。
+     *
+     * @param base          第一頁以外都相同的請求(網址與Header)。
+     * @param pageParameter 頁碼的query參數名稱。
+     * @param firstPage     第一頁的頁碼(通常為0或1)。
+     * @param itemsField    回應中存放元素的欄位；null代表回應本身就是JSON陣列。
+     */
+    @NonNull
+    public static PageStrategy byPageNumber(@NonNull final RequestSpec base, @NonNull final String pageParameter, final int firstPage,
+                                            @Nullable final String itemsField) {
+        return new PageStrategy() {
+            @Override
+            public RequestSpec requestFor(int pageIndex, @Nullable Object previousPage) {
+                return base.newBuilder().query(pageParameter, String.valueOf(firstPage + pageIndex)).build();
+            }
+
+            @Override
+            public boolean dependsOnPreviousPage() {
+                return false;
+            }
+
+            @NonNull
+            @Override
+            public JSONArray itemsOf(@NonNull Object page) throws JSONException {
+                return itemsIn(page, itemsField);
+            }
+        };
+    }
+
+    /**
+     * 以cursor分頁：由上一頁回應中的cursorField取得下一頁的cursor，並以cursorParameter送出。
+     * cursor不存在、為null或空字串時視為結尾。
+     *
+     * @param base            第一頁的請求。
+     * @param cursorParameter 帶入cursor的query參數名稱。
+     * @param cursorField     回應中下一頁cursor的欄位。
+     * @param itemsField      回應中存放元素的欄位。
+     */
+    @NonNull
+    public static PageStrategy byCursor(@NonNull final RequestSpec base, @NonNull final String cursorParameter, @NonNull final String cursorField,
+                                        @NonNull final String itemsField) {
+        return new PageStrategy() {
+            @Override
+            public RequestSpec requestFor(int pageIndex, @Nullable Object previousPage) {
+                if (pageIndex == 0) return base;
+                if (!(previousPage instanceof JSONObject)) return null;
+                JSONObject previous = (JSONObject) previousPage;
+                if (previous.isNull(cursorField)) return null;
+                String cursor = previous.optString(cursorField, "");
+                if (cursor.isEmpty()) return null;
+                return base.newBuilder().query(cursorParameter, cursor).build();
+            }
+
+            @Override
+            public boolean dependsOnPreviousPage() {
+                return true;
+            }
+
+            @NonNull
+            @Override
+            public JSONArray itemsOf(@NonNull Object page) throws JSONException {
+                return itemsIn(page, itemsField);
+            }
+        };
+    }
+
+    private static JSONArray itemsIn(Object page, @Nullable String itemsField) throws JSONException {
+        if (itemsField == null) {
+            if (page instanceof JSONArray) return (JSONArray) page;
+            throw new JSONException("page is not an array");
+        }
+        if (!(page instanceof JSONObject)) throw new JSONException("page is not an object");
+        JSONArray items = ((JSONObject) page).optJSONArray(itemsField);
+        return items == null ? new JSONArray() : items;
+    }
+
+    // 估計解析後JSON所佔記憶體用的大略數值(bytes)
+    private static final int OBJECT_OVERHEAD = 48;
+    private static final int REFERENCE_SIZE = 8;
+    private static final int BOXED_VALUE_SIZE = 16;
+
+    /**
+     * 估計解析後的JSON值所佔的記憶體。只是大略的數值，用於預先下載的上限。
+     */
+    static long estimateRetainedSize(@Nullable Object value) {
+        if (value instanceof String) return OBJECT_OVERHEAD + 2L * ((String) value).length();
+        if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            long size = OBJECT_OVERHEAD + (long) REFERENCE_SIZE * array.length();
+            for (int i = 0; i < array.length(); i++) size += estimateRetainedSize(array.opt(i));
+            return size;
+        }
+        if (value instanceof JSONObject) {
+            JSONObject object = (JSONObject) value;
+            // JSONObject內部是LinkedHashMap，每個項目另有一個entry物件
+            long size = OBJECT_OVERHEAD * 2;
+            Iterator<String> keys = object.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                size += OBJECT_OVERHEAD + estimateRetainedSize(key) + estimateRetainedSize(object.opt(key));
+            }
+            return size;
+        }
+        // 數字與布林值(null與JSONObject.NULL共用，不另外計算)
+        return value == null || value == JSONObject.NULL ? 0 : BOXED_VALUE_SIZE;
+    }
+
+    private static final class Page {
+        final JSONArray items;
+        final long bytes; // 解析後的估計大小
+
+        Page(JSONArray items, long bytes) {
+            this.items = items;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * 下載並解析單一頁面的任務。
+     */
+    private final class PageTask extends StreamTask {
+        final int mIndex;
+        private final RequestSpec mSpec;
+        private volatile boolean mQuiet = false;
+
+        PageTask(@Nullable Object tag, int index, @NonNull RequestSpec spec) {
+            super(tag);
+            mIndex = index;
+            mSpec = spec;
+        }
+
+        @Override
+        public void cancel() {
+            super.cancel();
+            if (!mQuiet) onPageCancelled(this);
+        }
+
+        /**
+         * 只取消此頁面，不結束整個Iterator。
+         */
+        void cancelQuietly() {
+            mQuiet = true;
+            super.cancel();
+        }
+
+        @Override
+        protected void execute() {
+            InputStream content = null;
+            try {
+                HttpResponse response = open(mSpec.getMethod(), mSpec.getUrl(), mSpec.getHeaders(), mSpec.getBody());
+                content = response.getContent();
+                if (content == null) throw new ParseError(new IOException("empty response body"));
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int read;
+                while (!isCancelled() && (read = content.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+                if (isCancelled()) return;
+                Object page = new JSONTokener(out.toString(charsetOf(response))).nextValue();
+                JSONArray items = mStrategy.itemsOf(page);
+                onPageLoaded(this, page, items, estimateRetainedSize(items));
+            } catch (VolleyError error) {
+                if (!isCancelled()) onPageFailed(this, error);
+            } catch (IOException e) {
+                // 取消時關閉串流也會造成IOException，此時不回報
+                if (!isCancelled()) onPageFailed(this, toVolleyError(e));
+            } catch (JSONException e) {
+                if (!isCancelled()) onPageFailed(this, new ParseError(e));
+            } finally {
+                closeQuietly(content);
+            }
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package studio.stc.lotusutil.util;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * RequestCoalescer by STC
+ * 將「同時進行中、網址與Header都相同」的GET請求合併成一次網路呼叫，回應再分送給每一個監聽器。
+ * 底層請求不使用Agent的標籤，因此某個Agent取消時只會移除自己的監聽器；
+ * 只有在所有監聽器都被取消之後，底層請求才會真的被取消。
+ * 設定了 {@link HedgePolicy} 時，同一組請求可能會額外送出避險請求，採用最先成功的回應。
+ * 注意：所有監聽器拿到的是同一個回應物件，請勿修改其內容。
+ */
+final class RequestCoalescer {
+    private static final String TAG = "RequestCoalescer";
+
+    // 底層請求專用的標籤，避免被Agent的cancelAll(tag)直接取消
+    private static final Object COALESCED_TAG = new Object();
+    private static final HashMap<String, InFlight<?>> sInFlight = new HashMap<>();
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
+    private RequestCoalescer() {
+    }
+
+    /**
+     * 建立底層請求。傳入的listener / errorListener會把結果分送給所有合併進來的監聽器。
+     */
+    interface RequestFactory<T> {
+        Request<T> create(Response.Listener<T> listener, Response.ErrorListener errorListener);
+    }
+
+    /**
+     * 產生合併用的key。Header以排序後的內容參與比對，快取策略也必須相同。
+     */
+    @NonNull
+    static String keyOf(int method, @NonNull String url, @Nullable Map<String, String> headers, @Nullable CachePolicy cachePolicy) {
+        StringBuilder builder = new StringBuilder().append(method).append(' ').append(url);
+        if (headers != null && !headers.isEmpty()) builder.append(' ').append(new TreeMap<>(headers));
+        // 快取策略不同時，回應的快取方式也不同，不能合併
+        if (cachePolicy != null) builder.append(' ').append(cachePolicy);
+        return builder.toString();
+    }
+
+    /**
+     * 若已有相同key的請求進行中，就只加入監聽器；否則以factory建立請求並送出。
+     *
+     * @param tag         監聽器所屬的標籤，供 {@link #cancelAll(Object)} 使用。
+     * @param hedgePolicy 避險請求設定(可以為null)。
+     * @param host        請求的host，用來統計延遲。
+     */
+    static <T> void execute(@NonNull RequestQueue queue, @NonNull String key, @NonNull Object tag,
+                            @NonNull InternetSourceAgent.ResponseListener<T> listener, @NonNull RequestFactory<T> factory,
+                            @Nullable HedgePolicy hedgePolicy, @NonNull String host) {
+        InFlight<T> inFlight;
+        synchronized (sInFlight) {
+            @SuppressWarnings("unchecked")
+            InFlight<T> existing = (InFlight<T>) sInFlight.get(key);
+            if (existing != null) {
+                existing.add(tag, listener);
+                Log.v(TAG, "execute: joined in-flight request " + key + " (" + existing.size() + " listeners)");
+                return;
+            }
+            inFlight = new InFlight<>(queue, key, host, factory);
+            inFlight.add(tag, listener);
+            sInFlight.put(key, inFlight);
+        }
+        inFlight.launch(false);
+        if (hedgePolicy != null) inFlight.scheduleHedge(hedgePolicy, 1);
+    }
+
+    /**
+     * 移除某標籤的所有監聽器。沒有任何監聽器的底層請求會被取消。
+     */
+    static void cancelAll(@NonNull Object tag) {
+        synchronized (sInFlight) {
+            Iterator<InFlight<?>> iterator = sInFlight.values().iterator();
+            while (iterator.hasNext()) {
+                InFlight<?> inFlight = iterator.next();
+                if (inFlight.removeTag(tag) && inFlight.size() == 0) {
+                    Log.v(TAG, "cancelAll: no listener left, cancelling " + inFlight.key);
+                    // 正在迭代sInFlight，只能由iterator移除
+                    for (Request<?> request : inFlight.markFinished()) request.cancel();
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * 一組合併的請求。可能同時有多個相同的底層請求(避險請求)，第一個成功的回應會被採用，其餘的會被取消；
+     * 全部失敗時才回報錯誤。
+     */
+    private static final class InFlight<T> {
+        final String key;
+        private final RequestQueue queue;
+        private final String host;
+        private final RequestFactory<T> factory;
+        private final List<Object> tags = new ArrayList<>();
+        private final List<InternetSourceAgent.ResponseListener<T>> listeners = new ArrayList<>();
+        private final List<Request<T>> requests = new ArrayList<>();
+        private int outstanding = 0;
+        private boolean finished = false;
+
+        InFlight(RequestQueue queue, String key, String host, RequestFactory<T> factory) {
+            this.queue = queue;
+            this.key = key;
+            this.host = host;
+            this.factory = factory;
+        }
+
+        void add(Object tag, InternetSourceAgent.ResponseListener<T> listener) {
+            tags.add(tag);
+            listeners.add(listener);
+        }
+
+        int size() {
+            return listeners.size();
+        }
+
+        /**
+         * 建立並送出一個底層請求。
+         *
+         * @param hedge 是否為避險請求。避險請求不使用快取：相同cache key的請求會被Volley的CacheDispatcher
+         *              排在原本的請求之後等待，根本不會連線。
+         */
+        void launch(boolean hedge) {
+            final long start = SystemClock.elapsedRealtime();
+            Request<T> request = factory.create(
+                    new Response.Listener<T>() {
+                        @Override
+                        public void onResponse(T response) {
+                            onSuccess(response, SystemClock.elapsedRealtime() - start);
+                        }
+                    },
+                    new Response.ErrorListener() {
+                        @Override
+                        public void onErrorResponse(VolleyError error) {
+                            onError(error);
+                        }
+                    });
+            request.setTag(COALESCED_TAG);
+            if (hedge) request.setShouldCache(false);
+            synchronized (sInFlight) {
+                if (finished) return;
+                requests.add(request);
+                outstanding++;
+            }
+            HostGuard.add(queue, request);
+        }
+
+        /**
+         * 經過該host的延遲百分位數後若仍未完成，再送出一個相同的請求。
+         */
+        void scheduleHedge(final HedgePolicy hedgePolicy, final int attempt) {
+            if (attempt > hedgePolicy.getMaxHedges()) return;
+            sMainHandler.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (sInFlight) {
+                        if (finished) return;
+                    }
+                    Log.v(TAG, "scheduleHedge: no response yet, sending hedged request #" + attempt + " for " + key);
+                    launch(true);
+                    scheduleHedge(hedgePolicy, attempt + 1);
+                }
+            }, hedgePolicy.delayFor(host));
+        }
+
+        private void onSuccess(T response, long latencyMs) {
+            List<InternetSourceAgent.ResponseListener<T>> targets;
+            synchronized (sInFlight) {
+                if (finished) return;
+                targets = new ArrayList<>(listeners);
+                // 其他仍在進行中的相同請求已經不需要了
+                for (Request<?> request : finishRequests()) request.cancel();
+            }
+            HedgePolicy.recordLatency(host, latencyMs);
+            for (InternetSourceAgent.ResponseListener<T> l : targets) {
+                l.OnResponseSuccess(response);
+            }
+        }
+
+        private void onError(VolleyError error) {
+            List<InternetSourceAgent.ResponseListener<T>> targets;
+            synchronized (sInFlight) {
+                outstanding--;
+                // 還有其他相同的請求在進行中時，等待它們的結果
+                if (finished || outstanding > 0) return;
+                targets = new ArrayList<>(listeners);
+                finishRequests();
+            }
+            for (InternetSourceAgent.ResponseListener<T> l : targets) {
+                l.OnResponseError(error);
+            }
+        }
+
+        /**
+         * 標記為結束並由進行中清單移除，之後加入的相同請求會重新送出。必須持有sInFlight的鎖。
+         *
+         * @return 目前所有的底層請求。
+         */
+        private List<Request<T>> finishRequests() {
+            if (sInFlight.get(key) == this) sInFlight.remove(key);
+            return markFinished();
+        }
+
+        /**
+         * 標記為結束，但不修改sInFlight(由呼叫者移除)。必須持有sInFlight的鎖。
+         *
+         * @return 目前所有的底層請求。
+         */
+        List<Request<T>> markFinished() {
+            finished = true;
+            List<Request<T>> copy = new ArrayList<>(requests);
+            requests.clear();
+            listeners.clear();
+            tags.clear();
+            return copy;
+        }
+
+        /**
+         * @return 是否有監聽器被移除。
+         */
+        boolean removeTag(Object tag) {
+            boolean removed = false;
+            for (int i = tags.size() - 1; i >= 0; i--) {
+                if (tags.get(i).equals(tag)) {
+                    tags.remove(i);
+                    listeners.remove(i);
+                    removed = true;
+                }
+            }
+            return removed;
+        }
+    }
+}
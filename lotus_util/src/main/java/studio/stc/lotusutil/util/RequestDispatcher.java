@@ -0,0 +1,272 @@
+package studio.stc.lotusutil.util;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.Network;
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+import com.android.volley.toolbox.BaseHttpStack;
+import com.android.volley.toolbox.BasicNetwork;
+import com.android.volley.toolbox.DiskBasedCache;
+import com.android.volley.toolbox.HttpResponse;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * RequestDispatcher by STC
+ * 所有 {@link InternetSourceAgent} 共用的單一RequestQueue。
+ * 第一次被使用時才會建立並啟動(cache thread與network thread pool)，之後的Agent只會拿到同一個Queue。
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class RequestDispatcher {
+    private static final String TAG = "RequestDispatcher";
+
+    private static final String DEFAULT_CACHE_DIR = "volley";
+    private static final int DEFAULT_DISK_CACHE_SIZE = 5 * 1024 * 1024;
+    private static final int DEFAULT_NETWORK_THREAD_POOL_SIZE = 4;
+
+    private static final int STREAM_THREAD_POOL_SIZE = 4;
+
+    private static volatile RequestQueue sRequestQueue;
+    private static volatile BaseHttpStack sHttpStack;
+    private static volatile ExecutorService sStreamExecutor;
+    private static final HashMap<Object, Set<StreamTask>> sStreamTasks = new HashMap<>();
+    private static int sNetworkThreadPoolSize = DEFAULT_NETWORK_THREAD_POOL_SIZE;
+    private static int sDiskCacheSize = DEFAULT_DISK_CACHE_SIZE;
+
+    private RequestDispatcher() {
+    }
+
+    /**
+     * 設定network worker的數量。必須在第一個請求送出之前呼叫，Queue啟動後再呼叫不會生效。
+     *
+     * @param threadPoolSize network thread的數量(至少為1)。
+     */
+    public static synchronized void setNetworkThreadPoolSize(int threadPoolSize) {
+        if (sRequestQueue != null) {
+            Log.w(TAG, "setNetworkThreadPoolSize: queue already started, new size " + threadPoolSize + " ignored.");
+            return;
+        }
+        sNetworkThreadPoolSize = Math.max(1, threadPoolSize);
+    }
+
+    /**
+     * 設定回應快取(disk cache)的大小上限。必須在第一個請求送出之前呼叫。
+     *
+     * @param maxCacheSizeInBytes 快取上限(bytes)。
+     */
+    public static synchronized void setDiskCacheSize(int maxCacheSizeInBytes) {
+        if (sRequestQueue != null) {
+            Log.w(TAG, "setDiskCacheSize: queue already started, new size " + maxCacheSizeInBytes + " ignored.");
+            return;
+        }
+        sDiskCacheSize = maxCacheSizeInBytes;
+    }
+
+    /**
+     * 更換傳輸層(HTTP stack)。必須在第一個請求送出之前呼叫，之後再呼叫不會生效。
+     * 預設為 {@link TunedHurlStack}；需要HTTP/2多工時，可以換成以OkHttp等支援HTTP/2的函式庫實作的BaseHttpStack。
+     * RequestQueue與 {@link StreamTask} 都會使用此stack，並自動加上 {@link RequestMetrics} 的統計與 {@link HostGuard} 的斷路器。
+     * 唯一的例外是串流上傳( {@link InternetSourceAgent#RequestUpload})：BaseHttpStack只能送出byte[]內容，
+     * 上傳一律使用系統的HttpURLConnection(統計與斷路器仍然有效)。
+     *
+     * @param httpStack 新的HTTP stack。
+     */
+    public static synchronized void setHttpStack(@NonNull BaseHttpStack httpStack) {
+        if (sHttpStack != null) {
+            Log.w(TAG, "setHttpStack: stack already in use, " + httpStack + " ignored.");
+            return;
+        }
+        sHttpStack = new RequestMetrics.InstrumentedHttpStack(new HostGuard.GuardedHttpStack(httpStack));
+    }
+
+    /**
+     * 預先連線到指定網址的host(在背景送出HEAD請求)，讓DNS查詢、TCP與TLS交握在第一個真正的請求之前完成。
+     * 連線結束後會留在keep-alive連線池中，之後對同一host的請求可以直接沿用。
+     * 適合在App啟動時，對之後第一個畫面會用到的API host呼叫。
+     *
+     * @param url 該host上任意可以HEAD的網址。
+     */
+    public static void preconnect(@NonNull final String url) {
+        getStreamExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.currentTimeMillis();
+                try {
+                    // 不經過統計，避免預先連線影響該endpoint的數據
+                    BaseHttpStack stack = ((RequestMetrics.InstrumentedHttpStack) getHttpStack()).getDelegate();
+                    HttpResponse response = stack.executeRequest(new StreamTask.Descriptor(Request.Method.HEAD, url, null, null),
+                            Collections.<String, String>emptyMap());
+                    drain(response.getContent());
+                    Log.v(TAG, "preconnect: connected to " + url + " in " + (System.currentTimeMillis() - start) + " ms");
+                } catch (IOException | AuthFailureError e) {
+                    Log.w(TAG, "preconnect: failed connecting to " + url, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * 讀完並關閉內容，連線才會回到連線池。
+     */
+    private static void drain(@Nullable InputStream content) throws IOException {
+        if (content == null) return;
+        try {
+            byte[] buffer = new byte[1024];
+            int read;
+            do {
+                read = content.read(buffer);
+            } while (read != -1);
+        } finally {
+            StreamTask.closeQuietly(content);
+        }
+    }
+
+    /**
+     * 取得共用的RequestQueue。第一次呼叫時才會建立並啟動。
+     *
+     * @param context 任意Context，只會使用其ApplicationContext。
+     * @return 共用的RequestQueue。
+     */
+    @NonNull
+    public static RequestQueue getRequestQueue(@NonNull Context context) {
+        RequestQueue queue = sRequestQueue;
+        if (queue == null) {
+            synchronized (RequestDispatcher.class) {
+                queue = sRequestQueue;
+                if (queue == null) {
+                    queue = createRequestQueue(context.getApplicationContext());
+                    sRequestQueue = queue;
+                }
+            }
+        }
+        return queue;
+    }
+
+    /**
+     * @return 已經啟動的共用RequestQueue；尚未啟動時為null。
+     */
+    @Nullable
+    static RequestQueue getStartedQueue() {
+        return sRequestQueue;
+    }
+
+    /**
+     * @return Queue是否已經啟動。
+     */
+    public static boolean isStarted() {
+        return sRequestQueue != null;
+    }
+
+    /**
+     * 取得共用的HTTP stack(已包裝 {@link RequestMetrics} 的統計)。
+     * 串流類的請求( {@link StreamTask} )不經過RequestQueue，直接使用此stack連線。
+     */
+    @NonNull
+    public static BaseHttpStack getHttpStack() {
+        BaseHttpStack stack = sHttpStack;
+        if (stack == null) {
+            synchronized (RequestDispatcher.class) {
+                stack = sHttpStack;
+                if (stack == null) {
+                    stack = new RequestMetrics.InstrumentedHttpStack(new HostGuard.GuardedHttpStack(new TunedHurlStack()));
+                    sHttpStack = stack;
+                }
+            }
+        }
+        return stack;
+    }
+
+    /**
+     * 送出串流請求。任務會在背景執行緒上執行，並以其標籤登記，供 {@link #cancelTasks(Object)} 取消。
+     */
+    public static void executeTask(@NonNull StreamTask task) {
+        Object tag = task.getTag();
+        if (tag != null) {
+            synchronized (sStreamTasks) {
+                Set<StreamTask> tasks = sStreamTasks.get(tag);
+                if (tasks == null) {
+                    tasks = new HashSet<>();
+                    sStreamTasks.put(tag, tasks);
+                }
+                tasks.add(task);
+            }
+        }
+        getStreamExecutor().execute(task);
+    }
+
+    /**
+     * 取消某標籤下所有尚未結束的串流請求。
+     */
+    public static void cancelTasks(@NonNull Object tag) {
+        Set<StreamTask> tasks;
+        synchronized (sStreamTasks) {
+            tasks = sStreamTasks.remove(tag);
+        }
+        if (tasks == null) return;
+        for (StreamTask task : tasks) {
+            task.cancel();
+        }
+    }
+
+    static void unregisterTask(@NonNull StreamTask task) {
+        Object tag = task.getTag();
+        if (tag == null) return;
+        synchronized (sStreamTasks) {
+            Set<StreamTask> tasks = sStreamTasks.get(tag);
+            if (tasks != null && tasks.remove(task) && tasks.isEmpty()) sStreamTasks.remove(tag);
+        }
+    }
+
+    private static ExecutorService getStreamExecutor() {
+        ExecutorService executor = sStreamExecutor;
+        if (executor == null) {
+            synchronized (RequestDispatcher.class) {
+                executor = sStreamExecutor;
+                if (executor == null) {
+                    ThreadPoolExecutor pool = new ThreadPoolExecutor(STREAM_THREAD_POOL_SIZE, STREAM_THREAD_POOL_SIZE,
+                            30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        private final AtomicInteger count = new AtomicInteger();
+
+                        @Override
+                        public Thread newThread(@NonNull Runnable runnable) {
+                            return new Thread(runnable, "RequestDispatcher-stream-" + count.getAndIncrement());
+                        }
+                    });
+                    pool.allowCoreThreadTimeOut(true);
+                    executor = pool;
+                    sStreamExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    private static RequestQueue createRequestQueue(Context appContext) {
+        Log.i(TAG, "createRequestQueue: starting shared queue with " + sNetworkThreadPoolSize + " network threads.");
+        File cacheDir = new File(appContext.getCacheDir(), DEFAULT_CACHE_DIR);
+        Network network = new RequestMetrics.InstrumentedNetwork(new HostGuard.GuardedNetwork(new BasicNetwork(getHttpStack())));
+        RequestQueue queue = new RequestQueue(new DiskBasedCache(cacheDir, sDiskCacheSize), network, sNetworkThreadPoolSize,
+                DeliveryRouter.getInstance());
+        queue.addRequestEventListener(RequestMetrics.EVENT_LISTENER);
+        queue.start();
+        return queue;
+    }
+}
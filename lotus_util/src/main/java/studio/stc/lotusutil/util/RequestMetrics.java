@@ -0,0 +1,328 @@
+package studio.stc.lotusutil.util;
+
+import android.net.Uri;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.Network;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.BaseHttpStack;
+import com.android.volley.toolbox.HttpResponse;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * RequestMetrics by STC
+ * 每個請求的時間與大小統計，依endpoint(host + path，不含query)分別累積在無鎖的 {@link Histogram} 中：
+ * <ul>
+ * <li>queueWait：加入Queue到network thread開始處理的時間。</li>
+ * <li>timeToFirstByte：送出請求到收到回應Header的時間(含連線)。</li>
+ * <li>networkTime：整個網路階段的時間(含重試與讀取內容)。</li>
+ * <li>parseTime：網路階段結束後，解析回應(含寫入回應快取)的時間。</li>
+ * <li>bytesIn / bytesOut：回應與請求內容的大小。bytesOut只紀錄內容預先編碼好的請求(RequestSpec與StreamTask)，
+ * 其他請求的getBody()每次呼叫都會重新編碼，因此不紀錄。</li>
+ * </ul>
+ * 時間的單位是微秒(us)。可以用 {@link #getAll()} 在程式中查詢，或用 {@link #dumpToLog()} 輸出。
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class RequestMetrics {
+    private static final String TAG = "RequestMetrics";
+
+    private static volatile boolean sEnabled = true;
+    private static final ConcurrentHashMap<String, EndpointStats> sStats = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<Request<?>, Timing> sTimings = new ConcurrentHashMap<>();
+
+    private RequestMetrics() {
+    }
+
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+        if (!enabled) sTimings.clear();
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * @param endpoint 由 {@link #endpointOf(String)} 產生的endpoint。
+     * @return 該endpoint的統計；尚無資料時為null。
+     */
+    @Nullable
+    public static EndpointStats get(@NonNull String endpoint) {
+        return sStats.get(endpoint);
+    }
+
+    /**
+     * @return 所有endpoint的統計(依endpoint排序)。
+     */
+    @NonNull
+    public static Map<String, EndpointStats> getAll() {
+        return Collections.unmodifiableMap(new TreeMap<>(sStats));
+    }
+
+    /**
+     * @return 所有endpoint統計的文字報表。
+     */
+    @NonNull
+    public static String dump() {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, EndpointStats> entry : getAll().entrySet()) {
+            builder.append(entry.getKey()).append('\n').append(entry.getValue()).append('\n');
+        }
+        return builder.toString();
+    }
+
+    public static void dumpToLog() {
+        for (Map.Entry<String, EndpointStats> entry : getAll().entrySet()) {
+            Log.i(TAG, entry.getKey() + "\n" + entry.getValue());
+        }
+    }
+
+    public static void reset() {
+        sStats.clear();
+    }
+
+    /**
+     * @return 網址的endpoint：host + path，不含scheme與query。
+     */
+    @NonNull
+    public static String endpointOf(@NonNull String url) {
+        Uri uri = Uri.parse(url);
+        String host = uri.getHost();
+        String path = uri.getPath();
+        return (host == null ? "" : host) + (path == null ? "" : path);
+    }
+
+    @NonNull
+    static EndpointStats statsOf(@NonNull Request<?> request) {
+        String endpoint = endpointOf(request.getUrl());
+        EndpointStats stats = sStats.get(endpoint);
+        if (stats == null) {
+            EndpointStats created = new EndpointStats();
+            stats = sStats.putIfAbsent(endpoint, created);
+            if (stats == null) stats = created;
+        }
+        return stats;
+    }
+
+    private static long nowUs() {
+        return System.nanoTime() / 1000;
+    }
+
+    /**
+     * 接收RequestQueue的事件，計算queueWait與parseTime。
+     */
+    static final RequestQueue.RequestEventListener EVENT_LISTENER = new RequestQueue.RequestEventListener() {
+        @Override
+        public void onRequestEvent(Request<?> request, int event) {
+            if (!sEnabled) return;
+            switch (event) {
+                case RequestQueue.RequestEvent.REQUEST_QUEUED:
+                    Timing timing = new Timing();
+                    timing.queuedAtUs = nowUs();
+                    sTimings.put(request, timing);
+                    break;
+                case RequestQueue.RequestEvent.REQUEST_NETWORK_DISPATCH_STARTED:
+                    Timing started = sTimings.get(request);
+                    if (started != null) statsOf(request).queueWait.record(nowUs() - started.queuedAtUs);
+                    break;
+                case RequestQueue.RequestEvent.REQUEST_NETWORK_DISPATCH_FINISHED:
+                    Timing finished = sTimings.get(request);
+                    if (finished != null && finished.networkEndedAtUs > 0)
+                        statsOf(request).parseTime.record(nowUs() - finished.networkEndedAtUs);
+                    break;
+                case RequestQueue.RequestEvent.REQUEST_FINISHED:
+                    sTimings.remove(request);
+                    break;
+                default:
+                    break;
+            }
+        }
+    };
+
+    /**
+     * 單一endpoint的統計。
+     */
+    public static final class EndpointStats {
+        public final Histogram queueWait = new Histogram("us");
+        public final Histogram timeToFirstByte = new Histogram("us");
+        public final Histogram networkTime = new Histogram("us");
+        public final Histogram parseTime = new Histogram("us");
+        public final Histogram bytesIn = new Histogram("bytes");
+        public final Histogram bytesOut = new Histogram("bytes");
+        public final AtomicLong errorCount = new AtomicLong();
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "  queueWait       " + queueWait + "\n"
+                    + "  timeToFirstByte " + timeToFirstByte + "\n"
+                    + "  networkTime     " + networkTime + "\n"
+                    + "  parseTime       " + parseTime + "\n"
+                    + "  bytesIn         " + bytesIn + "\n"
+                    + "  bytesOut        " + bytesOut + "\n"
+                    + "  errors          " + errorCount.get();
+        }
+    }
+
+    private static final class Timing {
+        volatile long queuedAtUs;
+        volatile long networkEndedAtUs;
+    }
+
+    /**
+     * 紀錄timeToFirstByte與bytesOut的HTTP stack包裝。RequestQueue與 {@link StreamTask} 都經過這裡。
+     */
+    static final class InstrumentedHttpStack extends BaseHttpStack {
+        private final BaseHttpStack mDelegate;
+
+        InstrumentedHttpStack(@NonNull BaseHttpStack delegate) {
+            mDelegate = delegate;
+        }
+
+        @NonNull
+        BaseHttpStack getDelegate() {
+            return mDelegate;
+        }
+
+        @Override
+        public HttpResponse executeRequest(Request<?> request, Map<String, String> additionalHeaders) throws IOException, AuthFailureError {
+            if (!sEnabled) return mDelegate.executeRequest(request, additionalHeaders);
+            long start = nowUs();
+            HttpResponse response = mDelegate.executeRequest(request, additionalHeaders);
+            // executeRequest在收到回應Header後就會返回，內容尚未讀取
+            EndpointStats stats = statsOf(request);
+            stats.timeToFirstByte.record(nowUs() - start);
+            int bodySize = encodedBodySizeOf(request);
+            if (bodySize >= 0) stats.bytesOut.record(bodySize);
+            return response;
+        }
+    }
+
+    /**
+     * @return 已送出的請求內容大小；內容不是預先編碼好的請求回傳-1(再呼叫getBody()會重新編碼一次)。
+     */
+    private static int encodedBodySizeOf(Request<?> request) {
+        byte[] body;
+        if (request instanceof SpecRequest) body = ((SpecRequest<?>) request).getSpec().getBody();
+        else if (request instanceof StreamTask.Descriptor) body = ((StreamTask.Descriptor) request).getEncodedBody();
+        else return -1;
+        return body == null ? 0 : body.length;
+    }
+
+    /**
+     * 紀錄不經過HTTP stack的請求(串流上傳)的timeToFirstByte與bytesOut。
+     *
+     * @param timeToFirstByteUs 開始連線到收到回應Header的時間(含上傳內容)。
+     */
+    static void recordExchange(@NonNull Request<?> request, long timeToFirstByteUs, long bytesOut) {
+        if (!sEnabled) return;
+        EndpointStats stats = statsOf(request);
+        stats.timeToFirstByte.record(timeToFirstByteUs);
+        stats.bytesOut.record(bytesOut);
+    }
+
+    /**
+     * 包裝不經過RequestQueue的回應內容(StreamTask)，讀取結束或關閉時紀錄bytesIn。
+     */
+    @NonNull
+    static InputStream countBytesIn(@NonNull Request<?> request, @NonNull InputStream content) {
+        if (!sEnabled) return content;
+        return new CountingInputStream(content, statsOf(request));
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        private final EndpointStats mStats;
+        private long mCount = 0;
+        private boolean mRecorded = false;
+
+        CountingInputStream(InputStream in, EndpointStats stats) {
+            super(in);
+            mStats = stats;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b == -1) record();
+            else mCount++;
+            return b;
+        }
+
+        @Override
+        public int read(@NonNull byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read == -1) record();
+            else mCount += read;
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            mCount += skipped;
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            record();
+            super.close();
+        }
+
+        private synchronized void record() {
+            if (mRecorded) return;
+            mRecorded = true;
+            mStats.bytesIn.record(mCount);
+        }
+    }
+
+    /**
+     * 紀錄networkTime與bytesIn的Network包裝。
+     */
+    static final class InstrumentedNetwork implements Network {
+        private final Network mDelegate;
+
+        InstrumentedNetwork(@NonNull Network delegate) {
+            mDelegate = delegate;
+        }
+
+        @Override
+        public NetworkResponse performRequest(Request<?> request) throws VolleyError {
+            if (!sEnabled) return mDelegate.performRequest(request);
+            long start = nowUs();
+            try {
+                NetworkResponse response = mDelegate.performRequest(request);
+                long end = nowUs();
+                EndpointStats stats = statsOf(request);
+                stats.networkTime.record(end - start);
+                stats.bytesIn.record(response.data == null ? 0 : response.data.length);
+                Timing timing = sTimings.get(request);
+                if (timing != null) timing.networkEndedAtUs = end;
+                return response;
+            } catch (VolleyError error) {
+                statsOf(request).errorCount.incrementAndGet();
+                throw error;
+            }
+        }
+    }
+}
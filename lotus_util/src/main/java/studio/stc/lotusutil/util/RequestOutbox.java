@@ -0,0 +1,591 @@
+package studio.stc.lotusutil.util;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
+import android.util.Base64;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.android.volley.NetworkError;
+import com.android.volley.NetworkResponse;
+import com.android.volley.NoConnectionError;
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+import com.android.volley.Response;
+import com.android.volley.TimeoutError;
+import com.android.volley.VolleyError;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * RequestOutbox by STC
+ * 離線時暫存POST/PATCH等修改型請求的持久化外寄匣。
+ * 內容以append-only的log保存在檔案中(每行一筆ADD或DONE)，程序重啟後依然存在；DONE累積過多時才重寫log。
+ * 對同一網址、尚未送出的連續PATCH(中間沒有其他對該網址的請求)會合併成一筆(JSON內容以較新的欄位覆蓋)，避免重送已被取代的修改。
+ * 網路恢復時(需要ACCESS_NETWORK_STATE權限)會依照加入順序，以批次與有限的同時連線數重送；
+ * 同一網址的請求一次只會送出一筆，因此順序不會改變。
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class RequestOutbox {
+    private static final String TAG = "RequestOutbox";
+
+    private static final String OUTBOX_DIR = "lotus_outbox";
+    private static final String LOG_FILE = "outbox.log";
+    private static final String LOG_FILE_TEMP = "outbox.log.tmp";
+    private static final String OP_ADD = "ADD";
+    private static final String OP_DONE = "DONE";
+    private static final int REDUNDANT_LINE_COMPACT_THRESHOLD = 64;
+    private static final int DEFAULT_BATCH_SIZE = 8;
+    private static final int DEFAULT_MAX_CONCURRENT = 2;
+    private static final Object REPLAY_TAG = new Object();
+
+    private static volatile RequestOutbox sInstance;
+
+    private final Context mContext;
+    @Nullable
+    private final RequestQueue mQueue; // null時使用共用的RequestQueue
+    private final File mLogFile;
+    private final File mTempFile;
+    // 所有狀態只在mExecutor(單一執行緒)上存取
+    private final ExecutorService mExecutor;
+    private final LinkedHashMap<Long, Entry> mPending = new LinkedHashMap<>();
+    private final Set<String> mInFlightUrls = new HashSet<>();
+    private final List<OutboxListener> mListeners = new ArrayList<>();
+    private FileOutputStream mLogStream;
+    private long mNextId;
+    private int mRedundantLines = 0;
+    private int mBatchSize = DEFAULT_BATCH_SIZE;
+    private int mMaxConcurrent = DEFAULT_MAX_CONCURRENT;
+    private int mInFlight = 0;
+    private int mBatchRemaining = 0;
+    private boolean mReplaying = false;
+
+    /**
+     * @param directory 存放log的資料夾。
+     */
+    RequestOutbox(@NonNull Context appContext, @NonNull File directory) {
+        this(appContext, directory, null);
+    }
+
+    /**
+     * @param queue 重送使用的RequestQueue；null時使用 {@link RequestDispatcher#getRequestQueue(Context)}。
+     */
+    RequestOutbox(@NonNull Context appContext, @NonNull File directory, @Nullable RequestQueue queue) {
+        mContext = appContext;
+        mQueue = queue;
+        if (!directory.exists() && !directory.mkdirs()) Log.e(TAG, "cannot create outbox directory " + directory);
+        mLogFile = new File(directory, LOG_FILE);
+        mTempFile = new File(directory, LOG_FILE_TEMP);
+        mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable runnable) {
+                Thread thread = new Thread(runnable, "RequestOutbox");
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                return thread;
+            }
+        });
+        // 以時間做為編號的起點，即使log尚未讀取完成，新的編號也不會與先前程序留下的重複
+        mNextId = System.currentTimeMillis();
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                load();
+            }
+        });
+        registerNetworkCallback();
+    }
+
+    /**
+     * 取得共用的外寄匣。第一次取得時會在背景讀取log，並開始監聽網路狀態。
+     *
+     * @param context 任意Context，只會使用其ApplicationContext。
+     */
+    @NonNull
+    public static RequestOutbox getInstance(@NonNull Context context) {
+        RequestOutbox instance = sInstance;
+        if (instance == null) {
+            synchronized (RequestOutbox.class) {
+                instance = sInstance;
+                if (instance == null) {
+                    Context appContext = context.getApplicationContext();
+                    instance = new RequestOutbox(appContext, new File(appContext.getFilesDir(), OUTBOX_DIR));
+                    sInstance = instance;
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * 設定重送的方式。
+     *
+     * @param batchSize     每一輪最多重送的筆數。
+     * @param maxConcurrent 同時進行的請求數上限。
+     */
+    public void setReplayLimits(final int batchSize, final int maxConcurrent) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mBatchSize = Math.max(1, batchSize);
+                mMaxConcurrent = Math.max(1, maxConcurrent);
+            }
+        });
+    }
+
+    public void addListener(@NonNull final OutboxListener listener) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mListeners.add(listener);
+            }
+        });
+    }
+
+    public void removeListener(@NonNull final OutboxListener listener) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mListeners.remove(listener);
+            }
+        });
+    }
+
+    /**
+     * 加入一筆請求。GET請求不會被保存。
+     *
+     * @return 此筆在外寄匣中的編號；若被合併進既有的PATCH，則是合併後的新編號。
+     */
+    public long enqueue(@NonNull final RequestSpec spec) {
+        if (spec.getMethod() == Request.Method.GET) throw new IllegalArgumentException("GET requests are not queued");
+        final long id;
+        synchronized (this) {
+            id = mNextId++;
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                add(new Entry(id, spec));
+            }
+        });
+        return id;
+    }
+
+    /**
+     * 立即開始重送(通常不需要呼叫，網路恢復時會自動重送)。
+     */
+    public void replay() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                startReplay();
+            }
+        });
+    }
+
+    /**
+     * 在背景取得目前尚未送出的筆數，結果在背景執行緒上回呼。
+     */
+    public void getPendingCount(@NonNull final CountCallback callback) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                callback.OnCount(mPending.size());
+            }
+        });
+    }
+
+    // ---- 以下只在mExecutor上執行 ----
+
+    private void load() {
+        if (mLogFile.exists()) {
+            BufferedReader reader = null;
+            try {
+                reader = new BufferedReader(new InputStreamReader(new FileInputStream(mLogFile), StandardCharsets.UTF_8));
+                String line;
+                int lines = 0;
+                while ((line = reader.readLine()) != null) {
+                    lines++;
+                    try {
+                        readLine(line);
+                    } catch (JSONException | IllegalArgumentException e) {
+                        // 寫到一半被中斷的最後一行
+                        Log.w(TAG, "load: skipping corrupt line " + lines, e);
+                    }
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "load: failed reading " + mLogFile, e);
+            } finally {
+                StreamTask.closeQuietly(reader);
+            }
+        }
+        long maxId = 0;
+        for (long id : mPending.keySet()) maxId = Math.max(maxId, id);
+        synchronized (this) {
+            mNextId = Math.max(mNextId, maxId + 1);
+        }
+        // 開啟時重寫一次，去掉已完成的項目與殘缺的行
+        rewriteLog();
+        Log.i(TAG, "load: " + mPending.size() + " pending requests");
+    }
+
+    private void readLine(String line) throws JSONException {
+        int space = line.indexOf(' ');
+        String op = space < 0 ? line : line.substring(0, space);
+        if (OP_ADD.equals(op)) {
+            Entry entry = Entry.fromJson(new JSONObject(line.substring(space + 1)));
+            mPending.put(entry.id, entry);
+        } else if (OP_DONE.equals(op)) {
+            mPending.remove(Long.parseLong(line.substring(space + 1).trim()));
+        } else {
+            throw new IllegalArgumentException("unknown op " + op);
+        }
+    }
+
+    private void add(Entry entry) {
+        if (entry.spec.getMethod() == Request.Method.PATCH) {
+            // 只與同一網址的最後一筆合併：中間還有其他請求(例如PUT/DELETE)時，合併會改變送出的順序
+            Entry last = null;
+            for (Entry pending : mPending.values()) {
+                if (pending.spec.getUrl().equals(entry.spec.getUrl())) last = pending;
+            }
+            Entry superseded = last != null && last.spec.getMethod() == Request.Method.PATCH && !last.inFlight ? last : null;
+            if (superseded != null) {
+                Log.v(TAG, "add: merging PATCH " + superseded.id + " into " + entry.id + " for " + entry.spec.getUrl());
+                entry = new Entry(entry.id, mergePatch(superseded.spec, entry.spec));
+                // 先寫入合併後的ADD再寫DONE：兩者之間中斷時，重啟後兩筆都會重送，
+                // 合併後的內容已包含舊的欄位，因此無害；反過來則會兩筆都遺失
+                if (!appendAdd(entry)) return;
+                mPending.remove(superseded.id);
+                mPending.put(entry.id, entry);
+                appendLog(OP_DONE + ' ' + superseded.id);
+                return;
+            }
+        }
+        mPending.put(entry.id, entry);
+        appendAdd(entry);
+    }
+
+    /**
+     * @return 是否成功轉換成log的內容。
+     */
+    private boolean appendAdd(Entry entry) {
+        try {
+            appendLog(OP_ADD + ' ' + entry.toJson());
+            return true;
+        } catch (JSONException e) {
+            Log.e(TAG, "add: cannot serialize request " + entry.spec, e);
+            return false;
+        }
+    }
+
+    /**
+     * 合併兩個對同一資源的PATCH：Header與JSON欄位都以較新的為準。內容不是JSON物件時，直接以較新的取代。
+     */
+    private static RequestSpec mergePatch(RequestSpec older, RequestSpec newer) {
+        RequestSpec.Builder builder = new RequestSpec.Builder(Request.Method.PATCH, newer.getUrl());
+        builder.headers(older.getHeaders()).headers(newer.getHeaders());
+        JSONObject olderBody = jsonBodyOf(older);
+        JSONObject newerBody = jsonBodyOf(newer);
+        if (olderBody != null && newerBody != null) {
+            try {
+                Iterator<String> keys = newerBody.keys();
+                while (keys.hasNext()) {
+                    String key = keys.next();
+                    olderBody.put(key, newerBody.get(key));
+                }
+                return builder.body(olderBody).build();
+            } catch (JSONException e) {
+                Log.w(TAG, "mergePatch: cannot merge bodies, keeping the newer one", e);
+            }
+        }
+        if (newer.getBody() != null) builder.body(newer.getBody(), newer.getBodyContentType());
+        return builder.build();
+    }
+
+    @Nullable
+    private static JSONObject jsonBodyOf(RequestSpec spec) {
+        byte[] body = spec.getBody();
+        String contentType = spec.getBodyContentType();
+        if (body == null || contentType == null || !contentType.startsWith("application/json")) return null;
+        try {
+            return new JSONObject(new String(body, StandardCharsets.UTF_8));
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+
+    private void startReplay() {
+        if (mReplaying || mPending.isEmpty()) return;
+        Log.i(TAG, "startReplay: replaying up to " + mBatchSize + " of " + mPending.size() + " pending requests");
+        mReplaying = true;
+        mBatchRemaining = mBatchSize;
+        sendNext();
+    }
+
+    private void sendNext() {
+        if (!mReplaying) return;
+        for (Entry entry : mPending.values()) {
+            if (mInFlight >= mMaxConcurrent || mBatchRemaining <= 0) break;
+            if (entry.inFlight || mInFlightUrls.contains(entry.spec.getUrl())) continue;
+            send(entry);
+        }
+        if (mInFlight == 0) {
+            mReplaying = false;
+            // 一批結束後若還有剩餘，繼續下一批
+            if (mBatchRemaining <= 0 && !mPending.isEmpty()) startReplay();
+        }
+    }
+
+    private void send(final Entry entry) {
+        entry.inFlight = true;
+        mInFlight++;
+        mBatchRemaining--;
+        mInFlightUrls.add(entry.spec.getUrl());
+        SpecRequest<String> request = new SpecRequest<>(entry.spec, STRING_PARSER, null,
+                new Response.Listener<String>() {
+                    @Override
+                    public void onResponse(final String response) {
+                        mExecutor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                onSent(entry, response, null);
+                            }
+                        });
+                    }
+                },
+                new Response.ErrorListener() {
+                    @Override
+                    public void onErrorResponse(final VolleyError error) {
+                        mExecutor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                onSent(entry, null, error);
+                            }
+                        });
+                    }
+                });
+        request.setTag(REPLAY_TAG);
+        request.setShouldCache(false);
+        HostGuard.add(mQueue == null ? RequestDispatcher.getRequestQueue(mContext) : mQueue, request);
+    }
+
+    private void onSent(Entry entry, @Nullable String response, @Nullable VolleyError error) {
+        entry.inFlight = false;
+        mInFlight--;
+        mInFlightUrls.remove(entry.spec.getUrl());
+        if (error == null) {
+            complete(entry);
+            for (OutboxListener listener : mListeners) listener.OnReplaySuccess(entry.id, response);
+        } else if (isTemporary(error) || isOfflineError(error, entry.spec.getMethod())) {
+            // 網路又中斷、斷路中或伺服器暫時無法處理：保留，結束這一輪，等下一次網路恢復
+            Log.i(TAG, "onSent: request " + entry.id + " failed, will retry later", error);
+            mReplaying = false;
+            mBatchRemaining = 0;
+        } else if (error.networkResponse != null) {
+            // 伺服器拒絕此請求(4xx)，重送也不會成功
+            Log.w(TAG, "onSent: dropping request " + entry.id + " rejected by server", error);
+            complete(entry);
+            for (OutboxListener listener : mListeners) listener.OnReplayDropped(entry.id, error);
+        } else {
+            // 請求可能已經送達伺服器，不是冪等的請求不能再送一次
+            Log.w(TAG, "onSent: dropping request " + entry.id + ", it may have reached the server", error);
+            complete(entry);
+            for (OutboxListener listener : mListeners) listener.OnReplayDropped(entry.id, error);
+        }
+        sendNext();
+    }
+
+    /**
+     * 錯誤是否是因為沒有網路，適合放入外寄匣稍後重送。
+     * 連線逾時或連線中斷時，請求可能已經送達伺服器，只有冪等的PUT/DELETE才能重送；
+     * POST/PATCH只有在確定還沒建立連線(找不到host、無法連線)時才算。
+     *
+     * @param method 請求的 {@link Request.Method}。
+     */
+    public static boolean isOfflineError(@NonNull VolleyError error, int method) {
+        if (error.networkResponse != null) return false;
+        if (error instanceof NoConnectionError) {
+            Throwable cause = error.getCause();
+            if (cause instanceof UnknownHostException || cause instanceof ConnectException) return true;
+        }
+        if (!(error instanceof NetworkError || error instanceof TimeoutError)) return false;
+        return method == Request.Method.PUT || method == Request.Method.DELETE;
+    }
+
+    /**
+     * 錯誤是否只是暫時的、重送可能會成功：斷路中(請求沒有送出)，或伺服器回應408、429、5xx。
+     */
+    static boolean isTemporary(@NonNull VolleyError error) {
+        if (error instanceof HostGuard.CircuitOpenError) return true;
+        NetworkResponse response = error.networkResponse;
+        if (response == null) return false;
+        int status = response.statusCode;
+        return status == 408 || status == 429 || status >= 500;
+    }
+
+    private void complete(Entry entry) {
+        mPending.remove(entry.id);
+        appendLog(OP_DONE + ' ' + entry.id);
+        if (mRedundantLines >= REDUNDANT_LINE_COMPACT_THRESHOLD && mRedundantLines >= mPending.size()) rewriteLog();
+    }
+
+    private void appendLog(String line) {
+        try {
+            if (mLogStream == null) mLogStream = new FileOutputStream(mLogFile, true);
+            mLogStream.write((line + '\n').getBytes(StandardCharsets.UTF_8));
+            mLogStream.getFD().sync();
+            if (line.startsWith(OP_DONE)) mRedundantLines += 2; // DONE本身與對應的ADD
+        } catch (IOException e) {
+            Log.e(TAG, "appendLog: failed writing " + mLogFile, e);
+        }
+    }
+
+    /**
+     * 只保留尚未送出的請求，重寫log。先寫入暫存檔再改名，中途中斷不會遺失資料。
+     */
+    private void rewriteLog() {
+        StreamTask.closeQuietly(mLogStream);
+        mLogStream = null;
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(mTempFile);
+            for (Entry entry : mPending.values()) {
+                out.write((OP_ADD + ' ' + entry.toJson() + '\n').getBytes(StandardCharsets.UTF_8));
+            }
+            out.getFD().sync();
+            out.close();
+            out = null;
+            if (!mTempFile.renameTo(mLogFile)) throw new IOException("cannot replace " + mLogFile);
+            mRedundantLines = 0;
+        } catch (IOException | JSONException e) {
+            Log.e(TAG, "rewriteLog: failed compacting " + mLogFile + ", keeping the old log", e);
+            StreamTask.closeQuietly(out);
+        }
+    }
+
+    private void registerNetworkCallback() {
+        ConnectivityManager connectivityManager = (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (connectivityManager == null) return;
+        NetworkRequest request = new NetworkRequest.Builder().addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET).build();
+        try {
+            connectivityManager.registerNetworkCallback(request, new ConnectivityManager.NetworkCallback() {
+                @Override
+                public void onAvailable(@NonNull Network network) {
+                    replay();
+                }
+            });
+        } catch (SecurityException e) {
+            Log.e(TAG, "registerNetworkCallback: ACCESS_NETWORK_STATE permission missing, call replay() manually.", e);
+        }
+    }
+
+    private static final CachePolicy.BodyParser<String> STRING_PARSER = new CachePolicy.BodyParser<String>() {
+        @Override
+        public String parse(String body) {
+            return body;
+        }
+    };
+
+    /**
+     * 重送結果的監聽器。回呼在背景執行緒上。
+     */
+    public interface OutboxListener {
+        void OnReplaySuccess(long id, String response);
+
+        /**
+         * 伺服器以4xx(408、429除外)拒絕了此請求，或是不能重送的請求(POST/PATCH)在可能已送達時失敗，已由外寄匣移除。
+         * 408、429、5xx與斷路中的請求會保留到下一次重送。
+         */
+        void OnReplayDropped(long id, VolleyError error);
+    }
+
+    /**
+     * 修改型請求因為離線而失敗、已加入外寄匣時，Agent回報的錯誤。原本的錯誤可由getCause()取得。
+     */
+    public static final class QueuedError extends VolleyError {
+        private final long mEntryId;
+
+        QueuedError(long entryId, @NonNull VolleyError cause) {
+            super(cause);
+            mEntryId = entryId;
+        }
+
+        /**
+         * @return 此請求在外寄匣中的編號，與 {@link OutboxListener} 的id相同。
+         */
+        public long getEntryId() {
+            return mEntryId;
+        }
+    }
+
+    public interface CountCallback {
+        void OnCount(int pendingCount);
+    }
+
+    private static final class Entry {
+        final long id;
+        final RequestSpec spec;
+        boolean inFlight = false;
+
+        Entry(long id, RequestSpec spec) {
+            this.id = id;
+            this.spec = spec;
+        }
+
+        String toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("id", id);
+            json.put("method", spec.getMethod());
+            json.put("url", spec.getUrl());
+            json.put("headers", new JSONObject(spec.getHeaders()));
+            if (spec.getBody() != null) {
+                json.put("body", Base64.encodeToString(spec.getBody(), Base64.NO_WRAP));
+                json.put("type", spec.getBodyContentType());
+            }
+            return json.toString();
+        }
+
+        static Entry fromJson(JSONObject json) throws JSONException {
+            RequestSpec.Builder builder = new RequestSpec.Builder(json.getInt("method"), json.getString("url"));
+            JSONObject headers = json.optJSONObject("headers");
+            if (headers != null) {
+                Map<String, String> map = new HashMap<>();
+                Iterator<String> keys = headers.keys();
+                while (keys.hasNext()) {
+                    String key = keys.next();
+                    map.put(key, headers.getString(key));
+                }
+                builder.headers(map);
+            }
+            if (json.has("body")) builder.body(Base64.decode(json.getString("body"), Base64.NO_WRAP), json.getString("type"));
+            return new Entry(json.getLong("id"), builder.build());
+        }
+    }
+}
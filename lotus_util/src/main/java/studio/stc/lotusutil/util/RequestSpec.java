@@ -0,0 +1,211 @@
+package studio.stc.lotusutil.util;
+
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.android.volley.Request;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * RequestSpec by STC
+ * 不可變的請求描述：方法、網址(含query)、Header與內容彼此分開，並在 {@link Builder#build()} 時一次計算完成。
+ * Header只轉換一次、內容只編碼一次成bytes，同一個RequestSpec可以在重試與重複呼叫之間共用，不會再有額外的配置。
+ * 例如：
+ * <pre>
+ * RequestSpec spec = RequestSpec.patch("https://example.com/users/1")
+ *         .header("Authorization", token)
+ *         .query("fields", "name")
+ *         .body(patchObject)
+ *         .build();
+ * agent.RequestSingleData(spec, listener, null);
+ * </pre>
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class RequestSpec {
+    public static final String CONTENT_TYPE_JSON = "application/json; charset=utf-8";
+
+    private final int mMethod;
+    private final String mUrl;
+    private final Map<String, String> mHeaders;
+    private final Map<String, String> mQueryParameters;
+    @Nullable
+    private final byte[] mBody;
+    @Nullable
+    private final String mBodyContentType;
+
+    private RequestSpec(Builder builder) {
+        mMethod = builder.mMethod;
+        mQueryParameters = Collections.unmodifiableMap(new LinkedHashMap<>(builder.mQueryParameters));
+        mUrl = urlOf(builder.mUrl, mQueryParameters);
+        mHeaders = Collections.unmodifiableMap(new LinkedHashMap<>(builder.mHeaders));
+        mBody = builder.mBody;
+        mBodyContentType = builder.mBodyContentType;
+    }
+
+    @NonNull
+    public static Builder get(@NonNull String url) {
+        return new Builder(Request.Method.GET, url);
+    }
+
+    @NonNull
+    public static Builder post(@NonNull String url) {
+        return new Builder(Request.Method.POST, url);
+    }
+
+    @NonNull
+    public static Builder patch(@NonNull String url) {
+        return new Builder(Request.Method.PATCH, url);
+    }
+
+    /**
+     * @return Volley的 {@link Request.Method} 常數。
+     */
+    public int getMethod() {
+        return mMethod;
+    }
+
+    /**
+     * @return 已加上query參數的完整網址。
+     */
+    @NonNull
+    public String getUrl() {
+        return mUrl;
+    }
+
+    /**
+     * @return 不可修改的Header。
+     */
+    @NonNull
+    public Map<String, String> getHeaders() {
+        return mHeaders;
+    }
+
+    /**
+     * @return 不可修改的query參數(已包含在 {@link #getUrl()} 中)。
+     */
+    @NonNull
+    public Map<String, String> getQueryParameters() {
+        return mQueryParameters;
+    }
+
+    /**
+     * @return 已編碼的內容；沒有內容時為null。為了避免複製，回傳的是內部陣列，請勿修改。
+     */
+    @Nullable
+    public byte[] getBody() {
+        return mBody;
+    }
+
+    @Nullable
+    public String getBodyContentType() {
+        return mBodyContentType;
+    }
+
+    /**
+     * @return 以此RequestSpec為基礎的Builder，用來建立只有少數差異的新RequestSpec。
+     */
+    @NonNull
+    public Builder newBuilder() {
+        Builder builder = new Builder(mMethod, mUrl);
+        builder.mHeaders.putAll(mHeaders);
+        builder.mBody = mBody;
+        builder.mBodyContentType = mBodyContentType;
+        return builder;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "RequestSpec{" + mMethod + " " + mUrl + ", " + mHeaders.size() + " headers, "
+                + (mBody == null ? "no body" : mBody.length + " bytes of " + mBodyContentType) + "}";
+    }
+
+    private static String urlOf(String url, Map<String, String> queryParameters) {
+        if (queryParameters.isEmpty()) return url;
+        Uri.Builder builder = Uri.parse(url).buildUpon();
+        for (Map.Entry<String, String> entry : queryParameters.entrySet()) {
+            builder.appendQueryParameter(entry.getKey(), entry.getValue());
+        }
+        return builder.build().toString();
+    }
+
+    public static final class Builder {
+        private final int mMethod;
+        private final String mUrl;
+        private final LinkedHashMap<String, String> mHeaders = new LinkedHashMap<>();
+        private final LinkedHashMap<String, String> mQueryParameters = new LinkedHashMap<>();
+        private byte[] mBody;
+        private String mBodyContentType;
+
+        /**
+         * @param method Volley的 {@link Request.Method} 常數。
+         * @param url    目標網址。
+         */
+        public Builder(int method, @NonNull String url) {
+            mMethod = method;
+            mUrl = url;
+        }
+
+        @NonNull
+        public Builder header(@NonNull String name, @NonNull String value) {
+            mHeaders.put(name, value);
+            return this;
+        }
+
+        @NonNull
+        public Builder headers(@NonNull Map<String, String> headers) {
+            mHeaders.putAll(headers);
+            return this;
+        }
+
+        /**
+         * 加入query參數。參數會在 {@link #build()} 時編碼後加到網址後方。
+         */
+        @NonNull
+        public Builder query(@NonNull String name, @NonNull String value) {
+            mQueryParameters.put(name, value);
+            return this;
+        }
+
+        /**
+         * 以JSON做為內容。會立即編碼成UTF-8 bytes，之後修改jsonObject不會影響此請求。
+         */
+        @NonNull
+        public Builder body(@NonNull JSONObject jsonObject) {
+            return body(jsonObject.toString().getBytes(StandardCharsets.UTF_8), CONTENT_TYPE_JSON);
+        }
+
+        /**
+         * 以JSON陣列做為內容。會立即編碼成UTF-8 bytes。
+         */
+        @NonNull
+        public Builder body(@NonNull JSONArray jsonArray) {
+            return body(jsonArray.toString().getBytes(StandardCharsets.UTF_8), CONTENT_TYPE_JSON);
+        }
+
+        /**
+         * @param body        已編碼的內容。不會被複製，交給Builder後請勿再修改。
+         * @param contentType 內容的Content-Type。
+         */
+        @NonNull
+        public Builder body(@NonNull byte[] body, @NonNull String contentType) {
+            mBody = body;
+            mBodyContentType = contentType;
+            return this;
+        }
+
+        @NonNull
+        public RequestSpec build() {
+            return new RequestSpec(this);
+        }
+    }
+}
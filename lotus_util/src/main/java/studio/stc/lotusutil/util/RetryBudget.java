@@ -0,0 +1,58 @@
+package studio.stc.lotusutil.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * RetryBudget by STC
+ * 限制重試總量的預算：每個請求存入ratio個token，每次重試花費1個token，token數有上限。
+ * 伺服器整體故障時，重試量最多只會是原本請求量的ratio倍，避免重試把故障放大。
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class RetryBudget {
+    private static final long SCALE = 1000; // 以千分之一token為單位，避免浮點數運算
+
+    private final long mDepositPerRequest;
+    private final long mMaxBalance;
+    private final AtomicLong mBalance;
+
+    /**
+     * @param ratio     每個請求可以換得的重試次數(例如0.1代表最多多出10%的重試)。
+     * @param maxTokens 最多可以累積的重試次數。也是一開始的預算。
+     */
+    public RetryBudget(double ratio, int maxTokens) {
+        mDepositPerRequest = Math.max(0, Math.round(ratio * SCALE));
+        mMaxBalance = Math.max(1, maxTokens) * SCALE;
+        mBalance = new AtomicLong(mMaxBalance);
+    }
+
+    /**
+     * 每送出一個請求時呼叫。
+     */
+    public void onRequest() {
+        while (true) {
+            long balance = mBalance.get();
+            long next = Math.min(mMaxBalance, balance + mDepositPerRequest);
+            if (next == balance || mBalance.compareAndSet(balance, next)) return;
+        }
+    }
+
+    /**
+     * 嘗試花費一次重試。
+     *
+     * @return 預算足夠時為true。
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            long balance = mBalance.get();
+            if (balance < SCALE) return false;
+            if (mBalance.compareAndSet(balance, balance - SCALE)) return true;
+        }
+    }
+
+    /**
+     * @return 目前還可以重試的次數。
+     */
+    public int getAvailableRetries() {
+        return (int) (mBalance.get() / SCALE);
+    }
+}
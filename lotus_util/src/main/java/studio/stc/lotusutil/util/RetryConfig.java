@@ -0,0 +1,214 @@
+package studio.stc.lotusutil.util;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.android.volley.Request;
+import com.android.volley.RetryPolicy;
+import com.android.volley.VolleyError;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * RetryConfig by STC
+ * 請求的逾時與重試設定：指數退避(exponential backoff)加上full jitter、可重試的狀態碼，以及可選的 {@link RetryBudget}。
+ * 以 {@link Builder} 建立後可以重複使用；每個請求會各自取得一個新的RetryPolicy。
+ * <p>
+ * 注意：Volley只會把逾時、401/403與5xx(已開啟server error重試)交給RetryPolicy判斷，
+ * 其他4xx會直接失敗，因此可重試狀態碼只能在這些範圍內篩選。
+ * 退避期間不會佔用network thread：請求會先離開network thread，等待時間過後再重新加入Queue(參見 {@link DeliveryRouter})。
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class RetryConfig {
+    private static final String TAG = "RetryConfig";
+    private static final Random sRandom = new Random();
+
+    private final int mTimeoutMs;
+    private final int mMaxRetries;
+    private final long mBaseBackoffMs;
+    private final long mMaxBackoffMs;
+    private final boolean mRetryOnTimeout;
+    private final Set<Integer> mRetryableStatusCodes;
+    private final RetryBudget mRetryBudget;
+
+    private RetryConfig(Builder builder) {
+        mTimeoutMs = builder.timeoutMs;
+        mMaxRetries = builder.maxRetries;
+        mBaseBackoffMs = builder.baseBackoffMs;
+        mMaxBackoffMs = builder.maxBackoffMs;
+        mRetryOnTimeout = builder.retryOnTimeout;
+        mRetryableStatusCodes = Collections.unmodifiableSet(new HashSet<>(builder.retryableStatusCodes));
+        mRetryBudget = builder.retryBudget;
+    }
+
+    /**
+     * 將此設定套用到請求上。
+     */
+    public void applyTo(@NonNull Request<?> request) {
+        if (mRetryBudget != null) mRetryBudget.onRequest();
+        request.setRetryPolicy(new BackoffRetryPolicy(this));
+        request.setShouldRetryServerErrors(!mRetryableStatusCodes.isEmpty());
+    }
+
+    public int getTimeoutMs() {
+        return mTimeoutMs;
+    }
+
+    public int getMaxRetries() {
+        return mMaxRetries;
+    }
+
+    @NonNull
+    public Set<Integer> getRetryableStatusCodes() {
+        return mRetryableStatusCodes;
+    }
+
+    @Nullable
+    public RetryBudget getRetryBudget() {
+        return mRetryBudget;
+    }
+
+    /**
+     * @param retryCount 第幾次重試(由0開始)。
+     * @return 此次重試前要等待的時間：0 ~ min(maxBackoff, baseBackoff * 2^retryCount) 之間的隨機值。
+     */
+    long backoffMs(int retryCount) {
+        if (mBaseBackoffMs <= 0) return 0;
+        long ceiling = mBaseBackoffMs << Math.min(retryCount, 20);
+        ceiling = Math.min(ceiling, mMaxBackoffMs);
+        synchronized (sRandom) {
+            return (long) (sRandom.nextDouble() * ceiling);
+        }
+    }
+
+    boolean isRetryable(VolleyError error) {
+        if (error.networkResponse == null) return mRetryOnTimeout;
+        return mRetryableStatusCodes.contains(error.networkResponse.statusCode);
+    }
+
+    public static final class Builder {
+        private int timeoutMs = 2500;
+        private int maxRetries = 2;
+        private long baseBackoffMs = 200;
+        private long maxBackoffMs = 5000;
+        private boolean retryOnTimeout = true;
+        private Set<Integer> retryableStatusCodes = new HashSet<>(Arrays.asList(500, 502, 503, 504));
+        private RetryBudget retryBudget;
+
+        /**
+         * @param timeoutMs 每次嘗試的逾時(毫秒)。
+         */
+        public Builder setTimeoutMs(int timeoutMs) {
+            this.timeoutMs = timeoutMs;
+            return this;
+        }
+
+        public Builder setMaxRetries(int maxRetries) {
+            this.maxRetries = Math.max(0, maxRetries);
+            return this;
+        }
+
+        /**
+         * @param baseBackoffMs 第一次重試前最多等待的時間，之後每次加倍。
+         * @param maxBackoffMs  等待時間的上限。
+         */
+        public Builder setBackoff(long baseBackoffMs, long maxBackoffMs) {
+            this.baseBackoffMs = Math.max(0, baseBackoffMs);
+            this.maxBackoffMs = Math.max(this.baseBackoffMs, maxBackoffMs);
+            return this;
+        }
+
+        /**
+         * @param retryOnTimeout 逾時(沒有回應)時是否重試。
+         */
+        public Builder setRetryOnTimeout(boolean retryOnTimeout) {
+            this.retryOnTimeout = retryOnTimeout;
+            return this;
+        }
+
+        /**
+         * @param statusCodes 可以重試的HTTP狀態碼(預設500, 502, 503, 504)。
+         */
+        public Builder setRetryableStatusCodes(int... statusCodes) {
+            retryableStatusCodes = new HashSet<>();
+            for (int code : statusCodes) retryableStatusCodes.add(code);
+            return this;
+        }
+
+        public Builder setRetryBudget(@Nullable RetryBudget retryBudget) {
+            this.retryBudget = retryBudget;
+            return this;
+        }
+
+        public RetryConfig build() {
+            return new RetryConfig(this);
+        }
+    }
+
+    /**
+     * 依照RetryConfig進行重試判斷的RetryPolicy。每個請求各自擁有一個。
+     */
+    private static final class BackoffRetryPolicy implements RetryPolicy {
+        private final RetryConfig mConfig;
+        private int mRetryCount = 0;
+
+        BackoffRetryPolicy(RetryConfig config) {
+            mConfig = config;
+        }
+
+        @Override
+        public int getCurrentTimeout() {
+            return mConfig.mTimeoutMs;
+        }
+
+        @Override
+        public int getCurrentRetryCount() {
+            return mRetryCount;
+        }
+
+        @Override
+        public void retry(VolleyError error) throws VolleyError {
+            if (mRetryCount >= mConfig.mMaxRetries || !mConfig.isRetryable(error)) throw error;
+            if (mConfig.mRetryBudget != null && !mConfig.mRetryBudget.tryAcquire()) {
+                Log.w(TAG, "retry: retry budget exhausted, giving up.");
+                throw error;
+            }
+            long backoff = mConfig.backoffMs(mRetryCount);
+            mRetryCount++;
+            // 不在network thread上等待(會擋住其他host的請求)：結束此次處理，由DeliveryRouter延後重新加入Queue
+            if (backoff > 0) throw new DeferredRetryError(error, backoff);
+        }
+    }
+
+    /**
+     * 需要退避後再重試。不會交給監聽器，而是由 {@link DeliveryRouter} 在等待後把請求重新加入Queue。
+     */
+    static final class DeferredRetryError extends VolleyError {
+        private final VolleyError mError;
+        private final long mDelayMs;
+
+        DeferredRetryError(@NonNull VolleyError error, long delayMs) {
+            super(error.networkResponse);
+            mError = error;
+            mDelayMs = delayMs;
+        }
+
+        /**
+         * @return 造成重試的錯誤。無法重試時交給監聽器。
+         */
+        @NonNull
+        VolleyError getError() {
+            return mError;
+        }
+
+        long getDelayMs() {
+            return mDelayMs;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package studio.stc.lotusutil.util;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.android.volley.NetworkResponse;
+import com.android.volley.ParseError;
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.toolbox.HttpHeaderParser;
+
+import org.json.JSONException;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Map;
+
+/**
+ * 依照 {@link RequestSpec} 送出的Volley請求。Header與內容直接使用RequestSpec中預先計算好的結果，
+ * 因此重試時不會再轉換或編碼。
+ */
+class SpecRequest<T> extends Request<T> {
+    private final Object mLock = new Object();
+    private final RequestSpec mSpec;
+    private final CachePolicy.BodyParser<T> mParser;
+    @Nullable
+    private final CachePolicy mCachePolicy;
+    @Nullable
+    private Response.Listener<T> mListener;
+
+    SpecRequest(@NonNull RequestSpec spec, @NonNull CachePolicy.BodyParser<T> parser, @Nullable CachePolicy cachePolicy,
+                @NonNull Response.Listener<T> listener, @Nullable Response.ErrorListener errorListener) {
+        super(spec.getMethod(), spec.getUrl(), errorListener);
+        mSpec = spec;
+        mParser = parser;
+        mCachePolicy = cachePolicy;
+        mListener = listener;
+    }
+
+    @NonNull
+    RequestSpec getSpec() {
+        return mSpec;
+    }
+
+    @Override
+    public Map<String, String> getHeaders() {
+        return mSpec.getHeaders();
+    }
+
+    @Override
+    public byte[] getBody() {
+        return mSpec.getBody();
+    }
+
+    @Override
+    public String getBodyContentType() {
+        String contentType = mSpec.getBodyContentType();
+        return contentType == null ? super.getBodyContentType() : contentType;
+    }
+
+    @Override
+    public void cancel() {
+        super.cancel();
+        synchronized (mLock) {
+            mListener = null;
+        }
+    }
+
+    @Override
+    protected Response<T> parseNetworkResponse(NetworkResponse response) {
+        if (mCachePolicy != null) return mCachePolicy.parseResponse(response, getCacheKey(), mParser);
+        try {
+            return Response.success(CachePolicy.parseBody(mParser, response), HttpHeaderParser.parseCacheHeaders(response));
+        } catch (UnsupportedEncodingException | JSONException e) {
+            return Response.error(new ParseError(e));
+        }
+    }
+
+    @Override
+    protected void deliverResponse(T response) {
+        Response.Listener<T> listener;
+        synchronized (mLock) {
+            listener = mListener;
+        }
+        if (listener != null) listener.onResponse(response);
+    }
+}
@@ -0,0 +1,237 @@
+package studio.stc.lotusutil.util;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.ClientError;
+import com.android.volley.DefaultRetryPolicy;
+import com.android.volley.Header;
+import com.android.volley.NetworkError;
+import com.android.volley.NetworkResponse;
+import com.android.volley.NoConnectionError;
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.ServerError;
+import com.android.volley.TimeoutError;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.HttpHeaderParser;
+import com.android.volley.toolbox.HttpResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * StreamTask by STC
+ * 不經過RequestQueue、直接以 {@link RequestDispatcher#getHttpStack()} 連線並以串流處理回應的請求。
+ * Volley會把整個回應讀成byte[]，大型回應或上傳/下載則改用此類別。
+ * 任務在背景執行緒上執行，可以透過 {@link #cancel()} 或所屬Agent的CancelRequest取消。
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public abstract class StreamTask implements Runnable {
+    static final int DEFAULT_TIMEOUT_MS = 15000;
+    private static final int MAX_ERROR_BODY_SIZE = 64 * 1024;
+    static final String HEADER_CONTENT_TYPE = "Content-Type";
+
+    private final Object mTag;
+    private volatile boolean mCancelled = false;
+    private volatile Closeable mOpenStream;
+
+    protected StreamTask(@Nullable Object tag) {
+        mTag = tag;
+    }
+
+    @Nullable
+    public final Object getTag() {
+        return mTag;
+    }
+
+    /**
+     * 取消任務。正在讀取中的串流會被關閉，任務會盡快結束。
+     */
+    public void cancel() {
+        mCancelled = true;
+        Closeable stream = mOpenStream;
+        if (stream != null) {
+            try {
+                stream.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    public final boolean isCancelled() {
+        return mCancelled;
+    }
+
+    @Override
+    public final void run() {
+        try {
+            if (!mCancelled) execute();
+        } finally {
+            mOpenStream = null;
+            RequestDispatcher.unregisterTask(this);
+        }
+    }
+
+    /**
+     * 在背景執行緒上執行實際的工作。
+     */
+    protected abstract void execute();
+
+    /**
+     * 送出請求並取得回應。狀態碼不是2xx時會讀取(有限長度的)錯誤內容並拋出對應的VolleyError。
+     * 回傳的內容串流會在 {@link #cancel()} 時被關閉。
+     *
+     * @param method  {@link Request.Method} 系列。
+     * @param headers 額外的Header(可以為null)。
+     * @param body    請求內容(可以為null)。
+     */
+    @NonNull
+    protected HttpResponse open(int method, @NonNull String url, @Nullable Map<String, String> headers, @Nullable byte[] body) throws VolleyError {
+        HostGuard.acquire(url);
+        long start = System.currentTimeMillis();
+        Descriptor descriptor = new Descriptor(method, url, headers, body);
+        HttpResponse response;
+        try {
+            response = RequestDispatcher.getHttpStack().executeRequest(descriptor, Collections.<String, String>emptyMap());
+        } catch (IOException e) {
+            throw toVolleyError(e);
+        }
+        InputStream content = response.getContent();
+        mOpenStream = content;
+        int statusCode = response.getStatusCode();
+        if (statusCode < 200 || statusCode > 299)
+            throw errorOf(statusCode, content, System.currentTimeMillis() - start, response.getHeaders());
+        if (content == null) return response;
+        // 回應內容不經過Volley的Network，由這裡紀錄bytesIn
+        InputStream counted = RequestMetrics.countBytesIn(descriptor, content);
+        if (counted == content) return response;
+        mOpenStream = counted;
+        return new HttpResponse(statusCode, response.getHeaders(), response.getContentLength(), counted);
+    }
+
+    /**
+     * 登記目前開啟中的串流，{@link #cancel()} 時會關閉它。不經過 {@link #open} 自行連線的任務使用。
+     */
+    protected final void setOpenStream(@Nullable Closeable stream) {
+        mOpenStream = stream;
+        if (stream != null && mCancelled) closeQuietly(stream);
+    }
+
+    /**
+     * 讀取(有限長度的)錯誤內容，並轉換成對應狀態碼的VolleyError。
+     */
+    @NonNull
+    protected static VolleyError errorOf(int statusCode, @Nullable InputStream content, long networkTimeMs, @NonNull List<Header> headers) {
+        byte[] errorBody = readErrorBody(content);
+        NetworkResponse networkResponse = new NetworkResponse(statusCode, errorBody, false, networkTimeMs, headers);
+        if (statusCode >= 400 && statusCode <= 499) return new ClientError(networkResponse);
+        return new ServerError(networkResponse);
+    }
+
+    /**
+     * 把回應Header轉換成不分大小寫的Map。
+     */
+    @NonNull
+    protected static Map<String, String> headersOf(@NonNull HttpResponse response) {
+        TreeMap<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        List<Header> list = response.getHeaders();
+        for (Header header : list) {
+            headers.put(header.getName(), header.getValue());
+        }
+        return headers;
+    }
+
+    /**
+     * @return 回應的字元編碼(預設utf-8)。
+     */
+    @NonNull
+    protected static String charsetOf(@NonNull HttpResponse response) {
+        return HttpHeaderParser.parseCharset(headersOf(response), "utf-8");
+    }
+
+    @NonNull
+    protected static VolleyError toVolleyError(@NonNull IOException e) {
+        if (e instanceof SocketTimeoutException) return new TimeoutError();
+        if (e instanceof UnknownHostException) return new NoConnectionError(e);
+        return new NetworkError(e);
+    }
+
+    protected static void closeQuietly(@Nullable Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static byte[] readErrorBody(@Nullable InputStream content) {
+        if (content == null) return new byte[0];
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        try {
+            int read;
+            while (out.size() < MAX_ERROR_BODY_SIZE && (read = content.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        } catch (IOException ignored) {
+        } finally {
+            closeQuietly(content);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * 只用來把連線參數交給HTTP stack的請求描述，本身不會被加入RequestQueue。
+     */
+    static final class Descriptor extends Request<Void> {
+        private final Map<String, String> mHeaders;
+        private final byte[] mBody;
+
+        Descriptor(int method, String url, @Nullable Map<String, String> headers, @Nullable byte[] body) {
+            super(method, url, null);
+            mHeaders = headers == null ? Collections.<String, String>emptyMap() : headers;
+            mBody = body;
+            setRetryPolicy(new DefaultRetryPolicy(DEFAULT_TIMEOUT_MS, 0, 1));
+        }
+
+        @Override
+        public Map<String, String> getHeaders() throws AuthFailureError {
+            return mHeaders;
+        }
+
+        @Override
+        public byte[] getBody() throws AuthFailureError {
+            return mBody;
+        }
+
+        @Nullable
+        byte[] getEncodedBody() {
+            return mBody;
+        }
+
+        @Override
+        public String getBodyContentType() {
+            String contentType = mHeaders.get(HEADER_CONTENT_TYPE);
+            return contentType != null ? contentType : super.getBodyContentType();
+        }
+
+        @Override
+        protected Response<Void> parseNetworkResponse(NetworkResponse response) {
+            return null;
+        }
+
+        @Override
+        protected void deliverResponse(Void response) {
+        }
+    }
+}
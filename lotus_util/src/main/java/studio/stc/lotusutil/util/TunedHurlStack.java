@@ -0,0 +1,61 @@
+package studio.stc.lotusutil.util;
+
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.android.volley.toolbox.HurlStack;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * TunedHurlStack by STC
+ * 確保連線重複使用的 {@link HurlStack}：每個請求都要求keep-alive，同一個host的後續請求可以沿用已建立的連線，
+ * 省下TCP與TLS交握。建立此stack不會更動任何全域設定。
+ * <p>
+ * keep-alive連線池屬於系統的HttpURLConnection實作，由整個程序共用；需要調整大小與閒置時間時，
+ * 請在Application.onCreate中呼叫 {@link #configureConnectionPool(int, long)}。
+ * 系統的HttpURLConnection只支援HTTP/1.1；需要HTTP/2多工時，請改用支援HTTP/2的stack(例如以OkHttp實作的BaseHttpStack)。
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class TunedHurlStack extends HurlStack {
+    private static final String TAG = "TunedHurlStack";
+
+    public TunedHurlStack() {
+        this(null);
+    }
+
+    /**
+     * @param sslSocketFactory 自訂的SSLSocketFactory(可以為null)。
+     */
+    public TunedHurlStack(@Nullable SSLSocketFactory sslSocketFactory) {
+        super(null, sslSocketFactory);
+    }
+
+    /**
+     * 調整系統HttpURLConnection的keep-alive連線池(http.keepAlive、http.maxConnections、http.keepAliveDuration)。
+     * 注意：這是整個程序共用的系統設定，會影響所有使用HttpURLConnection的程式(包含其他函式庫)，
+     * 而且只在程序第一次建立連線之前有效。請在Application.onCreate的最開頭呼叫。
+     *
+     * @param maxIdleConnections 每個位址最多保留的閒置連線數。
+     * @param keepAliveMs        閒置連線保留的時間(毫秒)。
+     */
+    public static void configureConnectionPool(int maxIdleConnections, long keepAliveMs) {
+        System.setProperty("http.keepAlive", "true");
+        System.setProperty("http.maxConnections", String.valueOf(Math.max(1, maxIdleConnections)));
+        System.setProperty("http.keepAliveDuration", String.valueOf(Math.max(0, keepAliveMs)));
+        Log.i(TAG, "configureConnectionPool: keep-alive pool of " + maxIdleConnections + " connections for " + keepAliveMs + " ms");
+    }
+
+    @Override
+    protected HttpURLConnection createConnection(URL url) throws IOException {
+        HttpURLConnection connection = super.createConnection(url);
+        // 回應讀完後連線才會回到連線池；Volley與StreamTask都會讀完或關閉內容
+        connection.setRequestProperty("Connection", "keep-alive");
+        return connection;
+    }
+}
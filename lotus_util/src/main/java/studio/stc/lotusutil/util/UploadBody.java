@@ -0,0 +1,341 @@
+package studio.stc.lotusutil.util;
+
+import android.util.JsonWriter;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * UploadBody by STC
+ * 以串流方式上傳的請求內容。內容在上傳時才由檔案、{@link ByteSource} 或 {@link JsonSource} 逐段產生，不會整個放進記憶體。
+ * 長度已知時以固定長度送出，否則使用chunked transfer encoding。
+ * 例如：
+ * <pre>
+ * UploadBody body = UploadBody.multipart()
+ *         .addField("title", "photo")
+ *         .addFile("image", file, "image/jpeg")
+ *         .build();
+ * UploadBody records = UploadBody.ofJsonArray(cursorIterator, Record_JsonBinder.INSTANCE);
+ * </pre>
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public abstract class UploadBody {
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final String JSON_CONTENT_TYPE = "application/json; charset=utf-8";
+
+    UploadBody() {
+    }
+
+    /**
+     * @return 內容的Content-Type。
+     */
+    @NonNull
+    public abstract String getContentType();
+
+    /**
+     * @return 內容的總長度；無法得知時為-1(以chunked方式送出)。
+     */
+    public abstract long getContentLength();
+
+    /**
+     * 把內容寫入輸出串流。
+     *
+     * @param progress 每寫入一段就呼叫一次。
+     */
+    abstract void writeTo(@NonNull OutputStream out, @NonNull Progress progress) throws IOException;
+
+    /**
+     * 單一檔案做為內容。
+     */
+    @NonNull
+    public static UploadBody ofFile(@NonNull File file, @NonNull String contentType) {
+        return ofSource(fileSource(file), contentType);
+    }
+
+    /**
+     * 任意來源做為內容。來源的長度未知時以chunked方式送出。
+     */
+    @NonNull
+    public static UploadBody ofSource(@NonNull final ByteSource source, @NonNull final String contentType) {
+        return new UploadBody() {
+            @NonNull
+            @Override
+            public String getContentType() {
+                return contentType;
+            }
+
+            @Override
+            public long getContentLength() {
+                return source.length();
+            }
+
+            @Override
+            void writeTo(@NonNull OutputStream out, @NonNull Progress progress) throws IOException {
+                copy(source, out, progress);
+            }
+        };
+    }
+
+    /**
+     * 以 {@link JsonWriter} 在上傳時直接寫出的JSON內容(application/json，UTF-8，chunked)。
+     * 不會建立JSONObject，也不會先把內容轉成文字，記憶體用量與資料量無關。
+     */
+    @NonNull
+    public static UploadBody ofJson(@NonNull final JsonSource source) {
+        return new UploadBody() {
+            @NonNull
+            @Override
+            public String getContentType() {
+                return JSON_CONTENT_TYPE;
+            }
+
+            @Override
+            public long getContentLength() {
+                return -1;
+            }
+
+            @Override
+            void writeTo(@NonNull OutputStream out, @NonNull Progress progress) throws IOException {
+                // 不關閉JsonWriter：out由UploadTask關閉
+                JsonWriter writer = new JsonWriter(new BufferedWriter(
+                        new OutputStreamWriter(new ProgressOutputStream(out, progress), StandardCharsets.UTF_8), BUFFER_SIZE));
+                source.writeTo(writer);
+                writer.flush();
+            }
+        };
+    }
+
+    /**
+     * 把iterator的每一筆資料以binder寫成JSON陣列，邊讀取邊上傳，例如資料庫查詢的結果。
+     * iterator只能讀取一次，因此這個UploadBody只能上傳一次。
+     */
+    @NonNull
+    public static <T> UploadBody ofJsonArray(@NonNull final Iterator<? extends T> records, @NonNull final JsonBinder<T> binder) {
+        return ofJson(new JsonSource() {
+            @Override
+            public void writeTo(@NonNull JsonWriter writer) throws IOException {
+                writer.beginArray();
+                while (records.hasNext()) {
+                    binder.write(writer, records.next());
+                }
+                writer.endArray();
+            }
+        });
+    }
+
+    /**
+     * @return 讀取檔案的ByteSource。
+     */
+    @NonNull
+    public static ByteSource fileSource(@NonNull final File file) {
+        return new ByteSource() {
+            @Override
+            public long length() {
+                return file.length();
+            }
+
+            @NonNull
+            @Override
+            public InputStream open() throws IOException {
+                return new FileInputStream(file);
+            }
+        };
+    }
+
+    @NonNull
+    public static MultipartBuilder multipart() {
+        return new MultipartBuilder();
+    }
+
+    private static void copy(ByteSource source, OutputStream out, Progress progress) throws IOException {
+        InputStream in = source.open();
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                progress.onWritten(read);
+            }
+        } finally {
+            StreamTask.closeQuietly(in);
+        }
+    }
+
+    /**
+     * 可以重複開啟的資料來源。
+     */
+    public interface ByteSource {
+        /**
+         * @return 資料長度；無法得知時為-1。
+         */
+        long length();
+
+        @NonNull
+        InputStream open() throws IOException;
+    }
+
+    /**
+     * 上傳時寫出JSON內容的來源。
+     */
+    public interface JsonSource {
+        /**
+         * 在上傳的執行緒上呼叫，寫出一個完整的JSON值。上傳被取消時，寫入會拋出IOException。
+         */
+        void writeTo(@NonNull JsonWriter writer) throws IOException;
+    }
+
+    interface Progress {
+        void onWritten(long bytes) throws IOException;
+    }
+
+    /**
+     * 每次寫入時回報進度(同時檢查是否被取消)的輸出串流。
+     */
+    private static final class ProgressOutputStream extends FilterOutputStream {
+        private final Progress mProgress;
+
+        ProgressOutputStream(OutputStream out, Progress progress) {
+            super(out);
+            mProgress = progress;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            mProgress.onWritten(1);
+        }
+
+        @Override
+        public void write(@NonNull byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            mProgress.onWritten(len);
+        }
+    }
+
+    /**
+     * multipart/form-data內容的Builder。
+     */
+    public static final class MultipartBuilder {
+        private final String mBoundary = "LotusBoundary" + UUID.randomUUID().toString().replace("-", "");
+        private final List<Part> mParts = new ArrayList<>();
+
+        private MultipartBuilder() {
+        }
+
+        @NonNull
+        public MultipartBuilder addField(@NonNull String name, @NonNull String value) {
+            final byte[] data = value.getBytes(StandardCharsets.UTF_8);
+            mParts.add(new Part(name, null, null, new ByteSource() {
+                @Override
+                public long length() {
+                    return data.length;
+                }
+
+                @NonNull
+                @Override
+                public InputStream open() {
+                    return new ByteArrayInputStream(data);
+                }
+            }));
+            return this;
+        }
+
+        @NonNull
+        public MultipartBuilder addFile(@NonNull String name, @NonNull File file, @NonNull String contentType) {
+            return addPart(name, file.getName(), contentType, fileSource(file));
+        }
+
+        /**
+         * @param fileName    檔名(可以為null，代表一般欄位)。
+         * @param contentType 此部分的Content-Type(可以為null)。
+         */
+        @NonNull
+        public MultipartBuilder addPart(@NonNull String name, @Nullable String fileName, @Nullable String contentType, @NonNull ByteSource source) {
+            mParts.add(new Part(name, fileName, contentType, source));
+            return this;
+        }
+
+        @NonNull
+        public UploadBody build() {
+            final List<Part> parts = Collections.unmodifiableList(new ArrayList<>(mParts));
+            final String boundary = mBoundary;
+            final byte[] closing = ("--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8);
+            return new UploadBody() {
+                @NonNull
+                @Override
+                public String getContentType() {
+                    return "multipart/form-data; boundary=" + boundary;
+                }
+
+                @Override
+                public long getContentLength() {
+                    long length = closing.length;
+                    for (Part part : parts) {
+                        long partLength = part.source.length();
+                        if (partLength < 0) return -1;
+                        length += part.headerOf(boundary).length + partLength + 2;
+                    }
+                    return length;
+                }
+
+                @Override
+                void writeTo(@NonNull OutputStream out, @NonNull Progress progress) throws IOException {
+                    for (Part part : parts) {
+                        byte[] header = part.headerOf(boundary);
+                        out.write(header);
+                        progress.onWritten(header.length);
+                        copy(part.source, out, progress);
+                        out.write('\r');
+                        out.write('\n');
+                        progress.onWritten(2);
+                    }
+                    out.write(closing);
+                    progress.onWritten(closing.length);
+                }
+            };
+        }
+    }
+
+    private static final class Part {
+        final String name;
+        final String fileName;
+        final String contentType;
+        final ByteSource source;
+
+        Part(String name, @Nullable String fileName, @Nullable String contentType, ByteSource source) {
+            this.name = name;
+            this.fileName = fileName;
+            this.contentType = contentType;
+            this.source = source;
+        }
+
+        byte[] headerOf(String boundary) {
+            StringBuilder builder = new StringBuilder("--").append(boundary).append("\r\n")
+                    .append("Content-Disposition: form-data; name=\"").append(escape(name)).append('"');
+            if (fileName != null) builder.append("; filename=\"").append(escape(fileName)).append('"');
+            builder.append("\r\n");
+            if (contentType != null) builder.append("Content-Type: ").append(contentType).append("\r\n");
+            return builder.append("\r\n").toString().getBytes(StandardCharsets.UTF_8);
+        }
+
+        private static String escape(String value) {
+            return value.replace("\"", "%22").replace("\r", "%0D").replace("\n", "%0A");
+        }
+    }
+}
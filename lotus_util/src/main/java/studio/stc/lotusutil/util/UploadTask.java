@@ -0,0 +1,198 @@
+package studio.stc.lotusutil.util;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.android.volley.Header;
+import com.android.volley.Request;
+import com.android.volley.VolleyError;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 以串流方式上傳 {@link UploadBody} 的任務。
+ * Volley的HTTP stack只能送出byte[]內容，因此這裡直接使用HttpURLConnection，不經過 {@link RequestDispatcher#setHttpStack} 設定的stack：
+ * 長度已知時使用fixed-length streaming mode，否則使用chunked transfer encoding，內容都不會整個放進記憶體。
+ * stack外層的 {@link HostGuard} 斷路器與 {@link RequestMetrics} 統計則由這裡直接處理，與其他請求一致。
+ */
+final class UploadTask extends StreamTask {
+    private static final String TAG = "UploadTask";
+    private static final long PROGRESS_INTERVAL_MS = 200;
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
+    private final RequestSpec mSpec;
+    private final UploadBody mBody;
+    private final InternetSourceAgent.UploadListener mListener;
+    private volatile HttpURLConnection mConnection;
+    private long mLastProgressAt = 0;
+
+    /**
+     * @param spec 請求描述。只支援POST與PUT(HttpURLConnection不支援PATCH)；spec本身的內容會被忽略。
+     */
+    UploadTask(@Nullable Object tag, @NonNull RequestSpec spec, @NonNull UploadBody body, @NonNull InternetSourceAgent.UploadListener listener) {
+        super(tag);
+        if (spec.getMethod() != Request.Method.POST && spec.getMethod() != Request.Method.PUT)
+            throw new IllegalArgumentException("only POST and PUT uploads are supported");
+        mSpec = spec;
+        mBody = body;
+        mListener = listener;
+    }
+
+    @Override
+    public void cancel() {
+        super.cancel();
+        HttpURLConnection connection = mConnection;
+        if (connection != null) connection.disconnect();
+    }
+
+    @Override
+    protected void execute() {
+        HttpURLConnection connection = null;
+        boolean responded = false;
+        try {
+            HostGuard.acquire(mSpec.getUrl());
+            long start = System.currentTimeMillis();
+            long startNs = System.nanoTime();
+            connection = (HttpURLConnection) new URL(mSpec.getUrl()).openConnection();
+            mConnection = connection;
+            connection.setConnectTimeout(DEFAULT_TIMEOUT_MS);
+            connection.setReadTimeout(DEFAULT_TIMEOUT_MS);
+            connection.setUseCaches(false);
+            connection.setDoOutput(true);
+            connection.setRequestMethod(mSpec.getMethod() == Request.Method.PUT ? "PUT" : "POST");
+            for (Map.Entry<String, String> header : mSpec.getHeaders().entrySet()) {
+                connection.setRequestProperty(header.getKey(), header.getValue());
+            }
+            connection.setRequestProperty(HEADER_CONTENT_TYPE, mBody.getContentType());
+            final long total = mBody.getContentLength();
+            if (total >= 0) connection.setFixedLengthStreamingMode(total);
+            else connection.setChunkedStreamingMode(0);
+
+            OutputStream out = new BufferedOutputStream(connection.getOutputStream(), BUFFER_SIZE);
+            setOpenStream(out);
+            final long[] sent = {0};
+            reportProgress(0, total, true);
+            mBody.writeTo(out, new UploadBody.Progress() {
+                @Override
+                public void onWritten(long bytes) throws IOException {
+                    if (isCancelled()) throw new InterruptedIOException("upload cancelled");
+                    sent[0] += bytes;
+                    reportProgress(sent[0], total, false);
+                }
+            });
+            out.close();
+            reportProgress(sent[0], total, true);
+
+            int statusCode = connection.getResponseCode();
+            responded = true;
+            HostGuard.recordResponse(mSpec.getUrl(), statusCode);
+            // 只用來統計的請求描述，與StreamTask的其他請求使用相同的endpoint
+            Descriptor descriptor = new Descriptor(mSpec.getMethod(), mSpec.getUrl(), mSpec.getHeaders(), null);
+            RequestMetrics.recordExchange(descriptor, (System.nanoTime() - startNs) / 1000, sent[0]);
+            if (statusCode < 200 || statusCode > 299) {
+                throw errorOf(statusCode, connection.getErrorStream(), System.currentTimeMillis() - start, headersOf(connection));
+            }
+            InputStream content = connection.getInputStream();
+            if (content != null) content = RequestMetrics.countBytesIn(descriptor, content);
+            setOpenStream(content);
+            String response = readResponse(content, charsetOf(connection));
+            if (isCancelled()) return;
+            Log.i(TAG, "execute: uploaded " + sent[0] + " bytes to " + mSpec.getUrl());
+            deliverComplete(response);
+        } catch (VolleyError error) {
+            if (!isCancelled()) deliverError(error);
+        } catch (IOException e) {
+            // 取消時中斷連線也會造成IOException，此時不回呼
+            if (isCancelled()) return;
+            if (!responded) HostGuard.recordFailure(mSpec.getUrl());
+            deliverError(toVolleyError(e));
+        } finally {
+            if (connection != null) connection.disconnect();
+            mConnection = null;
+        }
+    }
+
+    private static String readResponse(@Nullable InputStream content, String charset) throws IOException {
+        if (content == null) return "";
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = content.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toString(charset);
+        } finally {
+            closeQuietly(content);
+        }
+    }
+
+    private static List<Header> headersOf(HttpURLConnection connection) {
+        List<Header> headers = new ArrayList<>();
+        for (Map.Entry<String, List<String>> entry : connection.getHeaderFields().entrySet()) {
+            if (entry.getKey() == null) continue; // 狀態列
+            for (String value : entry.getValue()) headers.add(new Header(entry.getKey(), value));
+        }
+        return headers;
+    }
+
+    private static String charsetOf(HttpURLConnection connection) {
+        String contentType = connection.getContentType();
+        if (contentType != null) {
+            for (String parameter : contentType.split(";")) {
+                String[] pair = parameter.trim().split("=", 2);
+                if (pair.length == 2 && pair[0].equalsIgnoreCase("charset")) return pair[1];
+            }
+        }
+        return "utf-8";
+    }
+
+    /**
+     * 回報進度。除了force之外，最多每PROGRESS_INTERVAL_MS回報一次。
+     */
+    private void reportProgress(final long sent, final long total, boolean force) {
+        long now = SystemClock.elapsedRealtime();
+        if (!force && now - mLastProgressAt < PROGRESS_INTERVAL_MS) return;
+        mLastProgressAt = now;
+        sMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!isCancelled()) mListener.OnProgress(sent, total);
+            }
+        });
+    }
+
+    private void deliverComplete(final String response) {
+        sMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!isCancelled()) mListener.OnUploadComplete(response);
+            }
+        });
+    }
+
+    private void deliverError(final VolleyError error) {
+        sMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!isCancelled()) mListener.OnResponseError(error);
+            }
+        });
+    }
+}
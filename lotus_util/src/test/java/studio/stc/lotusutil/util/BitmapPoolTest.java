@@ -0,0 +1,46 @@
+package studio.stc.lotusutil.util;
+
+import android.graphics.Bitmap;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class BitmapPoolTest {
+
+    @Test
+    public void removedFromCache_whileDisplayed_isNotPooledUntilReleased() {
+        BitmapPool pool = new BitmapPool(1024 * 1024);
+        Bitmap bitmap = Bitmap.createBitmap(10, 10, Bitmap.Config.RGB_565);
+        pool.acquire(bitmap);
+        pool.onRemovedFromCache(bitmap);
+        assertNull(pool.get(10, 10, Bitmap.Config.RGB_565));
+
+        pool.release(bitmap);
+        assertSame(bitmap, pool.get(10, 10, Bitmap.Config.RGB_565));
+    }
+
+    @Test
+    public void acquire_takesBitmapBackOutOfPool() {
+        BitmapPool pool = new BitmapPool(1024 * 1024);
+        Bitmap bitmap = Bitmap.createBitmap(10, 10, Bitmap.Config.RGB_565);
+        // 查詢快取之後、acquire之前被淘汰進池中
+        pool.onRemovedFromCache(bitmap);
+        assertEquals(bitmap.getAllocationByteCount(), pool.size());
+
+        pool.acquire(bitmap);
+        assertEquals(0, pool.size());
+        assertNull(pool.get(10, 10, Bitmap.Config.RGB_565));
+
+        // 不再顯示時回到池中
+        pool.release(bitmap);
+        assertSame(bitmap, pool.get(10, 10, Bitmap.Config.RGB_565));
+    }
+}
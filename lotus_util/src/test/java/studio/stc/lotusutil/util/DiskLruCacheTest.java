@@ -0,0 +1,126 @@
+package studio.stc.lotusutil.util;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class DiskLruCacheTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final byte[] A = "aaaa".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] B = "bbbbbb".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void reopen_restoresEntriesFromJournal() throws IOException {
+        File dir = folder.newFolder();
+        DiskLruCache cache = DiskLruCache.open(dir, 1024);
+        cache.put("a", A);
+        cache.put("b", B);
+        cache.remove("a");
+        cache.close();
+
+        cache = DiskLruCache.open(dir, 1024);
+        assertFalse(cache.contains("a"));
+        assertArrayEquals(B, cache.get("b"));
+        assertEquals(B.length, cache.size());
+        cache.close();
+    }
+
+    @Test
+    public void reopen_restoresLruOrder() throws IOException {
+        File dir = folder.newFolder();
+        DiskLruCache cache = DiskLruCache.open(dir, 10);
+        cache.put("a", A);
+        cache.put("b", B);
+        cache.get("a"); // a變成最近使用
+        cache.close();
+
+        cache = DiskLruCache.open(dir, 10);
+        cache.put("c", A); // 超過10 bytes，淘汰最久未使用的b
+        assertTrue(cache.contains("a"));
+        assertFalse(cache.contains("b"));
+        cache.close();
+    }
+
+    @Test
+    public void reopen_ignoresTruncatedLastLine() throws IOException {
+        File dir = folder.newFolder();
+        DiskLruCache cache = DiskLruCache.open(dir, 1024);
+        cache.put("a", A);
+        cache.put("b", B);
+        cache.close();
+        // 模擬寫入「REMOVE a」途中被終止
+        appendToJournal(dir, "REMO");
+
+        cache = DiskLruCache.open(dir, 1024);
+        assertArrayEquals(A, cache.get("a"));
+        assertArrayEquals(B, cache.get("b"));
+        // 重新開啟後的寫入不能接在殘缺的行後面
+        cache.remove("a");
+        cache.close();
+
+        cache = DiskLruCache.open(dir, 1024);
+        assertFalse(cache.contains("a"));
+        assertArrayEquals(B, cache.get("b"));
+        cache.close();
+    }
+
+    @Test
+    public void reopen_ignoresTruncatedSizeOnLastLine() throws IOException {
+        File dir = folder.newFolder();
+        DiskLruCache cache = DiskLruCache.open(dir, 1024);
+        cache.put("a", A);
+        cache.close();
+        File journal = new File(dir, "journal");
+        // 「CLEAN a 4\n」只寫到「CLEAN a」
+        RandomAccessFile file = new RandomAccessFile(journal, "rw");
+        file.setLength(file.length() - 3);
+        file.close();
+
+        cache = DiskLruCache.open(dir, 1024);
+        assertFalse(cache.contains("a"));
+        assertEquals(0, cache.size());
+        cache.close();
+    }
+
+    @Test
+    public void reopen_corruptLineInTheMiddle_clearsCache() throws IOException {
+        File dir = folder.newFolder();
+        DiskLruCache cache = DiskLruCache.open(dir, 1024);
+        cache.put("a", A);
+        cache.close();
+        appendToJournal(dir, "GARBAGE\nREAD a\n");
+
+        cache = DiskLruCache.open(dir, 1024);
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+        cache.close();
+    }
+
+    private static void appendToJournal(File dir, String text) throws IOException {
+        FileOutputStream out = new FileOutputStream(new File(dir, "journal"), true);
+        try {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+        } finally {
+            out.close();
+        }
+    }
+}
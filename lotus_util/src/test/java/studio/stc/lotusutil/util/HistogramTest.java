@@ -0,0 +1,75 @@
+package studio.stc.lotusutil.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HistogramTest {
+
+    @Test
+    public void empty_returnsZero() {
+        Histogram histogram = new Histogram("us");
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMean());
+        assertEquals(0, histogram.getPercentile(0.5));
+    }
+
+    @Test
+    public void percentile_isUpperBoundOfBucket() {
+        Histogram histogram = new Histogram("us");
+        // 90個落在[64, 128)，10個落在[1024, 2048)
+        for (int i = 0; i < 90; i++) histogram.record(100);
+        for (int i = 0; i < 10; i++) histogram.record(1500);
+
+        assertEquals(127, histogram.getPercentile(0.5));
+        assertEquals(127, histogram.getPercentile(0.9));
+        // 第91個值已落在下一個桶，但不超過最大值
+        assertEquals(1500, histogram.getPercentile(0.91));
+        assertEquals(1500, histogram.getPercentile(0.99));
+        assertEquals(1500, histogram.getPercentile(1));
+    }
+
+    @Test
+    public void percentile_neverExceedsMax() {
+        Histogram histogram = new Histogram("bytes");
+        histogram.record(65);
+        assertEquals(65, histogram.getPercentile(0.5));
+        assertEquals(65, histogram.getMax());
+    }
+
+    @Test
+    public void percentile_zeroAndNegativeValues() {
+        Histogram histogram = new Histogram("us");
+        histogram.record(0);
+        histogram.record(-5); // 視為0
+        histogram.record(1);
+        assertEquals(0, histogram.getPercentile(0.5));
+        assertEquals(1, histogram.getPercentile(1));
+        assertEquals(0, histogram.getMean());
+    }
+
+    @Test
+    public void percentile_largeValues() {
+        Histogram histogram = new Histogram("us");
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, histogram.getPercentile(0.5));
+    }
+
+    @Test
+    public void meanAndReset() {
+        Histogram histogram = new Histogram("us");
+        histogram.record(10);
+        histogram.record(20);
+        histogram.record(30);
+        assertEquals(3, histogram.getCount());
+        assertEquals(60, histogram.getSum());
+        assertEquals(20, histogram.getMean());
+        assertTrue(histogram.toString().contains("n=3"));
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(0.99));
+    }
+}
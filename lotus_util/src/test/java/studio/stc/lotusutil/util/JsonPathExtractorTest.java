@@ -0,0 +1,95 @@
+package studio.stc.lotusutil.util;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class JsonPathExtractorTest {
+    // 在找到所有路徑之後就被截斷的文件：讀到結尾會拋出例外
+    private static final String TRUNCATED = "{\"id\": 7, \"user\": {\"name\": \"lotus\", \"age\": 3}, \"rest\": [1, 2, ";
+
+    @Test
+    public void extract_simplePaths() throws IOException {
+        JsonPathExtractor extractor = JsonPathExtractor.compile("id", "$.user.name", "geo[1]", "missing", "nil");
+        JsonPathExtractor.Result result = extractor.extract(
+                "{\"id\": 1, \"user\": {\"name\": \"a\"}, \"geo\": [10.5, 20.5], \"nil\": null}");
+        assertEquals(1L, result.getLong("id", -1));
+        assertEquals("a", result.getString("$.user.name", ""));
+        assertEquals(20.5, result.getDouble("geo[1]", 0), 0);
+        assertFalse(result.has("missing"));
+        assertNull(result.get("missing"));
+        assertTrue(result.has("nil"));
+        assertSame(JSONObject.NULL, result.get("nil"));
+    }
+
+    @Test
+    public void extract_stopsOnceAllPathsAreFound() throws IOException {
+        JsonPathExtractor.Result result = JsonPathExtractor.compile("id", "user.name").extract(TRUNCATED);
+        assertEquals(7L, result.getLong("id", -1));
+        assertEquals("lotus", result.getString("user.name", ""));
+    }
+
+    @Test(expected = IOException.class)
+    public void extract_readsToTheEndWhenPathIsMissing() throws IOException {
+        JsonPathExtractor.compile("id", "notThere").extract(TRUNCATED);
+    }
+
+    @Test(expected = IOException.class)
+    public void extract_wildcardReadsToTheEnd() throws IOException {
+        // [*]的路徑不知道何時結束，不能提早停止
+        JsonPathExtractor.compile("id", "rest[*]").extract(TRUNCATED);
+    }
+
+    @Test
+    public void extract_indexAndWildcardOnSameElement() throws IOException {
+        JsonPathExtractor extractor = JsonPathExtractor.compile("items[1].id", "items[*].id", "items[0]");
+        JsonPathExtractor.Result result = extractor.extract(
+                "{\"items\": [{\"id\": 1, \"tag\": \"x\"}, {\"id\": 2}, {\"id\": 3}]}");
+        assertEquals(2L, result.getLong("items[1].id", -1));
+        JSONArray ids = (JSONArray) result.get("items[*].id");
+        assertEquals(3, ids.length());
+        assertEquals(1L, JsonUtil.toLong(ids.opt(0), -1));
+        assertEquals(2L, JsonUtil.toLong(ids.opt(1), -1));
+        assertEquals(3L, JsonUtil.toLong(ids.opt(2), -1));
+        JSONObject first = (JSONObject) result.get("items[0]");
+        assertEquals("x", first.opt("tag"));
+    }
+
+    @Test
+    public void extract_nestedWildcardsAreFlattened() throws IOException {
+        JsonPathExtractor.Result result = JsonPathExtractor.compile("a[*][*]").extract("{\"a\": [[1, 2], [], [3]]}");
+        JSONArray values = (JSONArray) result.get("a[*][*]");
+        assertEquals(3, values.length());
+        assertEquals(3L, JsonUtil.toLong(values.opt(2), -1));
+    }
+
+    @Test
+    public void extract_wildcardWithoutMatchesIsMissing() throws IOException {
+        JsonPathExtractor.Result result = JsonPathExtractor.compile("items[*].id").extract("{\"items\": []}");
+        assertFalse(result.has("items[*].id"));
+        assertNull(result.get("items[*].id"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void compile_rejectsDuplicatedPath() {
+        JsonPathExtractor.compile("id", "id");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void compile_rejectsInvalidIndex() {
+        JsonPathExtractor.compile("items[x]");
+    }
+}
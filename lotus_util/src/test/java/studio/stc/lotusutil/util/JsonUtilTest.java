@@ -0,0 +1,122 @@
+package studio.stc.lotusutil.util;
+
+import android.util.JsonReader;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class JsonUtilTest {
+
+    @Test
+    public void parseNumber_integersAreLongs() {
+        assertEquals(42L, JsonUtil.parseNumber("42"));
+        assertEquals(-7L, JsonUtil.parseNumber("-7"));
+        assertEquals(0L, JsonUtil.parseNumber("0"));
+        // 18個字元以內走快速路徑，超過的交給Long.parseLong
+        assertEquals(999999999999999999L, JsonUtil.parseNumber("999999999999999999"));
+        assertEquals(Long.MAX_VALUE, JsonUtil.parseNumber("9223372036854775807"));
+        assertEquals(Long.MIN_VALUE, JsonUtil.parseNumber("-9223372036854775808"));
+    }
+
+    @Test
+    public void parseNumber_otherNumbersAreDoubles() {
+        assertEquals(1.5, JsonUtil.parseNumber("1.5"));
+        assertEquals(1000.0, JsonUtil.parseNumber("1e3"));
+        assertEquals(-2.5e-3, JsonUtil.parseNumber("-2.5E-3"));
+        // 超出long範圍
+        assertEquals(9223372036854775808.0, JsonUtil.parseNumber("9223372036854775808"));
+    }
+
+    @Test
+    public void parseLong_fastAndSlowPaths() {
+        assertEquals(123456789012345678L, JsonUtil.parseLong("123456789012345678"));
+        assertEquals(-12345678901234567L, JsonUtil.parseLong("-12345678901234567"));
+        assertEquals(1234567890123456789L, JsonUtil.parseLong("1234567890123456789"));
+        assertEquals(Long.MIN_VALUE, JsonUtil.parseLong("-9223372036854775808"));
+        assertEquals(1L, JsonUtil.parseLong("1.0"));
+        assertEquals(1000L, JsonUtil.parseLong("1e3"));
+    }
+
+    @Test
+    public void parseLong_rejectsFractionsAndOverflow() {
+        assertParseLongFails("1.5");
+        assertParseLongFails("1e-1");
+        assertParseLongFails("9223372036854775808");
+        assertParseLongFails("-");
+        assertParseLongFails("");
+    }
+
+    @Test
+    public void parseDouble_matchesDoubleParseDouble() {
+        String[] numbers = {"0", "42", "-42", "0.1", "-2.5e-3", "1E10", "999999999999999999",
+                "9007199254740993", "123456789012345678901234567890", "-9223372036854775809"};
+        for (String number : numbers) {
+            assertEquals(number, Double.doubleToLongBits(Double.parseDouble(number)),
+                    Double.doubleToLongBits(JsonUtil.parseDouble(number)));
+        }
+    }
+
+    @Test
+    public void parseDouble_negativeZero() {
+        assertTrue(1 / JsonUtil.parseDouble("-0") < 0);
+        assertTrue(1 / JsonUtil.parseDouble("0") > 0);
+    }
+
+    @Test
+    public void readInts_acceptsIntegralNumbers() throws IOException {
+        assertArrayEquals(new int[]{1, -2, 300, Integer.MAX_VALUE},
+                JsonUtil.readInts(reader("[1, -2.0, 3e2, 2147483647]")));
+        assertArrayEquals(new int[0], JsonUtil.readInts(reader("[]")));
+    }
+
+    @Test
+    public void readInts_rejectsOutOfRange() throws IOException {
+        try {
+            JsonUtil.readInts(reader("[2147483648]"));
+            fail("expected NumberFormatException");
+        } catch (NumberFormatException expected) {
+            // 超出int範圍
+        }
+    }
+
+    @Test
+    public void readLongsAndDoubles_growPastInitialCapacity() throws IOException {
+        StringBuilder json = new StringBuilder("[");
+        long[] longs = new long[40];
+        double[] doubles = new double[40];
+        for (int i = 0; i < longs.length; i++) {
+            if (i > 0) json.append(',');
+            json.append(i * 1000000007L);
+            longs[i] = i * 1000000007L;
+            doubles[i] = i * 1000000007L;
+        }
+        json.append(']');
+        assertArrayEquals(longs, JsonUtil.readLongs(reader(json.toString())));
+        assertArrayEquals(doubles, JsonUtil.readDoubles(reader(json.toString())), 0);
+    }
+
+    private static JsonReader reader(String json) {
+        return new JsonReader(new StringReader(json));
+    }
+
+    private static void assertParseLongFails(String number) {
+        try {
+            JsonUtil.parseLong(number);
+            fail("expected NumberFormatException for \"" + number + "\"");
+        } catch (NumberFormatException expected) {
+            // 不是long
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package studio.stc.lotusutil.util;
+
+import org.json.JSONException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class LazyJsonDocumentTest {
+
+    @Test
+    public void get_wellFormedDocument() throws JSONException {
+        LazyJsonDocument document = LazyJsonDocument.parse(
+                "{\"id\": 7, \"user\": {\"name\": \"lotus\"}, \"tags\": [\"a\", \"b\", \"c\"]}");
+        assertTrue(document.has("user.name"));
+        assertEquals("lotus", document.getString("user.name", ""));
+        assertEquals(7L, document.getLong("id", -1));
+        assertEquals(3, document.sizeOf("tags"));
+        assertEquals("c", document.getString("tags[2]", ""));
+    }
+
+    @Test
+    public void malformedMembers_returnNullInsteadOfThrowing() throws JSONException {
+        // 括號成對所以parse會成功，格式錯誤要到讀取時才發現
+        String[] documents = {"{\"a\":}", "{\"a\":,\"b\":1}", "{\"a\" 1}", "{\"a\":[1,,2]}", "{\"a\":[,]}"};
+        for (String json : documents) {
+            LazyJsonDocument document = LazyJsonDocument.parse(json);
+            assertFalse(json, document.has("b"));
+            assertNull(json, document.get("a[1]"));
+            assertEquals(json, -1, document.sizeOf("a"));
+        }
+    }
+
+    @Test
+    public void truncatedAfterName_returnsNull() throws JSONException {
+        LazyJsonDocument document = LazyJsonDocument.parse("\"a\"");
+        assertNull(document.get("a"));
+        assertEquals(-1, document.sizeOf("$"));
+    }
+}
@@ -0,0 +1,109 @@
+package studio.stc.lotusutil.util;
+
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.BasicNetwork;
+import com.android.volley.toolbox.HurlStack;
+import com.android.volley.toolbox.NoCache;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class RequestCoalescerTest {
+    // 不啟動的Queue：請求只會被排入，不會真的送出
+    private RequestQueue mQueue;
+    private final List<Request<String>> mCreated = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        mQueue = new RequestQueue(new NoCache(), new BasicNetwork(new HurlStack()));
+        mCreated.clear();
+    }
+
+    @Test
+    public void cancelAll_cancelsEveryRequestWithoutListeners() {
+        execute("http://example.com/a", "tag1");
+        execute("http://example.com/b", "tag1");
+        execute("http://example.com/c", "tag1");
+        assertEquals(3, mCreated.size());
+
+        // 迭代中移除多筆，不能拋出ConcurrentModificationException
+        RequestCoalescer.cancelAll("tag1");
+
+        for (Request<String> request : mCreated) assertTrue(request.isCanceled());
+    }
+
+    @Test
+    public void cancelAll_keepsRequestWithRemainingListeners() {
+        execute("http://example.com/shared", "tag1");
+        execute("http://example.com/shared", "tag2");
+        assertEquals(1, mCreated.size());
+
+        RequestCoalescer.cancelAll("tag1");
+        assertFalse(mCreated.get(0).isCanceled());
+
+        RequestCoalescer.cancelAll("tag2");
+        assertTrue(mCreated.get(0).isCanceled());
+    }
+
+    @Test
+    public void cancelAll_laterRequestIsSentAgain() {
+        execute("http://example.com/again", "tag1");
+        RequestCoalescer.cancelAll("tag1");
+
+        execute("http://example.com/again", "tag1");
+        assertEquals(2, mCreated.size());
+        assertFalse(mCreated.get(1).isCanceled());
+        RequestCoalescer.cancelAll("tag1");
+    }
+
+    private void execute(final String url, Object tag) {
+        String key = RequestCoalescer.keyOf(Request.Method.GET, url, null, null);
+        RequestCoalescer.execute(mQueue, key, tag, new InternetSourceAgent.ResponseListener<String>() {
+            @Override
+            public void OnResponseSuccess(String object) {
+            }
+
+            @Override
+            public void OnResponseError(VolleyError error) {
+            }
+        }, new RequestCoalescer.RequestFactory<String>() {
+            @Override
+            public Request<String> create(Response.Listener<String> listener, Response.ErrorListener errorListener) {
+                Request<String> request = new StringRequest(url, errorListener);
+                mCreated.add(request);
+                return request;
+            }
+        }, null, "example.com");
+    }
+
+    private static final class StringRequest extends Request<String> {
+        StringRequest(String url, Response.ErrorListener errorListener) {
+            super(Method.GET, url, errorListener);
+        }
+
+        @Override
+        protected Response<String> parseNetworkResponse(NetworkResponse response) {
+            return Response.success(new String(response.data), null);
+        }
+
+        @Override
+        protected void deliverResponse(String response) {
+        }
+    }
+}
@@ -0,0 +1,435 @@
+package studio.stc.lotusutil.util;
+
+import android.util.Base64;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.ExecutorDelivery;
+import com.android.volley.Header;
+import com.android.volley.Network;
+import com.android.volley.NetworkError;
+import com.android.volley.NetworkResponse;
+import com.android.volley.NoConnectionError;
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+import com.android.volley.ServerError;
+import com.android.volley.TimeoutError;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.BaseHttpStack;
+import com.android.volley.toolbox.BasicNetwork;
+import com.android.volley.toolbox.HttpResponse;
+import com.android.volley.toolbox.NoCache;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class RequestOutboxTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final String URL = "https://example.com/items/1";
+    private static final String OTHER_URL = "https://example.com/items/2";
+
+    private StubServer mServer;
+    private RequestQueue mQueue;
+    private final AtomicInteger mFinished = new AtomicInteger();
+
+    @Before
+    public void setUp() {
+        HostGuard.reset();
+        mServer = new StubServer();
+        mFinished.set(0);
+        // 回應在背景執行緒上送達，不需要推動主執行緒的Looper
+        mQueue = new RequestQueue(new NoCache(), mServer.network, 4, new ExecutorDelivery(Executors.newSingleThreadExecutor()));
+        mQueue.addRequestFinishedListener(new RequestQueue.RequestFinishedListener<Object>() {
+            @Override
+            public void onRequestFinished(Request<Object> request) {
+                mFinished.incrementAndGet();
+            }
+        });
+        mQueue.start();
+    }
+
+    @After
+    public void tearDown() {
+        mQueue.stop();
+    }
+
+    @Test
+    public void load_replaysLogAndSkipsTruncatedLine() throws Exception {
+        File dir = folder.newFolder();
+        writeLog(dir, "ADD " + entryJson(1, Request.Method.POST, URL) + "\n"
+                + "ADD " + entryJson(2, Request.Method.PUT, URL) + "\n"
+                + "DONE 1\n"
+                + "ADD {\"id\":3,\"meth"); // 寫到一半被中斷
+
+        assertEquals(1, pendingCount(open(dir)));
+        List<JSONObject> entries = readLog(dir);
+        assertEquals(1, entries.size());
+        assertEquals(2, entries.get(0).getLong("id"));
+        assertEquals(Request.Method.PUT, entries.get(0).getInt("method"));
+    }
+
+    @Test
+    public void enqueue_survivesRestart() throws Exception {
+        File dir = folder.newFolder();
+        RequestOutbox outbox = open(dir);
+        long id = outbox.enqueue(patch(URL, "{\"a\":1}"));
+        assertEquals(1, pendingCount(outbox));
+
+        assertEquals(1, pendingCount(open(dir)));
+        assertEquals(id, readLog(dir).get(0).getLong("id"));
+    }
+
+    @Test
+    public void enqueue_mergesConsecutivePatches() throws Exception {
+        File dir = folder.newFolder();
+        RequestOutbox outbox = open(dir);
+        outbox.enqueue(patch(URL, "{\"a\":1,\"b\":1}"));
+        long newer = outbox.enqueue(patch(URL, "{\"b\":2}"));
+        assertEquals(1, pendingCount(outbox));
+
+        assertEquals(1, pendingCount(open(dir)));
+        JSONObject entry = readLog(dir).get(0);
+        assertEquals(newer, entry.getLong("id"));
+        JSONObject body = new JSONObject(new String(Base64.decode(entry.getString("body"), Base64.NO_WRAP), StandardCharsets.UTF_8));
+        assertEquals(1, body.getInt("a"));
+        assertEquals(2, body.getInt("b"));
+    }
+
+    @Test
+    public void enqueue_doesNotMergePatchesAcrossOtherRequest() throws Exception {
+        File dir = folder.newFolder();
+        RequestOutbox outbox = open(dir);
+        outbox.enqueue(patch(URL, "{\"a\":1}"));
+        outbox.enqueue(new RequestSpec.Builder(Request.Method.PUT, URL).body(new JSONObject("{\"a\":0}")).build());
+        outbox.enqueue(patch(URL, "{\"a\":2}"));
+        assertEquals(3, pendingCount(outbox));
+
+        assertEquals(3, pendingCount(open(dir)));
+        List<JSONObject> entries = readLog(dir);
+        assertEquals(Request.Method.PATCH, entries.get(0).getInt("method"));
+        assertEquals(Request.Method.PUT, entries.get(1).getInt("method"));
+        assertEquals(Request.Method.PATCH, entries.get(2).getInt("method"));
+    }
+
+    @Test
+    public void enqueue_doesNotMergePatchesToOtherUrl() throws Exception {
+        File dir = folder.newFolder();
+        RequestOutbox outbox = open(dir);
+        outbox.enqueue(patch(URL, "{\"a\":1}"));
+        outbox.enqueue(patch("https://example.com/items/2", "{\"a\":2}"));
+        outbox.enqueue(patch(URL, "{\"b\":3}"));
+        // 中間是不同網址的請求，同一網址的兩筆PATCH仍然相鄰
+        assertEquals(2, pendingCount(outbox));
+    }
+
+    @Test
+    public void enqueue_mergedPatchIsLoggedBeforeOldOneIsDone() throws Exception {
+        File dir = folder.newFolder();
+        RequestOutbox outbox = open(dir);
+        long older = outbox.enqueue(patch(URL, "{\"a\":1}"));
+        long newer = outbox.enqueue(patch(URL, "{\"b\":2}"));
+        assertEquals(1, pendingCount(outbox));
+
+        // 兩行之間中斷時，至少要留下一筆合併後的內容
+        List<String> lines = Files.readAllLines(new File(dir, "outbox.log").toPath(), StandardCharsets.UTF_8);
+        int add = -1;
+        int done = -1;
+        for (int i = 0; i < lines.size(); i++) {
+            if (lines.get(i).startsWith("ADD ") && new JSONObject(lines.get(i).substring(4)).getLong("id") == newer) add = i;
+            if (lines.get(i).equals("DONE " + older)) done = i;
+        }
+        assertTrue(add >= 0 && add < done);
+    }
+
+    @Test
+    public void replay_keepsOrderPerUrlAndConcurrencyLimit() throws Exception {
+        RequestOutbox outbox = open(folder.newFolder(), mQueue);
+        outbox.setReplayLimits(3, 2);
+        mServer.delayMs = 50;
+        outbox.enqueue(post(URL, "1"));
+        outbox.enqueue(post(URL, "2"));
+        outbox.enqueue(post(OTHER_URL, "3"));
+        outbox.enqueue(post(URL, "4"));
+        outbox.enqueue(post("https://example.com/items/3", "5"));
+        outbox.replay();
+
+        awaitFinished(5);
+        assertEquals(0, pendingCount(outbox));
+        assertTrue(mServer.maxActive.get() <= 2);
+        assertEquals(1, mServer.maxActivePerUrl.get());
+        List<String> sameUrl = new ArrayList<>();
+        for (String call : mServer.calls()) {
+            if (call.startsWith(URL)) sameUrl.add(call);
+        }
+        assertEquals(3, sameUrl.size());
+        assertEquals(URL + " 1", sameUrl.get(0));
+        assertEquals(URL + " 2", sameUrl.get(1));
+        assertEquals(URL + " 4", sameUrl.get(2));
+    }
+
+    @Test
+    public void replay_keepsEntryOnTemporaryServerError() throws Exception {
+        int[] statuses = {408, 429, 500, 503};
+        for (int status : statuses) {
+            // 每個狀態碼使用新的Queue與計數
+            tearDown();
+            setUp();
+            RequestOutbox outbox = open(folder.newFolder(), mQueue);
+            outbox.setReplayLimits(10, 1);
+            mServer.statuses.put(URL, status);
+            outbox.enqueue(post(URL, "1"));
+            outbox.enqueue(post(OTHER_URL, "2"));
+            outbox.replay();
+
+            awaitFinished(1);
+            // 保留失敗的一筆，並結束這一輪
+            assertEquals("status " + status, 2, pendingCount(outbox));
+            assertEquals("status " + status, 1, mServer.calls().size());
+
+            mServer.statuses.remove(URL);
+            outbox.replay();
+            awaitFinished(3);
+            assertEquals("status " + status, 0, pendingCount(outbox));
+        }
+    }
+
+    @Test
+    public void replay_keepsEntryWhileCircuitIsOpen() throws Exception {
+        RequestOutbox outbox = open(folder.newFolder(), mQueue);
+        mServer.circuitOpen.set(1);
+        outbox.enqueue(post(URL, "1"));
+        outbox.replay();
+
+        awaitFinished(1);
+        assertEquals(1, pendingCount(outbox));
+        assertEquals(0, mServer.calls().size());
+
+        outbox.replay();
+        awaitFinished(2);
+        assertEquals(0, pendingCount(outbox));
+        assertEquals(1, mServer.calls().size());
+    }
+
+    @Test
+    public void replay_dropsEntryRejectedByServer() throws Exception {
+        RequestOutbox outbox = open(folder.newFolder(), mQueue);
+        outbox.setReplayLimits(10, 1);
+        final List<Long> dropped = Collections.synchronizedList(new ArrayList<Long>());
+        outbox.addListener(new RequestOutbox.OutboxListener() {
+            @Override
+            public void OnReplaySuccess(long id, String response) {
+            }
+
+            @Override
+            public void OnReplayDropped(long id, VolleyError error) {
+                dropped.add(id);
+            }
+        });
+        mServer.statuses.put(URL, 404);
+        long rejected = outbox.enqueue(post(URL, "1"));
+        outbox.enqueue(post(OTHER_URL, "2"));
+        outbox.replay();
+
+        awaitFinished(2);
+        assertEquals(0, pendingCount(outbox));
+        assertEquals(Collections.singletonList(rejected), dropped);
+    }
+
+    @Test
+    public void isTemporary_onlyRetryableStatusesAndOpenCircuit() {
+        assertTrue(RequestOutbox.isTemporary(new ServerError(response(503))));
+        assertTrue(RequestOutbox.isTemporary(new ServerError(response(408))));
+        assertTrue(RequestOutbox.isTemporary(new ServerError(response(429))));
+        assertTrue(RequestOutbox.isTemporary(new HostGuard.CircuitOpenError("example.com", 1000)));
+        assertFalse(RequestOutbox.isTemporary(new ServerError(response(404))));
+        assertFalse(RequestOutbox.isTemporary(new TimeoutError()));
+    }
+
+    @Test
+    public void isOfflineError_timeoutOnlyForIdempotentMethods() {
+        assertTrue(RequestOutbox.isOfflineError(new TimeoutError(), Request.Method.PUT));
+        assertTrue(RequestOutbox.isOfflineError(new TimeoutError(), Request.Method.DELETE));
+        assertFalse(RequestOutbox.isOfflineError(new TimeoutError(), Request.Method.POST));
+        assertFalse(RequestOutbox.isOfflineError(new TimeoutError(), Request.Method.PATCH));
+        assertFalse(RequestOutbox.isOfflineError(new NoConnectionError(new SocketException("reset")), Request.Method.POST));
+        assertTrue(RequestOutbox.isOfflineError(new NetworkError(new SocketException("reset")), Request.Method.PUT));
+    }
+
+    @Test
+    public void isOfflineError_neverConnectedForAnyMethod() {
+        assertTrue(RequestOutbox.isOfflineError(new NoConnectionError(new UnknownHostException()), Request.Method.POST));
+        assertTrue(RequestOutbox.isOfflineError(new NoConnectionError(new ConnectException()), Request.Method.PATCH));
+    }
+
+    private static RequestOutbox open(File dir) {
+        return new RequestOutbox(RuntimeEnvironment.application, dir);
+    }
+
+    private static RequestOutbox open(File dir, RequestQueue queue) {
+        return new RequestOutbox(RuntimeEnvironment.application, dir, queue);
+    }
+
+    private static RequestSpec post(String url, String body) {
+        return new RequestSpec.Builder(Request.Method.POST, url).body(body.getBytes(StandardCharsets.UTF_8), "text/plain").build();
+    }
+
+    private static NetworkResponse response(int status) {
+        return new NetworkResponse(status, new byte[0], false, 0, Collections.<Header>emptyList());
+    }
+
+    /**
+     * 等待Queue結束指定數量的請求。監聽器在結束之前就已把結果交給外寄匣的執行緒，
+     * 之後的 {@link #pendingCount(RequestOutbox)} 一定會排在處理結果之後。
+     */
+    private void awaitFinished(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (mFinished.get() < count) {
+            assertTrue("timed out waiting for " + count + " requests", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static RequestSpec patch(String url, String json) throws JSONException {
+        return new RequestSpec.Builder(Request.Method.PATCH, url).body(new JSONObject(json)).build();
+    }
+
+    private static String entryJson(long id, int method, String url) throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("id", id);
+        json.put("method", method);
+        json.put("url", url);
+        json.put("headers", new JSONObject());
+        return json.toString();
+    }
+
+    /**
+     * 等待外寄匣處理完先前的工作(所有工作都在同一個執行緒上依序執行)。
+     */
+    private static int pendingCount(RequestOutbox outbox) throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicInteger count = new AtomicInteger();
+        outbox.getPendingCount(new RequestOutbox.CountCallback() {
+            @Override
+            public void OnCount(int pendingCount) {
+                count.set(pendingCount);
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        return count.get();
+    }
+
+    private static void writeLog(File dir, String text) throws IOException {
+        FileOutputStream out = new FileOutputStream(new File(dir, "outbox.log"));
+        try {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * 開啟時log會被重寫成只剩尚未送出的ADD。
+     */
+    private static List<JSONObject> readLog(File dir) throws IOException, JSONException {
+        List<JSONObject> entries = new ArrayList<>();
+        for (String line : Files.readAllLines(new File(dir, "outbox.log").toPath(), StandardCharsets.UTF_8)) {
+            if (line.startsWith("ADD ")) entries.add(new JSONObject(line.substring(4)));
+        }
+        return entries;
+    }
+
+    /**
+     * 代替伺服器的HTTP stack：依網址回應指定的狀態碼，並紀錄呼叫的順序與同時連線數。
+     */
+    private static final class StubServer extends BaseHttpStack {
+        final Map<String, Integer> statuses = new ConcurrentHashMap<>();
+        final AtomicInteger maxActive = new AtomicInteger();
+        final AtomicInteger maxActivePerUrl = new AtomicInteger();
+        // 大於0時，接下來的請求以斷路中失敗(不會送到stack)
+        final AtomicInteger circuitOpen = new AtomicInteger();
+        volatile long delayMs = 0;
+        private final AtomicInteger mActive = new AtomicInteger();
+        private final Map<String, AtomicInteger> mActivePerUrl = new ConcurrentHashMap<>();
+        private final List<String> mCalls = Collections.synchronizedList(new ArrayList<String>());
+
+        private final BasicNetwork basic = new BasicNetwork(this);
+        final Network network = new Network() {
+            @Override
+            public NetworkResponse performRequest(Request<?> request) throws VolleyError {
+                if (circuitOpen.getAndDecrement() > 0) throw new HostGuard.CircuitOpenError(HostGuard.hostOf(request.getUrl()), 1000);
+                return basic.performRequest(request);
+            }
+        };
+
+        List<String> calls() {
+            synchronized (mCalls) {
+                return new ArrayList<>(mCalls);
+            }
+        }
+
+        @Override
+        public HttpResponse executeRequest(Request<?> request, Map<String, String> additionalHeaders) throws IOException, AuthFailureError {
+            String url = request.getUrl();
+            AtomicInteger perUrl = mActivePerUrl.get(url);
+            if (perUrl == null) {
+                mActivePerUrl.put(url, new AtomicInteger());
+                perUrl = mActivePerUrl.get(url);
+            }
+            updateMax(maxActive, mActive.incrementAndGet());
+            updateMax(maxActivePerUrl, perUrl.incrementAndGet());
+            try {
+                if (delayMs > 0) Thread.sleep(delayMs);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            } finally {
+                perUrl.decrementAndGet();
+                mActive.decrementAndGet();
+            }
+            mCalls.add(url + " " + new String(request.getBody(), StandardCharsets.UTF_8));
+            Integer status = statuses.get(url);
+            return new HttpResponse(status == null ? 200 : status, Collections.<Header>emptyList(), "ok".getBytes(StandardCharsets.UTF_8));
+        }
+
+        private static void updateMax(AtomicInteger max, int value) {
+            int current;
+            while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+                // 重試
+            }
+        }
+    }
+}
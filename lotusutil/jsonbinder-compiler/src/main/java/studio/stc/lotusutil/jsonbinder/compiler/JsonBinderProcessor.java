@@ -0,0 +1,485 @@
+package studio.stc.lotusutil.jsonbinder.compiler;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+import studio.stc.lotusutil.jsonbinder.JsonIgnore;
+import studio.stc.lotusutil.jsonbinder.JsonModel;
+import studio.stc.lotusutil.jsonbinder.JsonName;
+
+/**
+ * JsonBinderProcessor by STC
+ * 為每個 {@link JsonModel} 類別產生「類別名稱_JsonBinder」，實作studio.stc.lotusutil.util.JsonBinder：
+ * <ul>
+ * <li>讀取時以switch比對欄位名稱，基本型別以nextInt / nextLong / nextDouble / nextBoolean直接讀入欄位，不經過包裝類別。</li>
+ * <li>未知的欄位以skipValue略過；JSON中為null或缺少的欄位保留建構子設定的預設值。</li>
+ * <li>巢狀的model經由對方binder的INSTANCE讀寫，不使用reflection。</li>
+ * <li>int[] / long[] / double[] 以JsonUtil的數字陣列讀寫，不建立任何包裝類別。</li>
+ * <li>父類別的欄位也會被讀寫(排在子類別的欄位之前)；父類別在其他package時，欄位必須是public。</li>
+ * </ul>
+ */
+public final class JsonBinderProcessor extends AbstractProcessor {
+    private static final String BINDER_SUFFIX = "_JsonBinder";
+    private static final String BINDER_INTERFACE = "studio.stc.lotusutil.util.JsonBinder";
+    private static final String JSON_UTIL = "studio.stc.lotusutil.util.JsonUtil";
+
+    private Messager mMessager;
+    private Elements mElements;
+    private Types mTypes;
+
+    @Override
+    public synchronized void init(ProcessingEnvironment processingEnv) {
+        super.init(processingEnv);
+        mMessager = processingEnv.getMessager();
+        mElements = processingEnv.getElementUtils();
+        mTypes = processingEnv.getTypeUtils();
+    }
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return Collections.singleton(JsonModel.class.getCanonicalName());
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (Element element : roundEnv.getElementsAnnotatedWith(JsonModel.class)) {
+            if (element.getKind() != ElementKind.CLASS) {
+                error(element, "@JsonModel can only be applied to classes");
+                continue;
+            }
+            TypeElement type = (TypeElement) element;
+            try {
+                generate(type);
+            } catch (InvalidModelException e) {
+                error(e.element, e.getMessage());
+            } catch (IOException e) {
+                error(type, "cannot write binder: " + e.getMessage());
+            }
+        }
+        return true;
+    }
+
+    private void generate(TypeElement type) throws IOException, InvalidModelException {
+        checkInstantiable(type);
+        List<Property> properties = propertiesOf(type);
+        String packageName = mElements.getPackageOf(type).getQualifiedName().toString();
+        String binderName = binderSimpleNameOf(type);
+        String modelName = type.getQualifiedName().toString();
+
+        StringBuilder out = new StringBuilder();
+        if (!packageName.isEmpty()) out.append("package ").append(packageName).append(";\n\n");
+        out.append("import android.util.JsonReader;\n")
+                .append("import android.util.JsonToken;\n")
+                .append("import android.util.JsonWriter;\n\n")
+                .append("import java.io.IOException;\n\n")
+                .append("/**\n * 由JsonBinderProcessor產生，請勿修改。\n */\n")
+                .append("public final class ").append(binderName).append(" implements ")
+                .append(BINDER_INTERFACE).append('<').append(modelName).append("> {\n")
+                .append("    public static final ").append(binderName).append(" INSTANCE = new ").append(binderName).append("();\n\n");
+
+        // read
+        out.append("    @Override\n")
+                .append("    public ").append(modelName).append(" read(JsonReader reader) throws IOException {\n")
+                .append("        if (reader.peek() == JsonToken.NULL) {\n")
+                .append("            reader.nextNull();\n")
+                .append("            return null;\n")
+                .append("        }\n")
+                .append("        ").append(modelName).append(" object = new ").append(modelName).append("();\n")
+                .append("        reader.beginObject();\n")
+                .append("        while (reader.hasNext()) {\n")
+                .append("            String name = reader.nextName();\n")
+                .append("            if (reader.peek() == JsonToken.NULL) {\n")
+                .append("                reader.nextNull();\n")
+                .append("                continue;\n")
+                .append("            }\n")
+                .append("            switch (name) {\n");
+        for (Property property : properties) {
+            out.append("                case ").append(literalOf(property.jsonName)).append(":\n");
+            if (property.listElement != null) {
+                out.append("                    object.").append(property.fieldName).append(" = new java.util.ArrayList<>();\n")
+                        .append("                    reader.beginArray();\n")
+                        .append("                    while (reader.hasNext()) {\n")
+                        .append("                        if (reader.peek() == JsonToken.NULL) {\n")
+                        .append("                            reader.nextNull();\n")
+                        .append("                            object.").append(property.fieldName).append(".add(null);\n")
+                        .append("                        } else {\n")
+                        .append("                            object.").append(property.fieldName).append(".add(")
+                        .append(readExpression(property.listElement)).append(");\n")
+                        .append("                        }\n")
+                        .append("                    }\n")
+                        .append("                    reader.endArray();\n");
+            } else {
+                out.append("                    object.").append(property.fieldName).append(" = ").append(readExpression(property.type)).append(";\n");
+            }
+            out.append("                    break;\n");
+        }
+        out.append("                default:\n")
+                .append("                    reader.skipValue();\n")
+                .append("                    break;\n")
+                .append("            }\n")
+                .append("        }\n")
+                .append("        reader.endObject();\n")
+                .append("        return object;\n")
+                .append("    }\n\n");
+
+        // write
+        out.append("    @Override\n")
+                .append("    public void write(JsonWriter writer, ").append(modelName).append(" object) throws IOException {\n")
+                .append("        if (object == null) {\n")
+                .append("            writer.nullValue();\n")
+                .append("            return;\n")
+                .append("        }\n")
+                .append("        writer.beginObject();\n");
+        for (Property property : properties) {
+            String value = "object." + property.fieldName;
+            out.append("        writer.name(").append(literalOf(property.jsonName)).append(");\n");
+            if (property.type.getKind().isPrimitive()) {
+                out.append("        ").append(writeStatement(property.type, value)).append('\n');
+            } else if (property.listElement != null) {
+                out.append("        if (").append(value).append(" == null) {\n")
+                        .append("            writer.nullValue();\n")
+                        .append("        } else {\n")
+                        .append("            writer.beginArray();\n")
+                        .append("            for (").append(property.listElement.toString()).append(" element : ").append(value).append(") {\n")
+                        .append("                if (element == null) writer.nullValue();\n")
+                        .append("                else ").append(writeStatement(property.listElement, "element")).append('\n')
+                        .append("            }\n")
+                        .append("            writer.endArray();\n")
+                        .append("        }\n");
+            } else {
+                out.append("        if (").append(value).append(" == null) writer.nullValue();\n")
+                        .append("        else ").append(writeStatement(property.type, value)).append('\n');
+            }
+        }
+        out.append("        writer.endObject();\n")
+                .append("    }\n")
+                .append("}\n");
+
+        String qualifiedBinderName = packageName.isEmpty() ? binderName : packageName + "." + binderName;
+        JavaFileObject file = processingEnv.getFiler().createSourceFile(qualifiedBinderName, type);
+        Writer writer = file.openWriter();
+        try {
+            writer.write(out.toString());
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * 讀取一個(非null)值的運算式。
+     */
+    private String readExpression(TypeMirror type) {
+        if (type.getKind() == TypeKind.ARRAY) return JSON_UTIL + ".read" + numericArrayNameOf(type) + "(reader)";
+        switch (type.getKind()) {
+            case BOOLEAN:
+                return "reader.nextBoolean()";
+            case INT:
+                return "reader.nextInt()";
+            case SHORT:
+                return "(short) reader.nextInt()";
+            case BYTE:
+                return "(byte) reader.nextInt()";
+            case LONG:
+                return "reader.nextLong()";
+            case FLOAT:
+                return "(float) reader.nextDouble()";
+            case DOUBLE:
+                return "reader.nextDouble()";
+            default:
+                break;
+        }
+        String name = mTypes.erasure(type).toString();
+        switch (name) {
+            case "java.lang.String":
+                return "reader.nextString()";
+            case "java.lang.Boolean":
+                return "Boolean.valueOf(reader.nextBoolean())";
+            case "java.lang.Integer":
+                return "Integer.valueOf(reader.nextInt())";
+            case "java.lang.Short":
+                return "Short.valueOf((short) reader.nextInt())";
+            case "java.lang.Byte":
+                return "Byte.valueOf((byte) reader.nextInt())";
+            case "java.lang.Long":
+                return "Long.valueOf(reader.nextLong())";
+            case "java.lang.Float":
+                return "Float.valueOf((float) reader.nextDouble())";
+            case "java.lang.Double":
+                return "Double.valueOf(reader.nextDouble())";
+            default:
+                return binderQualifiedNameOf((TypeElement) mTypes.asElement(type)) + ".INSTANCE.read(reader)";
+        }
+    }
+
+    /**
+     * 寫入一個(非null)值的敘述。
+     */
+    private String writeStatement(TypeMirror type, String value) {
+        if (type.getKind() == TypeKind.ARRAY) return JSON_UTIL + ".write" + numericArrayNameOf(type) + "(writer, " + value + ");";
+        switch (type.getKind()) {
+            case BOOLEAN:
+                return "writer.value(" + value + ");";
+            case INT:
+            case SHORT:
+            case BYTE:
+            case LONG:
+                return "writer.value((long) " + value + ");";
+            case FLOAT:
+                // 以float的十進位表示寫出，避免1.1f寫成1.100000023841858
+                return "writer.value(Double.parseDouble(Float.toString(" + value + ")));";
+            case DOUBLE:
+                return "writer.value(" + value + ");";
+            default:
+                break;
+        }
+        String name = mTypes.erasure(type).toString();
+        switch (name) {
+            case "java.lang.String":
+                return "writer.value(" + value + ");";
+            case "java.lang.Boolean":
+                return "writer.value(" + value + ".booleanValue());";
+            case "java.lang.Integer":
+            case "java.lang.Short":
+            case "java.lang.Byte":
+            case "java.lang.Long":
+                return "writer.value(" + value + ".longValue());";
+            case "java.lang.Float":
+                return "writer.value(Double.parseDouble(" + value + ".toString()));";
+            case "java.lang.Double":
+                return "writer.value(" + value + ".doubleValue());";
+            default:
+                return binderQualifiedNameOf((TypeElement) mTypes.asElement(type)) + ".INSTANCE.write(writer, " + value + ");";
+        }
+    }
+
+    /**
+     * @return 類別與所有父類別(不含Object)的欄位，父類別的在前。被子類別同名欄位遮蔽的父類別欄位不列入。
+     */
+    private List<Property> propertiesOf(TypeElement type) throws InvalidModelException {
+        List<TypeElement> hierarchy = new ArrayList<>();
+        for (TypeElement current = type; current != null; current = superclassOf(current)) {
+            hierarchy.add(0, current);
+        }
+        Set<String> declaredNames = new HashSet<>();
+        List<VariableElement> fields = new ArrayList<>();
+        // 由子類別往上收集，才能判斷哪些欄位被遮蔽；之後再反轉成父類別在前
+        for (int i = hierarchy.size() - 1; i >= 0; i--) {
+            List<VariableElement> declared = new ArrayList<>();
+            for (Element member : hierarchy.get(i).getEnclosedElements()) {
+                if (member.getKind() != ElementKind.FIELD) continue;
+                if (!declaredNames.add(member.getSimpleName().toString())) continue;
+                declared.add((VariableElement) member);
+            }
+            fields.addAll(0, declared);
+        }
+        String packageName = mElements.getPackageOf(type).getQualifiedName().toString();
+        DeclaredType modelType = (DeclaredType) type.asType();
+        List<Property> properties = new ArrayList<>();
+        Set<String> jsonNames = new HashSet<>();
+        for (VariableElement field : fields) {
+            Set<Modifier> modifiers = field.getModifiers();
+            if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.TRANSIENT)) continue;
+            if (field.getAnnotation(JsonIgnore.class) != null) continue;
+            Element owner = field.getEnclosingElement();
+            String where = owner == type ? "" : " (inherited from " + ((TypeElement) owner).getQualifiedName() + " by " + type.getQualifiedName() + ")";
+            if (modifiers.contains(Modifier.PRIVATE))
+                throw new InvalidModelException(field, "@JsonModel fields must not be private (or mark them @JsonIgnore)" + where);
+            if (modifiers.contains(Modifier.FINAL))
+                throw new InvalidModelException(field, "@JsonModel fields must not be final (or mark them @JsonIgnore)" + where);
+            // 產生的binder與model在同一個package，不是子類別，只能存取public或同一個package的欄位
+            if (!modifiers.contains(Modifier.PUBLIC) && !mElements.getPackageOf(owner).getQualifiedName().contentEquals(packageName))
+                throw new InvalidModelException(field, "inherited fields from another package must be public (or mark them @JsonIgnore)" + where);
+            JsonName jsonName = field.getAnnotation(JsonName.class);
+            String name = jsonName == null ? field.getSimpleName().toString() : jsonName.value();
+            if (!jsonNames.add(name)) throw new InvalidModelException(field, "duplicated JSON name \"" + name + "\"" + where);
+            // 以model的角度取得欄位型別，泛型父類別的T會被代換成實際的型別
+            TypeMirror fieldType = mTypes.asMemberOf(modelType, field);
+            TypeMirror listElement = null;
+            if (numericArrayNameOf(fieldType) != null) {
+                // 數字陣列整個讀寫，不需要逐一處理元素
+            } else if (isList(fieldType)) {
+                List<? extends TypeMirror> arguments = ((DeclaredType) fieldType).getTypeArguments();
+                if (arguments.size() != 1 || !isSupportedValue(arguments.get(0)) || arguments.get(0).getKind().isPrimitive())
+                    throw new InvalidModelException(field, "unsupported list element type of " + fieldType);
+                listElement = arguments.get(0);
+            } else if (!isSupportedValue(fieldType)) {
+                throw new InvalidModelException(field, "unsupported field type " + fieldType
+                        + " (supported: primitives, boxed primitives, String, @JsonModel classes, List of them, int[], long[] and double[])");
+            }
+            properties.add(new Property(field.getSimpleName().toString(), name, fieldType, listElement));
+        }
+        return properties;
+    }
+
+    /**
+     * @return 父類別；沒有或是Object時為null。
+     */
+    private TypeElement superclassOf(TypeElement type) {
+        TypeMirror superclass = type.getSuperclass();
+        if (superclass.getKind() != TypeKind.DECLARED) return null;
+        TypeElement element = (TypeElement) mTypes.asElement(superclass);
+        return element.getQualifiedName().contentEquals("java.lang.Object") ? null : element;
+    }
+
+    private boolean isList(TypeMirror type) {
+        if (type.getKind() != TypeKind.DECLARED) return false;
+        String name = mTypes.erasure(type).toString();
+        return name.equals("java.util.List") || name.equals("java.util.ArrayList");
+    }
+
+    /**
+     * @return int[] / long[] / double[] 對應的JsonUtil方法名稱後綴；其他型別為null。
+     */
+    private static String numericArrayNameOf(TypeMirror type) {
+        if (type.getKind() != TypeKind.ARRAY) return null;
+        switch (((ArrayType) type).getComponentType().getKind()) {
+            case INT:
+                return "Ints";
+            case LONG:
+                return "Longs";
+            case DOUBLE:
+                return "Doubles";
+            default:
+                return null;
+        }
+    }
+
+    private boolean isSupportedValue(TypeMirror type) {
+        switch (type.getKind()) {
+            case BOOLEAN:
+            case INT:
+            case SHORT:
+            case BYTE:
+            case LONG:
+            case FLOAT:
+            case DOUBLE:
+                return true;
+            case DECLARED:
+                break;
+            default:
+                return false;
+        }
+        switch (mTypes.erasure(type).toString()) {
+            case "java.lang.String":
+            case "java.lang.Boolean":
+            case "java.lang.Integer":
+            case "java.lang.Short":
+            case "java.lang.Byte":
+            case "java.lang.Long":
+            case "java.lang.Float":
+            case "java.lang.Double":
+                return true;
+            default:
+                Element element = mTypes.asElement(type);
+                return element != null && element.getAnnotation(JsonModel.class) != null;
+        }
+    }
+
+    private void checkInstantiable(TypeElement type) throws InvalidModelException {
+        if (type.getModifiers().contains(Modifier.ABSTRACT))
+            throw new InvalidModelException(type, "@JsonModel classes must not be abstract");
+        if (type.getModifiers().contains(Modifier.PRIVATE))
+            throw new InvalidModelException(type, "@JsonModel classes must not be private");
+        if (type.getNestingKind() == NestingKind.MEMBER && !type.getModifiers().contains(Modifier.STATIC))
+            throw new InvalidModelException(type, "nested @JsonModel classes must be static");
+        boolean hasConstructor = false;
+        for (Element member : type.getEnclosedElements()) {
+            if (member.getKind() != ElementKind.CONSTRUCTOR) continue;
+            ExecutableElement constructor = (ExecutableElement) member;
+            if (constructor.getParameters().isEmpty() && !constructor.getModifiers().contains(Modifier.PRIVATE)) {
+                hasConstructor = true;
+                break;
+            }
+        }
+        if (!hasConstructor)
+            throw new InvalidModelException(type, "@JsonModel classes need a non-private no-argument constructor");
+    }
+
+    /**
+     * 巢狀類別以外層類別名稱串接，例如User.Address → User_Address_JsonBinder。
+     */
+    private String binderSimpleNameOf(TypeElement type) {
+        StringBuilder name = new StringBuilder(type.getSimpleName());
+        Element enclosing = type.getEnclosingElement();
+        while (enclosing instanceof TypeElement) {
+            name.insert(0, ((TypeElement) enclosing).getSimpleName() + "_");
+            enclosing = enclosing.getEnclosingElement();
+        }
+        return name.append(BINDER_SUFFIX).toString();
+    }
+
+    private String binderQualifiedNameOf(TypeElement type) {
+        String packageName = mElements.getPackageOf(type).getQualifiedName().toString();
+        String simpleName = binderSimpleNameOf(type);
+        return packageName.isEmpty() ? simpleName : packageName + "." + simpleName;
+    }
+
+    private static String literalOf(String value) {
+        StringBuilder builder = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') builder.append('\\').append(c);
+            else if (c < 0x20 || c > 0x7e) builder.append(String.format("\\u%04x", (int) c));
+            else builder.append(c);
+        }
+        return builder.append('"').toString();
+    }
+
+    private void error(Element element, String message) {
+        mMessager.printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+
+    private static final class Property {
+        final String fieldName;
+        final String jsonName;
+        final TypeMirror type;
+        final TypeMirror listElement;
+
+        Property(String fieldName, String jsonName, TypeMirror type, TypeMirror listElement) {
+            this.fieldName = fieldName;
+            this.jsonName = jsonName;
+            this.type = type;
+            this.listElement = listElement;
+        }
+    }
+
+    private static final class InvalidModelException extends Exception {
+        final Element element;
+
+        InvalidModelException(Element element, String message) {
+            super(message);
+            this.element = element;
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package studio.stc.lotusutil.jsonbinder.compiler;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class JsonBinderProcessorTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void generate_readsAndWritesFieldsDirectly() throws IOException {
+        Result result = process(
+                "demo/User.java",
+                "package demo;\n"
+                        + "import studio.stc.lotusutil.jsonbinder.*;\n"
+                        + "@JsonModel public class User {\n"
+                        + "    int id;\n"
+                        + "    @JsonName(\"user_name\") String name;\n"
+                        + "    @JsonIgnore String cached;\n"
+                        + "    transient String session;\n"
+                        + "    static int count;\n"
+                        + "}\n");
+        assertNull(result.error, result.error);
+        String binder = result.generated("demo/User_JsonBinder.java");
+        assertTrue(binder.contains("public final class User_JsonBinder implements studio.stc.lotusutil.util.JsonBinder<demo.User>"));
+        assertTrue(binder.contains("case \"id\":\n                    object.id = reader.nextInt();"));
+        assertTrue(binder.contains("case \"user_name\":\n                    object.name = reader.nextString();"));
+        assertTrue(binder.contains("writer.name(\"id\");\n        writer.value((long) object.id);"));
+        assertFalse(binder.contains("cached"));
+        assertFalse(binder.contains("session"));
+        assertFalse(binder.contains("count"));
+    }
+
+    @Test
+    public void generate_numericArraysUseJsonUtil() throws IOException {
+        Result result = process(
+                "demo/Track.java",
+                "package demo;\n"
+                        + "@studio.stc.lotusutil.jsonbinder.JsonModel public class Track {\n"
+                        + "    int[] ids;\n"
+                        + "    long[] times;\n"
+                        + "    double[] geo;\n"
+                        + "}\n");
+        assertNull(result.error, result.error);
+        String binder = result.generated("demo/Track_JsonBinder.java");
+        assertTrue(binder.contains("object.ids = studio.stc.lotusutil.util.JsonUtil.readInts(reader);"));
+        assertTrue(binder.contains("object.times = studio.stc.lotusutil.util.JsonUtil.readLongs(reader);"));
+        assertTrue(binder.contains("object.geo = studio.stc.lotusutil.util.JsonUtil.readDoubles(reader);"));
+        assertTrue(binder.contains("else studio.stc.lotusutil.util.JsonUtil.writeDoubles(writer, object.geo);"));
+    }
+
+    @Test
+    public void generate_includesInheritedFieldsBeforeOwnFields() throws IOException {
+        Result result = process(
+                "demo/Base.java",
+                "package demo;\n"
+                        + "public class Base {\n"
+                        + "    long id;\n"
+                        + "    String name;\n"
+                        + "}\n",
+                "demo/Child.java",
+                "package demo;\n"
+                        + "@studio.stc.lotusutil.jsonbinder.JsonModel public class Child extends Base {\n"
+                        + "    int age;\n"
+                        + "}\n");
+        assertNull(result.error, result.error);
+        String binder = result.generated("demo/Child_JsonBinder.java");
+        assertTrue(binder.contains("object.id = reader.nextLong();"));
+        assertTrue(binder.contains("object.name = reader.nextString();"));
+        assertTrue(binder.contains("object.age = reader.nextInt();"));
+        int id = binder.indexOf("writer.name(\"id\")");
+        int name = binder.indexOf("writer.name(\"name\")");
+        int age = binder.indexOf("writer.name(\"age\")");
+        assertTrue(id >= 0 && id < name && name < age);
+    }
+
+    @Test
+    public void generate_readsAnnotationsFromCompiledClasses() throws IOException {
+        File classes = compileClasses(
+                "demo/Base.java",
+                "package demo;\n"
+                        + "import studio.stc.lotusutil.jsonbinder.*;\n"
+                        + "public class Base {\n"
+                        + "    @JsonName(\"full_name\") String name;\n"
+                        + "    @JsonIgnore String secret;\n"
+                        + "}\n",
+                "demo/Address.java",
+                "package demo;\n"
+                        + "@studio.stc.lotusutil.jsonbinder.JsonModel public class Address {\n"
+                        + "    String city;\n"
+                        + "}\n");
+        // 只有Child是原始碼，父類別與巢狀model都只能由class檔讀取
+        Result result = process(classes,
+                "demo/Child.java",
+                "package demo;\n"
+                        + "@studio.stc.lotusutil.jsonbinder.JsonModel public class Child extends Base {\n"
+                        + "    Address address;\n"
+                        + "}\n");
+        assertNull(result.error, result.error);
+        String binder = result.generated("demo/Child_JsonBinder.java");
+        assertTrue(binder.contains("case \"full_name\":\n                    object.name = reader.nextString();"));
+        assertFalse(binder.contains("\"name\""));
+        assertFalse(binder.contains("secret"));
+        assertTrue(binder.contains("object.address = demo.Address_JsonBinder.INSTANCE.read(reader);"));
+        assertNull(result.generated("demo/Address_JsonBinder.java"));
+    }
+
+    @Test
+    public void generate_resolvesGenericSuperclassFields() throws IOException {
+        Result result = process(
+                "demo/Box.java",
+                "package demo;\n"
+                        + "public class Box<T> {\n"
+                        + "    T value;\n"
+                        + "    java.util.List<T> values;\n"
+                        + "}\n",
+                "demo/StringBox.java",
+                "package demo;\n"
+                        + "@studio.stc.lotusutil.jsonbinder.JsonModel public class StringBox extends Box<String> {\n"
+                        + "}\n");
+        assertNull(result.error, result.error);
+        String binder = result.generated("demo/StringBox_JsonBinder.java");
+        assertTrue(binder.contains("object.value = reader.nextString();"));
+        assertTrue(binder.contains("object.values.add(reader.nextString());"));
+    }
+
+    @Test
+    public void generate_shadowedSuperclassFieldIsSkipped() throws IOException {
+        Result result = process(
+                "demo/Base.java",
+                "package demo;\n"
+                        + "public class Base {\n"
+                        + "    String id;\n"
+                        + "}\n",
+                "demo/Child.java",
+                "package demo;\n"
+                        + "@studio.stc.lotusutil.jsonbinder.JsonModel public class Child extends Base {\n"
+                        + "    int id;\n"
+                        + "}\n");
+        assertNull(result.error, result.error);
+        String binder = result.generated("demo/Child_JsonBinder.java");
+        assertTrue(binder.contains("object.id = reader.nextInt();"));
+        assertFalse(binder.contains("object.id = reader.nextString();"));
+    }
+
+    @Test
+    public void generate_inheritedPackagePrivateFieldFromAnotherPackage_isRejected() throws IOException {
+        Result result = process(
+                "base/Base.java",
+                "package base;\n"
+                        + "public class Base {\n"
+                        + "    protected long id;\n"
+                        + "}\n",
+                "demo/Child.java",
+                "package demo;\n"
+                        + "@studio.stc.lotusutil.jsonbinder.JsonModel public class Child extends base.Base {\n"
+                        + "}\n");
+        assertTrue(result.error, result.error != null && result.error.contains("must be public"));
+        assertNull(result.generated("demo/Child_JsonBinder.java"));
+    }
+
+    @Test
+    public void generate_inheritedPublicFieldFromAnotherPackage_isAccepted() throws IOException {
+        Result result = process(
+                "base/Base.java",
+                "package base;\n"
+                        + "public class Base {\n"
+                        + "    public long id;\n"
+                        + "    protected @studio.stc.lotusutil.jsonbinder.JsonIgnore String note;\n"
+                        + "}\n",
+                "demo/Child.java",
+                "package demo;\n"
+                        + "@studio.stc.lotusutil.jsonbinder.JsonModel public class Child extends base.Base {\n"
+                        + "}\n");
+        assertNull(result.error, result.error);
+        assertTrue(result.generated("demo/Child_JsonBinder.java").contains("object.id = reader.nextLong();"));
+    }
+
+    @Test
+    public void generate_inheritedPrivateField_isRejected() throws IOException {
+        Result result = process(
+                "demo/Base.java",
+                "package demo;\n"
+                        + "public class Base {\n"
+                        + "    private long id;\n"
+                        + "}\n",
+                "demo/Child.java",
+                "package demo;\n"
+                        + "@studio.stc.lotusutil.jsonbinder.JsonModel public class Child extends Base {\n"
+                        + "}\n");
+        assertTrue(result.error, result.error != null && result.error.contains("must not be private"));
+    }
+
+    @Test
+    public void generate_duplicatedJsonNameAcrossHierarchy_isRejected() throws IOException {
+        Result result = process(
+                "demo/Base.java",
+                "package demo;\n"
+                        + "public class Base {\n"
+                        + "    long id;\n"
+                        + "}\n",
+                "demo/Child.java",
+                "package demo;\n"
+                        + "@studio.stc.lotusutil.jsonbinder.JsonModel public class Child extends Base {\n"
+                        + "    @studio.stc.lotusutil.jsonbinder.JsonName(\"id\") String key;\n"
+                        + "}\n");
+        assertTrue(result.error, result.error != null && result.error.contains("duplicated JSON name"));
+    }
+
+    /**
+     * 只執行annotation processing(-proc:only)。產生的binder引用了Android與lotus_util的類別，
+     * 這裡無法解析，因此只採用model原始碼上的錯誤(也就是處理器回報的錯誤)。
+     */
+    private Result process(String... pathsAndSources) throws IOException {
+        return process(null, pathsAndSources);
+    }
+
+    /**
+     * @param classesDir 額外加入classpath的資料夾(由 {@link #compileClasses(String...)} 編譯)，可以為null。
+     */
+    private Result process(File classesDir, String... pathsAndSources) throws IOException {
+        File generatedDir = folder.newFolder();
+        String classpath = System.getProperty("java.class.path");
+        if (classesDir != null) classpath = classesDir.getPath() + File.pathSeparator + classpath;
+        DiagnosticCollector<JavaFileObject> diagnostics = compile(writeSources(pathsAndSources),
+                "-proc:only", "-classpath", classpath, "-s", generatedDir.getPath());
+        String error = null;
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+            if (diagnostic.getKind() == Diagnostic.Kind.ERROR && !isGenerated(diagnostic.getSource(), generatedDir)) {
+                error = diagnostic.getMessage(Locale.ROOT);
+                break;
+            }
+        }
+        return new Result(generatedDir, error);
+    }
+
+    /**
+     * 不執行處理器，把原始碼編譯成class檔。模擬父類別或巢狀model位於其他模組、或增量編譯時沒有重新編譯的情況。
+     *
+     * @return 存放class檔的資料夾。
+     */
+    private File compileClasses(String... pathsAndSources) throws IOException {
+        File classesDir = folder.newFolder();
+        DiagnosticCollector<JavaFileObject> diagnostics = compile(writeSources(pathsAndSources),
+                "-proc:none", "-classpath", System.getProperty("java.class.path"), "-d", classesDir.getPath());
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+            assertFalse(diagnostic.getMessage(Locale.ROOT), diagnostic.getKind() == Diagnostic.Kind.ERROR);
+        }
+        return classesDir;
+    }
+
+    private List<File> writeSources(String... pathsAndSources) throws IOException {
+        File sourceDir = folder.newFolder();
+        List<File> sources = new ArrayList<>();
+        for (int i = 0; i < pathsAndSources.length; i += 2) {
+            File file = new File(sourceDir, pathsAndSources[i]);
+            assertTrue(file.getParentFile().isDirectory() || file.getParentFile().mkdirs());
+            Files.write(file.toPath(), pathsAndSources[i + 1].getBytes(StandardCharsets.UTF_8));
+            sources.add(file);
+        }
+        return sources;
+    }
+
+    private static DiagnosticCollector<JavaFileObject> compile(List<File> sources, String... options) throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnostics, Locale.ROOT, StandardCharsets.UTF_8);
+        try {
+            JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, diagnostics, Arrays.asList(options), null,
+                    fileManager.getJavaFileObjectsFromFiles(sources));
+            task.setProcessors(Collections.singletonList(new JsonBinderProcessor()));
+            task.call();
+        } finally {
+            fileManager.close();
+        }
+        return diagnostics;
+    }
+
+    private static boolean isGenerated(JavaFileObject source, File generatedDir) {
+        return source != null && new File(source.toUri()).getPath().startsWith(generatedDir.getPath());
+    }
+
+    private static final class Result {
+        private final File generatedDir;
+        final String error;
+
+        Result(File generatedDir, String error) {
+            this.generatedDir = generatedDir;
+            this.error = error;
+        }
+
+        /**
+         * @return 產生的原始碼；沒有產生時為null。
+         */
+        String generated(String path) throws IOException {
+            File file = new File(generatedDir, path);
+            if (!file.isFile()) return null;
+            return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        }
+    }
+}
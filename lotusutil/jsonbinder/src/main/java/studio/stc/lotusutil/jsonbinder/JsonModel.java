@@ -0,0 +1,21 @@
+package studio.stc.lotusutil.jsonbinder;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * JsonModel by STC
+ * 標記需要產生JSON binder的類別。編譯時jsonbinder-compiler會在同一個package產生「類別名稱_JsonBinder」
+ * (巢狀類別為「外層_內層_JsonBinder」)，以JsonReader / JsonWriter直接讀寫，執行時不使用reflection。
+ * <p>
+ * 類別必須有非private的無參數建構子；非static、非transient的欄位都會被讀寫，欄位不能是private。
+ * 支援的欄位型別：基本型別、對應的包裝類別、String、其他標記了 {@link JsonModel} 的類別，以及以上型別的List。
+ * 標記保留在class檔中(CLASS)：父類別或巢狀model在其他模組、或增量編譯時只有class檔，仍然讀得到這些標記。
+ * 父類別(Object以外)的欄位也會一併讀寫；父類別在其他package時，要讀寫的欄位必須是public，否則請標記 {@link JsonIgnore}。
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface JsonModel {
+}
@@ -0,0 +1,15 @@
+package studio.stc.lotusutil.jsonbinder;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 指定欄位在JSON中的名稱。未標記時使用欄位名稱。
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.FIELD)
+public @interface JsonName {
+    String value();
+}
@@ -39,6 +39,25 @@ public abstract class EasyRecyclerViewAdapter<T> extends RecyclerView.Adapter {
      */
     public abstract void bindData(View itemView, int position, T data);
 
+    /**
+     * @return 清單資料(不包含Header或Footer)。
+     */
+    public List<T> getDataList() {
+        return mDataList;
+    }
+
+    /**
+     * 將Adapter的位置(包含Header)轉換為資料的位置。
+     *
+     * @param adapterPosition RecyclerView中的位置，例如 {@link RecyclerView.ViewHolder#getAdapterPosition()}。
+     * @return 資料的位置(0 ~ data-1)；Header、Footer或超出範圍時為-1。
+     */
+    public int toDataPosition(int adapterPosition) {
+        if (adapterPosition < 0 || getItemViewType(adapterPosition) != TYPE_NORMAL) return -1;
+        int dataPosition = adapterPosition - (headerView != null ? 1 : 0);
+        return dataPosition < mDataList.size() ? dataPosition : -1;
+    }
+
     public View getHeaderView() {
         return headerView;
     }